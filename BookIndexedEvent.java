@@ -0,0 +1,28 @@
+import jdk.jfr.*;
+
+/**
+ *  Flight Recorder event emitted when a concordance has finished indexing
+ *  one book.  The event's duration is the time spent reading and indexing
+ *  the book.
+ *
+ *  @author Max Sotsky
+ */
+
+@Name("concordance.BookIndexed")
+@Label("Concordance Book Indexed")
+@Category("Concordance")
+@StackTrace(false)
+public class BookIndexedEvent extends Event
+{
+	@Label("Book")
+	public String book;
+
+	@Label("Words")
+	public int words;
+
+	@Label("Distinct Words So Far")
+	public int distinctWords;
+
+	@Label("Table Size")
+	public int tableSize;
+} // class BookIndexedEvent
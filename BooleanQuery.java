@@ -0,0 +1,198 @@
+import java.util.*;
+
+/**
+ *  A parsed boolean query over the words of a concordance, such as
+ *  "goat AND sin NOT ram" or "goat sin OR lamb".
+ *
+ *  A query is one or more clauses separated by OR.  Each clause is a list of
+ *  words that must all occur in a verse (AND is implied between adjacent
+ *  words, and may also be written out), optionally followed by words after
+ *  NOT that must not occur in it.  Operators must be written in capitals.
+ *
+ *  Evaluation works on the posting lists directly.  Within a clause the
+ *  required words are intersected starting from the one with the fewest
+ *  references, and each further list is searched by galloping from the
+ *  current position, so a very common word costs about log(n) per
+ *  surviving candidate rather than a walk of its whole list.
+ *
+ *  @author Max Sotsky
+ */
+
+public class BooleanQuery
+{
+	private ArrayList<ArrayList<String>> required = new ArrayList<ArrayList<String>>();
+	private ArrayList<ArrayList<String>> excluded = new ArrayList<ArrayList<String>>();
+	//-------------------------------------------------------------------------
+	/**
+	 * Parses a query string.
+	 *
+	 * @param  query  words separated by spaces and the operators AND, OR, NOT
+	 */
+	public BooleanQuery(String query) throws ConcordanceException
+	{
+		String[] tokens = query.trim().split("\\s+");
+		boolean negate = false, expectWord = true;
+
+		newClause();
+		for (String token : tokens)
+		{
+			if (token.equals("OR"))
+			{
+				if (expectWord || required.get(required.size() - 1).isEmpty())
+				{
+					throw new ConcordanceException("Inside BooleanQuery -- misplaced OR in \"" + query + "\"");
+				} // if
+				newClause();
+				negate = false;
+				expectWord = true;
+			} // if
+			else if (token.equals("AND") || token.equals("NOT"))
+			{
+				if (expectWord && !(token.equals("NOT") && !negate))
+				{
+					throw new ConcordanceException("Inside BooleanQuery -- misplaced " + token + " in \"" + query + "\"");
+				} // if
+				negate = token.equals("NOT");
+				expectWord = true;
+			} // else if
+			else if (!token.equals(""))
+			{
+				(negate ? excluded : required).get(required.size() - 1).add(token);
+				negate = false;
+				expectWord = false;
+			} // else if
+		} // for
+
+		if (expectWord || required.get(required.size() - 1).isEmpty())
+		{
+			throw new ConcordanceException("Inside BooleanQuery -- every clause of \"" + query + "\" needs a word that is not negated");
+		} // if
+	} // constructor BooleanQuery(String)
+	//-------------------------------------------------------------------------
+	private void newClause()
+	{
+		required.add(new ArrayList<String>());
+		excluded.add(new ArrayList<String>());
+	} // newClause()
+	//-------------------------------------------------------------------------
+	/**
+	 * Evaluates the query against a concordance.
+	 *
+	 * @return  the matching verses as packed IDs (see ID.pack), in canonical order
+	 */
+	public int[] evaluate(Concordance concord)
+	{
+		int[] result = new int[0];
+
+		for (int c = 0; c < required.size(); c++)
+		{
+			result = union(result, evaluateClause(concord, required.get(c), excluded.get(c)));
+		} // for
+		return result;
+	} // evaluate(Concordance)
+	//-------------------------------------------------------------------------
+	private static int[] evaluateClause(Concordance concord, ArrayList<String> words, ArrayList<String> notWords)
+	{
+		HashEntry[] entries = new HashEntry[words.size()];
+		HashEntry entry;
+		PostingIterator iterator;
+		int[] candidates;
+		int count;
+
+		for (int i = 0; i < entries.length; i++)
+		{
+			entries[i] = concord.lookup(words.get(i));
+			if (entries[i] == null)
+			{
+				return new int[0];
+			} // if
+		} // for
+
+		candidates = intersect(entries);
+		count = candidates.length;
+		for (String notWord : notWords)
+		{
+			entry = concord.lookup(notWord);
+			if (entry != null)
+			{
+				iterator = entry.iterator();
+				int kept = 0;
+				for (int i = 0; i < count; i++)
+				{
+					if (iterator.advance(candidates[i]) != candidates[i])
+					{
+						candidates[kept++] = candidates[i];
+					} // if
+				} // for
+				count = kept;
+			} // if
+		} // for
+
+		return Arrays.copyOf(candidates, count);
+	} // evaluateClause(Concordance,ArrayList<String>,ArrayList<String>)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the packed IDs that are in every entry's list, in canonical
+	 * order.  Starts from the rarest entry and advances through the others
+	 * (see PostingIterator.advance), which skip over what lies between.
+	 */
+	static int[] intersect(HashEntry[] entries)
+	{
+		HashEntry[] bySize = entries.clone();
+		PostingIterator iterator;
+		int[] candidates;
+		int count, kept, found = 0;
+
+		Arrays.sort(bySize, (a, b) -> a.size() - b.size());
+		count = bySize[0].size();
+		candidates = new int[count];
+		iterator = bySize[0].iterator();
+		for (int i = 0; i < count; i++)
+		{
+			candidates[i] = iterator.next();
+		} // for
+
+		for (int e = 1; e < bySize.length && count > 0; e++)
+		{
+			iterator = bySize[e].iterator();
+			kept = 0;
+			for (int i = 0; i < count && found != PostingIterator.NO_MORE; i++)
+			{
+				found = iterator.advance(candidates[i]);
+				if (found == candidates[i])
+				{
+					candidates[kept++] = candidates[i];
+				} // if
+			} // for
+			count = kept;
+			found = 0;
+		} // for
+
+		return Arrays.copyOf(candidates, count);
+	} // intersect(HashEntry[])
+	//-------------------------------------------------------------------------
+	/**
+	 * Merges two sorted arrays of packed IDs, dropping duplicates.
+	 */
+	private static int[] union(int[] a, int[] b)
+	{
+		int[] merged;
+		int i = 0, j = 0, k = 0;
+
+		if (a.length == 0)
+		{
+			return b;
+		} // if
+		merged = new int[a.length + b.length];
+		while (i < a.length && j < b.length)
+		{
+			if (a[i] < b[j]) merged[k++] = a[i++];
+			else if (a[i] > b[j]) merged[k++] = b[j++];
+			else { merged[k++] = a[i++]; j++; }
+		} // while
+		while (i < a.length) merged[k++] = a[i++];
+		while (j < b.length) merged[k++] = b[j++];
+		return Arrays.copyOf(merged, k);
+	} // union(int[],int[])
+	//-------------------------------------------------------------------------
+} // class BooleanQuery
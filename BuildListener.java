@@ -0,0 +1,23 @@
+
+/**
+ *  Receives progress reports while a Concordance is being built (see
+ *  BuildOptions.setBuildListener), e.g. to drive a progress bar.
+ *
+ *  Calls come from the thread running the build or, for a parallel build,
+ *  from the pool threads indexing each book, so an implementation that
+ *  updates a user interface must hand the update over to its own thread.
+ *
+ *  @author Max Sotsky
+ */
+
+public interface BuildListener
+{
+	/**
+	 * Called as each book header is read.
+	 *
+	 * @param  bookName      the book's name
+	 * @param  bookNumber    its number in the concordance (1 for the first)
+	 * @param  fractionRead  roughly how much of the file has been read, 0 to 1
+	 */
+	void bookStarted(String bookName, int bookNumber, double fractionRead);
+} // interface BuildListener
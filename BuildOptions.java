@@ -0,0 +1,114 @@
+
+/**
+ *  Settings for building a Concordance.  Each setter returns this object,
+ *  so options can be chained:
+ *
+ *      new Concordance(file, new BuildOptions().setIngestMode(Concordance.IngestMode.MAPPED)
+ *                                              .setPositionalIndex(true), System.out);
+ *
+ *  @author Max Sotsky
+ */
+
+public class BuildOptions
+{
+	private int tableSize = 1024;
+	private double loadFactor = Concordance.DEFAULT_LOAD_FACTOR;
+	private Concordance.IngestMode ingestMode = Concordance.IngestMode.READER;
+	private boolean positionalIndex = false;
+	private BuildListener buildListener = null;
+	private boolean statistics = false;
+	//-------------------------------------------------------------------------
+	/**
+	 * Initial hash table size (rounded up to a power of two; the table grows
+	 * as needed).  Default 1024.
+	 */
+	public BuildOptions setTableSize(int inTableSize)
+	{
+		tableSize = inTableSize;
+		return this;
+	} // setTableSize(int)
+	//-------------------------------------------------------------------------
+	/**
+	 * Maximum fraction of the hash table in use before it doubles, 0 < f < 1.
+	 * Default Concordance.DEFAULT_LOAD_FACTOR.
+	 */
+	public BuildOptions setLoadFactor(double inLoadFactor)
+	{
+		loadFactor = inLoadFactor;
+		return this;
+	} // setLoadFactor(double)
+	//-------------------------------------------------------------------------
+	/**
+	 * How the input file is read.  Default IngestMode.READER.
+	 */
+	public BuildOptions setIngestMode(Concordance.IngestMode inMode)
+	{
+		ingestMode = inMode;
+		return this;
+	} // setIngestMode(IngestMode)
+	//-------------------------------------------------------------------------
+	/**
+	 * Whether to record the position of every word within its verse, which
+	 * phrase searches need.  Default false.
+	 */
+	public BuildOptions setPositionalIndex(boolean inPositional)
+	{
+		positionalIndex = inPositional;
+		return this;
+	} // setPositionalIndex(boolean)
+	//-------------------------------------------------------------------------
+	/**
+	 * Listener told as each book is reached, or null for none.  Default null.
+	 *
+	 * A build can be cancelled by interrupting the thread running it: the
+	 * constructor then throws a ConcordanceException at the next book (or
+	 * within a few thousand lines).
+	 */
+	public BuildOptions setBuildListener(BuildListener inListener)
+	{
+		buildListener = inListener;
+		return this;
+	} // setBuildListener(BuildListener)
+	//-------------------------------------------------------------------------
+	/**
+	 * Whether to compute word frequencies and collocations at the end of the
+	 * build (see CorpusStatistics), which takes a further pass over the
+	 * posting lists.  Default false.
+	 */
+	public BuildOptions setStatistics(boolean inStatistics)
+	{
+		statistics = inStatistics;
+		return this;
+	} // setStatistics(boolean)
+	//-------------------------------------------------------------------------
+	public int getTableSize()
+	{
+		return tableSize;
+	} // getTableSize()
+	//-------------------------------------------------------------------------
+	public double getLoadFactor()
+	{
+		return loadFactor;
+	} // getLoadFactor()
+	//-------------------------------------------------------------------------
+	public Concordance.IngestMode getIngestMode()
+	{
+		return ingestMode;
+	} // getIngestMode()
+	//-------------------------------------------------------------------------
+	public boolean getPositionalIndex()
+	{
+		return positionalIndex;
+	} // getPositionalIndex()
+	//-------------------------------------------------------------------------
+	public BuildListener getBuildListener()
+	{
+		return buildListener;
+	} // getBuildListener()
+	//-------------------------------------------------------------------------
+	public boolean getStatistics()
+	{
+		return statistics;
+	} // getStatistics()
+	//-------------------------------------------------------------------------
+} // class BuildOptions
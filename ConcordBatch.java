@@ -0,0 +1,265 @@
+import java.io.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ *  Command-line batch lookup: reads one query per line, runs them in
+ *  parallel against one shared read-only concordance, and writes one
+ *  result line per query, in input order, as TSV or JSON.
+ *
+ *  A query is a single word, a wildcard pattern ("sanctif*"), a quoted
+ *  phrase ("\"let there be light\"", needs -positions true) or a boolean
+ *  query ("goat AND sin NOT ram"), as in ConcordTester.  Blank lines and
+ *  lines starting with '#' are skipped.
+ *
+ *  Output, per query:
+ *      TSV:   query <tab> count <tab> reference; reference; ...
+ *             query <tab> ERROR <tab> message
+ *      JSON:  {"query":..., "count":..., "references":[...]}
+ *             {"query":..., "error":...}
+ *  With -countOnly true the references are left out.
+ *
+ *  Build messages and the closing report (throughput and latency
+ *  percentiles) go to standard error, so standard output holds only
+ *  results.
+ *
+ *  Usage:
+ *      java ConcordBatch -corpus bible.txt [-snapshot file] [-positions true]
+ *                        [-in queries.txt] [-out results.tsv] [-format tsv|json]
+ *                        [-threads n] [-countOnly true]
+ *
+ *  @author Max Sotsky
+ */
+
+public class ConcordBatch
+{
+	private static final int CHUNK = 4096;   // queries read and run at a time
+
+	private ReadOnlyConcordance concord;
+	private boolean json = false;
+	private boolean countOnly = false;
+	private LatencyHistogram latency = new LatencyHistogram();
+	private int queryCount = 0, errorCount = 0;
+	//-------------------------------------------------------------------------
+	public static void main(String[] args) throws Exception
+	{
+		File corpus = null, snapshot = null, inFile = null, outFile = null;
+		boolean positions = false;
+		int threads = Runtime.getRuntime().availableProcessors();
+		ConcordBatch batch = new ConcordBatch();
+		BufferedReader input;
+		PrintWriter output;
+		long startNanos, elapsedNanos;
+
+		for (int i = 0; i + 1 < args.length; i += 2)
+		{
+			if (args[i].equals("-corpus")) corpus = new File(args[i+1]);
+			else if (args[i].equals("-snapshot")) snapshot = new File(args[i+1]);
+			else if (args[i].equals("-positions")) positions = Boolean.parseBoolean(args[i+1]);
+			else if (args[i].equals("-in")) inFile = new File(args[i+1]);
+			else if (args[i].equals("-out")) outFile = new File(args[i+1]);
+			else if (args[i].equals("-format")) batch.json = args[i+1].equalsIgnoreCase("json");
+			else if (args[i].equals("-threads")) threads = Integer.parseInt(args[i+1]);
+			else if (args[i].equals("-countOnly")) batch.countOnly = Boolean.parseBoolean(args[i+1]);
+			else throw new IllegalArgumentException("Unknown option " + args[i]);
+		} // for
+		if (corpus == null && (snapshot == null || !snapshot.exists()))
+		{
+			throw new IllegalArgumentException("Usage: java ConcordBatch -corpus file [-snapshot file] [-in file] [-out file] [-format tsv|json] [-threads n]");
+		} // if
+
+		batch.concord = new ReadOnlyConcordance(ConcordServer.open(corpus, snapshot, positions, System.err));
+		input = new BufferedReader(inFile == null ? new InputStreamReader(System.in, StandardCharsets.UTF_8)
+				: new InputStreamReader(new FileInputStream(inFile), StandardCharsets.UTF_8));
+		output = new PrintWriter(new BufferedWriter(outFile == null ? new OutputStreamWriter(System.out, StandardCharsets.UTF_8)
+				: new OutputStreamWriter(new FileOutputStream(outFile), StandardCharsets.UTF_8), 1 << 16));
+
+		threads = Math.max(1, threads);
+		startNanos = System.nanoTime();
+		batch.run(input, output, threads);
+		elapsedNanos = System.nanoTime() - startNanos;
+		output.close();
+		input.close();
+
+		batch.report(System.err, elapsedNanos, threads);
+	} // main(String[])
+	//-------------------------------------------------------------------------
+	/**
+	 * Runs every query read from input on a pool of threads and writes the
+	 * results to output in input order.  Queries are handled CHUNK at a
+	 * time, so memory use does not grow with the size of the input.
+	 */
+	void run(BufferedReader input, PrintWriter output, int threads) throws IOException, InterruptedException
+	{
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		ArrayList<String> chunk = new ArrayList<String>(CHUNK);
+		String line;
+
+		try
+		{
+			while ((line = input.readLine()) != null)
+			{
+				line = line.trim();
+				if (line.equals("") || line.startsWith("#"))
+				{
+					continue;
+				} // if
+				chunk.add(line);
+				if (chunk.size() == CHUNK)
+				{
+					runChunk(pool, chunk, output);
+				} // if
+			} // while
+			runChunk(pool, chunk, output);
+		} // try
+		finally
+		{
+			pool.shutdown();
+		} // finally
+	} // run(BufferedReader,PrintWriter,int)
+	//-------------------------------------------------------------------------
+	private void runChunk(ExecutorService pool, ArrayList<String> chunk, PrintWriter output) throws InterruptedException
+	{
+		ArrayList<Callable<String>> tasks = new ArrayList<Callable<String>>(chunk.size());
+		List<Future<String>> results;
+
+		for (String query : chunk)
+		{
+			tasks.add(() -> answer(query));
+		} // for
+		results = pool.invokeAll(tasks);
+		for (int i = 0; i < results.size(); i++)
+		{
+			try
+			{
+				output.println(results.get(i).get());
+			} // try
+			catch(ExecutionException ee)
+			{
+				// answer() catches every exception itself, so only an Error gets here; report it and go on.
+				output.println(errorLine(chunk.get(i), String.valueOf(ee.getCause())));
+			} // catch
+		} // for
+		queryCount += chunk.size();
+		chunk.clear();
+	} // runChunk(ExecutorService,ArrayList,PrintWriter)
+	//-------------------------------------------------------------------------
+	/**
+	 * Runs one query and returns its output line, recording its latency.
+	 */
+	String answer(String query)
+	{
+		long startNanos = System.nanoTime();
+		String[] references = null;
+		int count;
+		String line;
+
+		try
+		{
+			if (query.indexOf(' ') < 0 && query.indexOf('*') < 0 && query.indexOf('?') < 0)
+			{
+				if (countOnly)
+				{
+					count = concord.count(query);
+				} // if
+				else
+				{
+					references = concord.references(query);
+					count = references.length;
+				} // else
+			} // if
+			else
+			{
+				int[] packedIDs;
+				if (query.length() > 1 && query.startsWith("\"") && query.endsWith("\""))
+				{
+					packedIDs = concord.phraseSearch(query.substring(1, query.length() - 1));
+				} // if
+				else if (query.indexOf(' ') < 0)
+				{
+					packedIDs = concord.wildcardSearch(query);
+				} // else if
+				else
+				{
+					packedIDs = concord.query(query);
+				} // else
+				count = packedIDs.length;
+				if (!countOnly)
+				{
+					references = concord.formatReferences(packedIDs);
+				} // if
+			} // else
+			line = format(query, count, references);
+		} // try
+		catch(ConcordanceException ce)
+		{
+			line = errorLine(query, ce.getMessage());
+		} // catch
+		catch(RuntimeException re)
+		{
+			// A bug rather than a bad query, but it is reported on the query's line like one.
+			line = errorLine(query, String.valueOf(re));
+		} // catch
+
+		latency.record(System.nanoTime() - startNanos);
+		return line;
+	} // answer(String)
+	//-------------------------------------------------------------------------
+	/**
+	 * Counts a failed query and returns its output line.
+	 */
+	private String errorLine(String query, String message)
+	{
+		synchronized (this)
+		{
+			errorCount++;
+		} // synchronized
+		return json ? "{\"query\":" + ConcordServer.quote(query) + ",\"error\":" + ConcordServer.quote(message) + "}"
+				: query.replace('\t', ' ') + "\tERROR\t" + message;
+	} // errorLine(String,String)
+	//-------------------------------------------------------------------------
+	private String format(String query, int count, String[] references)
+	{
+		StringBuilder line = new StringBuilder();
+
+		if (json)
+		{
+			line.append("{\"query\":").append(ConcordServer.quote(query)).append(",\"count\":").append(count);
+			if (references != null)
+			{
+				line.append(",\"references\":").append(ConcordServer.array(references));
+			} // if
+			return line.append('}').toString();
+		} // if
+
+		line.append(query.replace('\t', ' ')).append('\t').append(count);
+		if (references != null)
+		{
+			line.append('\t');
+			for (int i = 0; i < references.length; i++)
+			{
+				if (i > 0)
+				{
+					line.append("; ");
+				} // if
+				line.append(references[i]);
+			} // for
+		} // if
+		return line.toString();
+	} // format(String,int,String[])
+	//-------------------------------------------------------------------------
+	/**
+	 * Prints the number of queries, throughput and latency percentiles.
+	 */
+	void report(PrintStream report, long elapsedNanos, int threads)
+	{
+		report.println();
+		report.printf("Queries: %d (%d errors) in %.1f ms on %d threads%n", queryCount, errorCount, elapsedNanos / 1e6, threads);
+		report.printf("Throughput: %.0f queries/s%n", queryCount * 1e9 / Math.max(1, elapsedNanos));
+		report.printf("Latency (us): p50 %.1f  p90 %.1f  p99 %.1f  p99.9 %.1f  max %.1f  mean %.1f%n",
+				latency.getPercentile(0.5) / 1e3, latency.getPercentile(0.9) / 1e3, latency.getPercentile(0.99) / 1e3,
+				latency.getPercentile(0.999) / 1e3, latency.getMax() / 1e3, latency.getMean() / 1e3);
+	} // report(PrintStream,long,int)
+	//-------------------------------------------------------------------------
+} // class ConcordBatch
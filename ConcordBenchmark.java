@@ -0,0 +1,443 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * Benchmark harness for Concordance.
+ *
+ * Measures, for every combination of initial table size and load factor:
+ *   build-READER, build-MAPPED, build-PARALLEL   whole-corpus build, tokens/sec
+ *   search-hit, search-miss                      search() latency, ns/op
+ *   search-common, search-rare                   search() on frequent / single-reference words, ns/op
+ *   formatIDs-large                              formatIDs() on the longest posting lists, ns/op
+ *
+ * Each benchmark runs a number of warmup iterations followed by measured
+ * iterations, and reports the mean and standard deviation of the measured
+ * ones.  Results are written as tab-separated lines so that a run can be
+ * saved and later passed back with -baseline to print the change.
+ *
+ * Usage:
+ *   java ConcordBenchmark [-corpus file] [-scale s] [-tableSizes n,n,...]
+ *                         [-loadFactors f,f,...] [-warmup n] [-iterations n]
+ *                         [-out results.tsv] [-baseline old.tsv]
+ *
+ * Without -corpus a corpus in the format of kjv12.txt is generated (66
+ * books, about 600,000 words at scale 1) from a fixed seed, so runs on
+ * different machines or revisions index exactly the same text.
+ *
+ * @author Max Sotsky
+ */
+public class ConcordBenchmark
+{
+	private static final int SEARCH_OPS = 200000;
+	private static final int FORMAT_OPS = 200;
+	private static final int KEY_SAMPLE = 1000;
+
+	private File corpus;
+	private int warmup = 3, iterations = 5;
+	private int[] tableSizes = {1024, 40009};
+	private double[] loadFactors = {0.5, 0.75};
+	private PrintStream quiet = new PrintStream(OutputStream.nullOutputStream());
+	private ArrayList<String> results = new ArrayList<String>();
+	private String[] vocabulary;
+	private long sink;   // keeps the JIT from discarding benchmarked work
+	//-------------------------------------------------------------------------
+	public static void main(String[] args) throws Exception
+	{
+		ConcordBenchmark bench = new ConcordBenchmark();
+		String outName = null, baselineName = null;
+		double scale = 1.0;
+
+		for (int i = 0; i + 1 < args.length; i += 2)
+		{
+			if (args[i].equals("-corpus")) bench.corpus = new File(args[i+1]);
+			else if (args[i].equals("-scale")) scale = Double.parseDouble(args[i+1]);
+			else if (args[i].equals("-tableSizes")) bench.tableSizes = parseInts(args[i+1]);
+			else if (args[i].equals("-loadFactors")) bench.loadFactors = parseDoubles(args[i+1]);
+			else if (args[i].equals("-warmup")) bench.warmup = Integer.parseInt(args[i+1]);
+			else if (args[i].equals("-iterations")) bench.iterations = Integer.parseInt(args[i+1]);
+			else if (args[i].equals("-out")) outName = args[i+1];
+			else if (args[i].equals("-baseline")) baselineName = args[i+1];
+			else throw new IllegalArgumentException("Unknown option " + args[i]);
+		} // for
+
+		if (bench.corpus == null)
+		{
+			bench.corpus = File.createTempFile("concord-bench", ".txt");
+			bench.corpus.deleteOnExit();
+			bench.vocabulary = generateCorpus(bench.corpus, scale, 42);
+		} // if
+
+		bench.runAll();
+
+		if (outName != null)
+		{
+			PrintStream outFile = new PrintStream(new FileOutputStream(outName));
+			for (String line : bench.results)
+			{
+				outFile.println(line);
+			} // for
+			outFile.close();
+		} // if
+		if (baselineName != null)
+		{
+			bench.compare(new File(baselineName));
+		} // if
+	} // main(String[])
+	//-------------------------------------------------------------------------
+	private void runAll() throws Exception
+	{
+		Concordance concord;
+		String[] hits, misses, common, rare;
+
+		System.out.println("benchmark\ttableSize\tloadFactor\tscore\terror\tunit");
+		for (int tableSize : tableSizes)
+		{
+			for (double loadFactor : loadFactors)
+			{
+				for (Concordance.IngestMode mode : Concordance.IngestMode.values())
+				{
+					benchBuild(mode, tableSize, loadFactor);
+				} // for
+
+				concord = new Concordance(corpus, tableSize, loadFactor, Concordance.IngestMode.MAPPED, quiet);
+				hits = sampleKeys(concord);
+				misses = new String[hits.length];
+				for (int i = 0; i < hits.length; i++)
+				{
+					misses[i] = hits[i] + "zq";
+				} // for
+				common = byFrequency(concord, vocabulary, true);
+				rare = byFrequency(concord, vocabulary, false);
+
+				benchSearch("search-hit", concord, hits, tableSize, loadFactor);
+				benchSearch("search-miss", concord, misses, tableSize, loadFactor);
+				benchSearch("search-common", concord, common, tableSize, loadFactor);
+				benchSearch("search-rare", concord, rare, tableSize, loadFactor);
+				benchFormat(concord, common, tableSize, loadFactor);
+			} // for
+		} // for
+	} // runAll()
+	//-------------------------------------------------------------------------
+	private void benchBuild(Concordance.IngestMode mode, int tableSize, double loadFactor) throws Exception
+	{
+		double[] scores = new double[iterations];
+		Concordance concord;
+		long start;
+
+		for (int i = 0; i < warmup + iterations; i++)
+		{
+			start = System.nanoTime();
+			concord = new Concordance(corpus, tableSize, loadFactor, mode, quiet);
+			if (i >= warmup)
+			{
+				scores[i - warmup] = concord.getWordCount() / ((System.nanoTime() - start) / 1e9);
+			} // if
+			sink += concord.getDistinctWordCount();
+		} // for
+		report("build-" + mode, tableSize, loadFactor, scores, "tokens/s");
+	} // benchBuild(IngestMode,int,double)
+	//-------------------------------------------------------------------------
+	private void benchSearch(String name, Concordance concord, String[] keys, int tableSize, double loadFactor)
+	{
+		double[] scores = new double[iterations];
+		long start;
+
+		for (int i = 0; i < warmup + iterations; i++)
+		{
+			start = System.nanoTime();
+			for (int op = 0; op < SEARCH_OPS; op++)
+			{
+				sink += concord.search(keys[op % keys.length]);
+			} // for
+			if (i >= warmup)
+			{
+				scores[i - warmup] = (System.nanoTime() - start) / (double) SEARCH_OPS;
+			} // if
+		} // for
+		report(name, tableSize, loadFactor, scores, "ns/op");
+	} // benchSearch(String,Concordance,String[],int,double)
+	//-------------------------------------------------------------------------
+	private void benchFormat(Concordance concord, String[] common, int tableSize, double loadFactor)
+	{
+		double[] scores = new double[iterations];
+		int[] indexes = new int[common.length];
+		long start;
+
+		for (int k = 0; k < common.length; k++)
+		{
+			indexes[k] = concord.search(common[k]);
+		} // for
+		for (int i = 0; i < warmup + iterations; i++)
+		{
+			start = System.nanoTime();
+			for (int op = 0; op < FORMAT_OPS; op++)
+			{
+				sink += concord.formatIDs(indexes[op % indexes.length]).length;
+			} // for
+			if (i >= warmup)
+			{
+				scores[i - warmup] = (System.nanoTime() - start) / (double) FORMAT_OPS;
+			} // if
+		} // for
+		report("formatIDs-large", tableSize, loadFactor, scores, "ns/op");
+	} // benchFormat(Concordance,String[],int,double)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns up to KEY_SAMPLE words that occur in the concordance, taken
+	 * from the generator's vocabulary or, for a user corpus, from its text.
+	 */
+	private String[] sampleKeys(Concordance concord) throws IOException
+	{
+		ArrayList<String> keys = new ArrayList<String>();
+		Random random = new Random(7);
+
+		if (vocabulary == null)
+		{
+			BufferedReader reader = new BufferedReader(new FileReader(corpus));
+			HashSet<String> seen = new HashSet<String>();
+			String line;
+			while ((line = reader.readLine()) != null && seen.size() < 20 * KEY_SAMPLE)
+			{
+				for (String word : line.split("[^A-Za-z]+"))
+				{
+					if (word.length() > 0)
+					{
+						seen.add(word.toLowerCase());
+					} // if
+				} // for
+			} // while
+			reader.close();
+			vocabulary = seen.toArray(new String[0]);
+			Arrays.sort(vocabulary);
+		} // if
+
+		for (int i = 0; i < 50 * KEY_SAMPLE && keys.size() < KEY_SAMPLE; i++)
+		{
+			String word = vocabulary[random.nextInt(vocabulary.length)];
+			if (concord.formatIDs(concord.search(word)) != null)
+			{
+				keys.add(word);
+			} // if
+		} // for
+		return keys.toArray(new String[0]);
+	} // sampleKeys(Concordance)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the 10 words of keys with the most references (mostCommon) or
+	 * up to KEY_SAMPLE words with exactly one reference (otherwise; falls
+	 * back to the 10 rarest if there are none).  Words not in the
+	 * concordance are ignored.
+	 */
+	private static String[] byFrequency(Concordance concord, String[] keys, boolean mostCommon)
+	{
+		final HashMap<String, Integer> counts = new HashMap<String, Integer>();
+		ArrayList<String> sorted = new ArrayList<String>(new TreeSet<String>(Arrays.asList(keys)));
+		ArrayList<String> chosen = new ArrayList<String>();
+
+		for (Iterator<String> it = sorted.iterator(); it.hasNext(); )
+		{
+			String key = it.next();
+			String[] references = concord.formatIDs(concord.search(key));
+			if (references == null)
+			{
+				it.remove();
+			} // if
+			else
+			{
+				counts.put(key, references.length);
+			} // else
+		} // for
+		sorted.sort((a, b) -> counts.get(b) - counts.get(a));
+		if (mostCommon)
+		{
+			return sorted.subList(0, Math.min(10, sorted.size())).toArray(new String[0]);
+		} // if
+
+		for (String key : sorted)
+		{
+			if (counts.get(key) == 1 && chosen.size() < KEY_SAMPLE)
+			{
+				chosen.add(key);
+			} // if
+		} // for
+		if (chosen.isEmpty())
+		{
+			chosen.addAll(sorted.subList(Math.max(0, sorted.size() - 10), sorted.size()));
+		} // if
+		return chosen.toArray(new String[0]);
+	} // byFrequency(Concordance,String[],boolean)
+	//-------------------------------------------------------------------------
+	private void report(String name, int tableSize, double loadFactor, double[] scores, String unit)
+	{
+		double mean = 0, variance = 0;
+		String line;
+
+		for (double score : scores)
+		{
+			mean += score / scores.length;
+		} // for
+		for (double score : scores)
+		{
+			variance += (score - mean) * (score - mean) / Math.max(1, scores.length - 1);
+		} // for
+
+		line = String.format("%s\t%d\t%.2f\t%.1f\t%.1f\t%s", name, tableSize, loadFactor, mean, Math.sqrt(variance), unit);
+		results.add(line);
+		System.out.println(line);
+	} // report(String,int,double,double[],String)
+	//-------------------------------------------------------------------------
+	/**
+	 * Prints the change of every result against a file written with -out.
+	 * For tokens/s higher is better; for ns/op lower is better.
+	 */
+	private void compare(File baselineFile) throws IOException
+	{
+		HashMap<String, Double> baseline = new HashMap<String, Double>();
+		BufferedReader reader = new BufferedReader(new FileReader(baselineFile));
+		String line;
+		String[] fields;
+
+		while ((line = reader.readLine()) != null)
+		{
+			fields = line.split("\t");
+			if (fields.length == 6)
+			{
+				baseline.put(fields[0] + "\t" + fields[1] + "\t" + fields[2], Double.parseDouble(fields[3]));
+			} // if
+		} // while
+		reader.close();
+
+		System.out.println();
+		System.out.println("Change against " + baselineFile + " (positive = faster)");
+		for (String result : results)
+		{
+			fields = result.split("\t");
+			Double old = baseline.get(fields[0] + "\t" + fields[1] + "\t" + fields[2]);
+			if (old != null)
+			{
+				double now = Double.parseDouble(fields[3]);
+				double change = fields[5].equals("tokens/s") ? (now - old) / old : (old - now) / old;
+				System.out.println(String.format("%s\t%s\t%s\t%+.1f%%", fields[0], fields[1], fields[2], 100 * change));
+			} // if
+		} // for
+	} // compare(File)
+	//-------------------------------------------------------------------------
+	/**
+	 * Writes a corpus in the format of kjv12.txt to outFile: 66 books of
+	 * verses wrapped at 60 columns, with words drawn from a Zipf-distributed
+	 * vocabulary of 12,000 invented words and decorated with the punctuation,
+	 * possessives and hyphenation the tokenizer has to handle.
+	 *
+	 * @return the vocabulary used
+	 */
+	public static String[] generateCorpus(File outFile, double scale, long seed) throws IOException
+	{
+		String[] syllables = {"ba", "ge", "ri", "sha", "lo", "mem", "ka", "tu", "ne", "di", "vor", "ph",
+				"el", "am", "oth", "ir", "un", "sa", "co", "ve", "na", "thi", "ho", "ly"};
+		String[] common = {"the", "and", "of", "to", "that", "in", "he", "shall", "unto", "for",
+				"i", "his", "a", "lord", "they", "be", "is", "him", "not", "them"};
+		Random random = new Random(seed);
+		LinkedHashSet<String> words = new LinkedHashSet<String>(Arrays.asList(common));
+		String[] vocabulary;
+		double[] cumulative;
+		PrintStream output = new PrintStream(new BufferedOutputStream(new FileOutputStream(outFile), 1 << 16));
+		StringBuilder verse = new StringBuilder(), word = new StringBuilder();
+		int chapters, verses, length, cut;
+
+		while (words.size() < 12000)
+		{
+			word.setLength(0);
+			for (int s = 1 + random.nextInt(4); s > 0; s--)
+			{
+				word.append(syllables[random.nextInt(syllables.length)]);
+			} // for
+			words.add(word.toString());
+		} // while
+		vocabulary = words.toArray(new String[0]);
+
+		cumulative = new double[vocabulary.length];
+		for (int i = 0; i < vocabulary.length; i++)
+		{
+			cumulative[i] = (i == 0 ? 0 : cumulative[i-1]) + 1.0 / (i + 1);
+		} // for
+
+		for (int book = 1; book <= 66; book++)
+		{
+			output.println(String.format("Book %02d Book%c%c", book, (char) ('A' + book / 26), (char) ('a' + book % 26)));
+			output.println();
+			chapters = Math.max(1, (int) ((3 + random.nextInt(28)) * scale));
+			for (int chapter = 1; chapter <= chapters; chapter++)
+			{
+				verses = 5 + random.nextInt(36);
+				for (int v = 1; v <= verses; v++)
+				{
+					verse.setLength(0);
+					length = 8 + random.nextInt(33);
+					for (int w = 0; w < length; w++)
+					{
+						double r = random.nextDouble() * cumulative[cumulative.length - 1];
+						int index = Arrays.binarySearch(cumulative, r);
+						String next = vocabulary[Math.min(vocabulary.length - 1, index < 0 ? -index - 1 : index)];
+						if (w == 0 || random.nextDouble() < 0.05)
+						{
+							next = Character.toUpperCase(next.charAt(0)) + next.substring(1);
+						} // if
+						double d = random.nextDouble();
+						if (d < 0.08) next += ",";
+						else if (d < 0.10) next += ";";
+						else if (d < 0.11) next += ":";
+						else if (d < 0.115) next = "(" + next + ")";
+						else if (d < 0.12) next += "'s";
+						else if (d < 0.125) next += "--";
+						else if (d < 0.13) next += "?";
+						else if (d < 0.135) next += "-" + vocabulary[random.nextInt(vocabulary.length)];
+						verse.append(w == 0 ? "" : " ").append(next);
+					} // for
+					verse.append('.');
+
+					// Wraps the verse like kjv12.txt: "CCC:VVV text" then indented continuation lines.
+					String text = verse.toString();
+					String prefix = String.format("%03d:%03d ", chapter, v);
+					while (text.length() > 0)
+					{
+						cut = text.length() > 60 ? text.lastIndexOf(' ', 60) : text.length();
+						if (cut <= 0)
+						{
+							cut = text.length();
+						} // if
+						output.println(prefix + text.substring(0, cut));
+						text = cut < text.length() ? text.substring(cut + 1) : "";
+						prefix = "        ";
+					} // while
+				} // for
+			} // for
+			output.println();
+		} // for
+		output.close();
+
+		return vocabulary;
+	} // generateCorpus(File,double,long)
+	//-------------------------------------------------------------------------
+	private static int[] parseInts(String list)
+	{
+		String[] parts = list.split(",");
+		int[] values = new int[parts.length];
+		for (int i = 0; i < parts.length; i++)
+		{
+			values[i] = Integer.parseInt(parts[i].trim());
+		} // for
+		return values;
+	} // parseInts(String)
+	//-------------------------------------------------------------------------
+	private static double[] parseDoubles(String list)
+	{
+		String[] parts = list.split(",");
+		double[] values = new double[parts.length];
+		for (int i = 0; i < parts.length; i++)
+		{
+			values[i] = Double.parseDouble(parts[i].trim());
+		} // for
+		return values;
+	} // parseDoubles(String)
+	//-------------------------------------------------------------------------
+} // class ConcordBenchmark
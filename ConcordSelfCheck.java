@@ -0,0 +1,576 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Self-check for Concordance: runs a set of consistency checks against a
+ * corpus and prints one line per check, "ok" or "FAILED" with the first
+ * difference found.  Exits with status 1 if any check failed, so it can be
+ * run after a change as
+ *
+ *   javac *.java && java ConcordSelfCheck
+ *
+ * Without -corpus a corpus is generated with
+ * ConcordBenchmark.generateCorpus, from a fixed seed.
+ *
+ * Usage:
+ *   java ConcordSelfCheck [-corpus file] [-scale s]
+ *
+ * @author Max Sotsky
+ */
+public class ConcordSelfCheck
+{
+	private Concordance concord;
+	private int failures = 0;
+	//-------------------------------------------------------------------------
+	public static void main(String[] args) throws Exception
+	{
+		File corpus = null;
+		double scale = 0.2;
+		ConcordSelfCheck check = new ConcordSelfCheck();
+
+		for (int i = 0; i + 1 < args.length; i += 2)
+		{
+			if (args[i].equals("-corpus")) corpus = new File(args[i+1]);
+			else if (args[i].equals("-scale")) scale = Double.parseDouble(args[i+1]);
+			else throw new IllegalArgumentException("Unknown option " + args[i]);
+		} // for
+		if (corpus == null)
+		{
+			corpus = File.createTempFile("concordance", ".txt");
+			corpus.deleteOnExit();
+			ConcordBenchmark.generateCorpus(corpus, scale, 42);
+		} // if
+
+		check.concord = new Concordance(corpus, new BuildOptions(), new PrintStream(OutputStream.nullOutputStream()));
+		check.checkHighlighting();
+		check.checkPostingIterators();
+		check.checkFuzzySearch();
+		check.checkRankedSearch();
+		check.checkSnapshot(corpus);
+
+		System.out.println(check.failures == 0 ? "All checks passed." : check.failures + " check(s) FAILED.");
+		System.exit(check.failures == 0 ? 0 : 1);
+	} // main(String[])
+	//-------------------------------------------------------------------------
+	/**
+	 * Prints the outcome of one check.
+	 *
+	 * @param  problem  null if the check passed, otherwise what went wrong
+	 */
+	private void report(String name, String problem)
+	{
+		if (problem != null)
+		{
+			failures++;
+		} // if
+		System.out.println((problem == null ? "ok      " : "FAILED  ") + name + (problem == null ? "" : ": " + problem));
+	} // report(String,String)
+	//-------------------------------------------------------------------------
+	/**
+	 * keywordInContext with highlight words that are not plain words:
+	 * "lord's" must highlight "lord" like the query does, and words with
+	 * digits or nothing but punctuation must be ignored, not fail.
+	 */
+	private void checkHighlighting() throws ConcordanceException
+	{
+		int[] packedIDs = concord.query("the OR lord's");
+		String[] contexts = concord.formatContexts(packedIDs, 60, "the", "lord's");
+		String problem = null;
+		String text;
+
+		if (concord.lookup("lord") == null)
+		{
+			report("highlighting punctuated words", "the corpus has no \"lord\"");
+			return;
+		} // if
+
+		for (int i = 0; i < contexts.length && problem == null; i++)
+		{
+			if (contexts[i].indexOf('[') < 0)
+			{
+				problem = "nothing highlighted in " + contexts[i];
+			} // if
+		} // for
+		for (int i = 0; i < packedIDs.length && problem == null; i++)
+		{
+			text = concord.keywordInContext(packedIDs[i], 0, "lord's", "12", "--", "", "?");
+			if (text == null || (containsWord(concord.getVerseText(packedIDs[i]), "lord") && text.indexOf('[') < 0))
+			{
+				problem = "\"lord's\" not highlighted in " + text;
+			} // if
+		} // for
+		report("highlighting punctuated words (" + packedIDs.length + " verses)", problem);
+	} // checkHighlighting()
+	//-------------------------------------------------------------------------
+	/**
+	 * advance() and skipTo() on compressed posting lists, which jump with
+	 * the skip table, must agree with the same calls on the plain int[]
+	 * of references, especially at and around block boundaries (every 64th
+	 * reference).  Checked on the longest lists and a few just over one
+	 * block long.
+	 */
+	private void checkPostingIterators()
+	{
+		TermMatch[] terms = concord.matchTerms("*");
+		ArrayList<HashEntry> entries = new ArrayList<HashEntry>();
+		String problem = null;
+
+		Arrays.sort(terms, (a, b) -> b.getCount() - a.getCount());
+		for (int i = 0; i < terms.length && entries.size() < 10; i++)
+		{
+			entries.add(concord.lookup(terms[i].getTerm()));
+		} // for
+		for (int i = terms.length - 1; i >= 0 && entries.size() < 20; i--)
+		{
+			if (terms[i].getCount() > 64)
+			{
+				entries.add(concord.lookup(terms[i].getTerm()));
+			} // if
+		} // for
+
+		for (int e = 0; e < entries.size() && problem == null; e++)
+		{
+			problem = comparePostings(entries.get(e));
+		} // for
+		report("posting iterators at block boundaries (" + entries.size() + " lists)", problem);
+	} // checkPostingIterators()
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns null if entry's iterator agrees with an iterator over its
+	 * references decoded into an int[], otherwise the first difference.
+	 */
+	private static String comparePostings(HashEntry entry)
+	{
+		int count = entry.size();
+		int[] packed = new int[count];
+		PostingIterator compressed, plain;
+		ArrayList<Integer> indexes = new ArrayList<Integer>();
+		int target, expected, got;
+
+		compressed = entry.iterator();
+		for (int i = 0; i < count; i++)
+		{
+			packed[i] = compressed.next();
+		} // for
+		if (compressed.next() != PostingIterator.NO_MORE)
+		{
+			return entry.getKey() + ": more than size() references";
+		} // if
+
+		// Indexes on either side of each block boundary, and both ends.
+		for (int b = 0; b <= count; b += 64)
+		{
+			for (int i = b - 2; i <= b + 1; i++)
+			{
+				if (i >= 0 && i <= count && !indexes.contains(i))
+				{
+					indexes.add(i);
+				} // if
+			} // for
+		} // for
+		if (!indexes.contains(count))
+		{
+			indexes.add(count);
+		} // if
+
+		for (int i : indexes)
+		{
+			compressed = entry.iterator();
+			compressed.skipTo(i);
+			expected = i < count ? packed[i] : PostingIterator.NO_MORE;
+			got = compressed.next();
+			if (got != expected)
+			{
+				return entry.getKey() + ": skipTo(" + i + ") then next() gave " + got + ", expected " + expected;
+			} // if
+		} // for
+
+		// advance() from a fresh iterator, and as one forward sweep, to each
+		// reference at an index above and to the packed IDs either side of it.
+		plain = new PostingIterator(packed, count);
+		compressed = entry.iterator();
+		for (int i : indexes)
+		{
+			for (int delta = -1; delta <= 1; delta++)
+			{
+				target = i < count ? packed[i] + delta : packed[count - 1] + 1;
+				PostingIterator freshPlain = new PostingIterator(packed, count), fresh = entry.iterator();
+				if (fresh.advance(target) != freshPlain.advance(target) || fresh.index() != freshPlain.index())
+				{
+					return entry.getKey() + ": advance(" + target + ") gave index " + fresh.index() + ", expected " + freshPlain.index();
+				} // if
+				if (compressed.advance(target) != plain.advance(target) || compressed.index() != plain.index())
+				{
+					return entry.getKey() + ": advance(" + target + ") in a sweep gave index " + compressed.index() + ", expected " + plain.index();
+				} // if
+			} // for
+		} // for
+		return null;
+	} // comparePostings(HashEntry)
+	//-------------------------------------------------------------------------
+	/**
+	 * fuzzySearch, which walks the dictionary with a Levenshtein automaton
+	 * and prunes whole prefixes, must find exactly the words within the
+	 * distance by plain edit distance, with the same distances.  The words
+	 * searched for are dictionary words with one or two random edits.
+	 */
+	private void checkFuzzySearch()
+	{
+		TermMatch[] terms = concord.matchTerms("*");
+		Random random = new Random(7);
+		String problem = null;
+		String word;
+		TreeMap<String,Integer> expected, got;
+		int distance, searches = 0;
+
+		for (int t = 0; t < 60 && problem == null && terms.length > 0; t++)
+		{
+			word = terms[random.nextInt(terms.length)].getTerm();
+			for (int edit = 1 + t % 2; edit > 0; edit--)
+			{
+				word = randomEdit(word, random);
+			} // for
+			for (int maxDistance = 1; maxDistance <= 2 && problem == null; maxDistance++)
+			{
+				expected = new TreeMap<String,Integer>();
+				for (TermMatch term : terms)
+				{
+					distance = editDistance(word, term.getTerm());
+					if (distance <= maxDistance)
+					{
+						expected.put(term.getTerm(), distance);
+					} // if
+				} // for
+				got = new TreeMap<String,Integer>();
+				for (TermMatch match : concord.fuzzySearch(word, maxDistance, Integer.MAX_VALUE))
+				{
+					got.put(match.getTerm(), match.getDistance());
+				} // for
+				searches++;
+				if (!got.equals(expected))
+				{
+					problem = "\"" + word + "\" within " + maxDistance + " gave " + got + ", expected " + expected;
+				} // if
+			} // for
+		} // for
+		report("fuzzy search against edit distance (" + searches + " searches)", problem);
+	} // checkFuzzySearch()
+	//-------------------------------------------------------------------------
+	/**
+	 * rankedSearch, which prunes with MaxScore and only probes the common
+	 * words' lists, must return the same top k as scoring every verse that
+	 * contains any of the words with the BM25 formula of RankedQuery.  The
+	 * queries mix the most common words with random ones and a word that
+	 * does not occur.  Scores are compared to within 1e-9, since the sums
+	 * are added up in a different order: the i-th score must match the
+	 * i-th best exhaustive score, and each verse returned must have the
+	 * exhaustive score it was returned with.
+	 */
+	private void checkRankedSearch() throws ConcordanceException
+	{
+		TermMatch[] terms = concord.matchTerms("*");
+		Random random = new Random(11);
+		String problem = null;
+		String[] words;
+		ScoredVerse[] got, expected;
+		HashMap<Integer,Double> scores;
+		int[] ks = {1, 3, 10, 50};
+		int searches = 0;
+
+		Arrays.sort(terms, (a, b) -> b.getCount() - a.getCount());
+		for (int t = 0; t < 40 && problem == null && terms.length > 0; t++)
+		{
+			words = new String[1 + t % 4];
+			for (int i = 0; i < words.length; i++)
+			{
+				if (i == 0 && t % 5 == 0)
+				{
+					words[i] = "zzzznotaword";
+				} // if
+				else
+				{
+					words[i] = terms[random.nextInt(i % 2 == 0 ? Math.min(20, terms.length) : terms.length)].getTerm();
+				} // else
+			} // for
+			scores = exhaustiveScores(words);
+			for (int k : ks)
+			{
+				got = concord.rankedSearch(String.join(" ", words), k);
+				expected = best(scores, k);
+				searches++;
+				if (got.length != expected.length)
+				{
+					problem = "\"" + String.join(" ", words) + "\" with k = " + k + " gave " + got.length + " verses, expected " + expected.length;
+					break;
+				} // if
+				for (int i = 0; i < got.length && problem == null; i++)
+				{
+					if (Math.abs(got[i].getScore() - expected[i].getScore()) > 1e-9
+							|| scores.get(got[i].getID()) == null || Math.abs(scores.get(got[i].getID()) - got[i].getScore()) > 1e-9)
+					{
+						problem = "\"" + String.join(" ", words) + "\" with k = " + k + " gave " + got[i] + " at " + i + ", expected " + expected[i];
+					} // if
+				} // for
+				if (problem != null)
+				{
+					break;
+				} // if
+			} // for
+		} // for
+		report("ranked search against exhaustive BM25 (" + searches + " searches)", problem);
+	} // checkRankedSearch()
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the BM25 score (see RankedQuery) of every verse containing at
+	 * least one of words, by packed ID, computed from each word's whole
+	 * posting list without pruning.
+	 */
+	private HashMap<Integer,Double> exhaustiveScores(String[] words)
+	{
+		VerseStore verses = concord.getVerseStore();
+		double verseCount = Math.max(1, verses.size());
+		double averageLength = Math.max(1.0, (double) concord.getWordCount() / verseCount);
+		HashMap<Integer,Double> scores = new HashMap<Integer,Double>();
+		ArrayList<HashEntry> entries = new ArrayList<HashEntry>();
+		HashEntry entry;
+		PostingIterator iterator;
+		double idf, length;
+		int verse, tf, ordinal;
+
+		for (String word : words)
+		{
+			entry = concord.lookup(word);
+			if (entry != null && !entries.contains(entry))
+			{
+				entries.add(entry);
+			} // if
+		} // for
+		for (HashEntry term : entries)
+		{
+			idf = Math.log(1 + (verseCount - term.size() + 0.5) / (term.size() + 0.5));
+			iterator = term.iterator();
+			for (int i = 0; i < term.size(); i++)
+			{
+				verse = iterator.next();
+				tf = term.getFrequency(i);
+				ordinal = verses.ordinalOf(verse);
+				length = ordinal < 0 ? averageLength : verses.getWordCount(ordinal);
+				scores.merge(verse, idf * tf * (RankedQuery.K1 + 1) / (tf + RankedQuery.K1 * (1 - RankedQuery.B + RankedQuery.B * length / averageLength)), Double::sum);
+			} // for
+		} // for
+		return scores;
+	} // exhaustiveScores(String[])
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the k best of scores, best first, ties going to the earlier
+	 * verse.
+	 */
+	private static ScoredVerse[] best(HashMap<Integer,Double> scores, int k)
+	{
+		ArrayList<ScoredVerse> all = new ArrayList<ScoredVerse>();
+
+		for (Map.Entry<Integer,Double> score : scores.entrySet())
+		{
+			all.add(new ScoredVerse(score.getKey(), score.getValue()));
+		} // for
+		all.sort((a, b) -> a.getScore() != b.getScore() ? Double.compare(b.getScore(), a.getScore()) : Integer.compare(a.getID(), b.getID()));
+		return all.subList(0, Math.min(k, all.size())).toArray(new ScoredVerse[0]);
+	} // best(HashMap<Integer,Double>,int)
+	//-------------------------------------------------------------------------
+	/**
+	 * A positional concordance saved and loaded back (see Concordance.save
+	 * and load) must give the same counts, references, phrase matches and
+	 * verse texts as the one that was saved, for every 25th word.  A
+	 * truncated snapshot, and one with its last bytes overwritten (the end
+	 * of the last entry's position skip table), must be rejected by load()
+	 * with a ConcordanceException.
+	 */
+	private void checkSnapshot(File corpus) throws IOException, ConcordanceException
+	{
+		PrintStream quiet = new PrintStream(OutputStream.nullOutputStream());
+		Concordance saved = new Concordance(corpus, new BuildOptions().setPositionalIndex(true), quiet);
+		File snapshot = File.createTempFile("concordance", ".snap");
+		File damaged = File.createTempFile("concordance", ".snap");
+		Concordance loaded;
+		TermMatch[] terms = saved.matchTerms("*");
+		String problem = null;
+		String word, phrase;
+		String[] words;
+		int[] packedIDs;
+		byte[] bytes;
+		int compared = 0;
+
+		snapshot.deleteOnExit();
+		damaged.deleteOnExit();
+		saved.save(snapshot);
+		loaded = Concordance.load(snapshot, quiet);
+		if (loaded.getWordCount() != saved.getWordCount() || loaded.getDistinctWordCount() != saved.getDistinctWordCount()
+				|| loaded.getVerseCount() != saved.getVerseCount() || loaded.getChapterCount() != saved.getChapterCount()
+				|| !loaded.getBookNames().equals(saved.getBookNames()))
+		{
+			problem = "counts or book names differ after loading";
+		} // if
+
+		for (int t = 0; t < terms.length && problem == null; t += 25)
+		{
+			word = terms[t].getTerm();
+			compared++;
+			if (loaded.count(word) != saved.count(word) || !Arrays.equals(loaded.references(word), saved.references(word)))
+			{
+				problem = "references to \"" + word + "\" differ after loading";
+				break;
+			} // if
+			packedIDs = referencesOf(saved.lookup(word));
+			for (int i = 0; i < packedIDs.length && i < 5 && problem == null; i++)
+			{
+				if (!saved.getVerseText(packedIDs[i]).equals(loaded.getVerseText(packedIDs[i])))
+				{
+					problem = "text of verse " + ID.unpack(packedIDs[i]) + " differs after loading";
+				} // if
+			} // for
+			if (packedIDs.length > 0 && problem == null)
+			{
+				// A two-word phrase starting with the word, taken from its first verse.
+				words = saved.getVerseText(packedIDs[0]).toLowerCase().split("[^\\p{L}']+");
+				for (int i = 0; i + 1 < words.length; i++)
+				{
+					if (words[i].equals(word))
+					{
+						phrase = word + " " + words[i + 1];
+						if (!Arrays.equals(loaded.phraseSearch(phrase), saved.phraseSearch(phrase)))
+						{
+							problem = "phrase \"" + phrase + "\" differs after loading";
+						} // if
+						break;
+					} // if
+				} // for
+			} // if
+		} // for
+
+		bytes = Files.readAllBytes(snapshot.toPath());
+		if (problem == null && !rejected(damaged, Arrays.copyOf(bytes, bytes.length / 2)))
+		{
+			problem = "a truncated snapshot was loaded";
+		} // if
+		Arrays.fill(bytes, bytes.length - 64, bytes.length, (byte) 0xFF);
+		if (problem == null && !rejected(damaged, bytes))
+		{
+			problem = "a corrupt snapshot was loaded";
+		} // if
+		report("snapshot save and load (" + compared + " words)", problem);
+	} // checkSnapshot(File)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the entry's references, packed, in order.
+	 */
+	private static int[] referencesOf(HashEntry entry)
+	{
+		PostingIterator iterator = entry.iterator();
+		int[] packedIDs = new int[entry.size()];
+
+		for (int i = 0; i < packedIDs.length; i++)
+		{
+			packedIDs[i] = iterator.next();
+		} // for
+		return packedIDs;
+	} // referencesOf(HashEntry)
+	//-------------------------------------------------------------------------
+	/**
+	 * Writes bytes to file and returns true if load() rejects them with a
+	 * ConcordanceException.
+	 */
+	private static boolean rejected(File file, byte[] bytes) throws IOException
+	{
+		try (FileOutputStream output = new FileOutputStream(file))
+		{
+			output.write(bytes);
+		} // try
+		try
+		{
+			Concordance.load(file, new PrintStream(OutputStream.nullOutputStream()));
+			return false;
+		} // try
+		catch(ConcordanceException e)
+		{
+			return true;
+		} // catch
+	} // rejected(File,byte[])
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns word with one letter inserted, deleted or replaced, or two
+	 * neighbouring letters swapped (kept non-empty).
+	 */
+	private static String randomEdit(String word, Random random)
+	{
+		StringBuilder edited = new StringBuilder(word);
+		int at = random.nextInt(word.length() + 1);
+		char letter = (char) ('a' + random.nextInt(26));
+
+		switch (word.length() < 2 ? 0 : random.nextInt(4))
+		{
+			case 0:
+				edited.insert(at, letter);
+				break;
+			case 1:
+				edited.deleteCharAt(Math.min(at, word.length() - 1));
+				break;
+			case 2:
+				edited.setCharAt(Math.min(at, word.length() - 1), letter);
+				break;
+			default:
+				at = Math.min(at, word.length() - 2);
+				edited.setCharAt(at, word.charAt(at + 1));
+				edited.setCharAt(at + 1, word.charAt(at));
+				break;
+		} // switch
+		return edited.toString();
+	} // randomEdit(String,Random)
+	//-------------------------------------------------------------------------
+	/**
+	 * Levenshtein distance (insertions, deletions and substitutions) by the
+	 * textbook dynamic program.
+	 */
+	private static int editDistance(String a, String b)
+	{
+		int[] previous = new int[b.length() + 1], row = new int[b.length() + 1], swap;
+
+		for (int j = 0; j <= b.length(); j++)
+		{
+			previous[j] = j;
+		} // for
+		for (int i = 1; i <= a.length(); i++)
+		{
+			row[0] = i;
+			for (int j = 1; j <= b.length(); j++)
+			{
+				row[j] = Math.min(Math.min(row[j - 1], previous[j]) + 1,
+						previous[j - 1] + (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1));
+			} // for
+			swap = previous;
+			previous = row;
+			row = swap;
+		} // for
+		return previous[b.length()];
+	} // editDistance(String,String)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns true if some token of text cleans to word (see
+	 * Concordance.cleanWord).
+	 */
+	private static boolean containsWord(String text, String word)
+	{
+		char[] cleaned = new char[text.length()];
+
+		for (String token : text.split(" "))
+		{
+			int length = Concordance.cleanWord(token.toCharArray(), 0, token.length(), cleaned);
+			if (length == word.length() && new String(cleaned, 0, length).equals(word))
+			{
+				return true;
+			} // if
+		} // for
+		return false;
+	} // containsWord(String,String)
+	//-------------------------------------------------------------------------
+} // class ConcordSelfCheck
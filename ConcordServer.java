@@ -0,0 +1,442 @@
+import java.io.*;
+import java.net.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.*;
+import com.sun.net.httpserver.*;
+
+/**
+ *  Small HTTP service answering concordance queries with JSON, for use
+ *  from scripts and other programs on the same machine.
+ *
+ *  The concordance is built (or loaded from a snapshot) once and wrapped in
+ *  a ReadOnlyConcordance, which every request then reads concurrently with
+ *  no locking.  Each request runs on its own virtual thread where the JVM
+ *  has them (Java 21 and later) and on a pooled platform thread otherwise.
+ *
+ *  Endpoints (all GET; parameters are URL-encoded):
+ *      /search?word=W[&context=N]   references of W, or with context=N the
+ *                                   verses with W highlighted (N characters)
+ *      /search?word=W&book=B[&toBook=B2]
+ *      /search?word=W&book=B&fromChapter=C[&toChapter=C2]
+ *                                   references of W in books B to B2, or in
+ *                                   chapters C to C2 of book B
+ *      /count?word=W                number of verses W occurs in
+ *      /query?q=Q                   boolean query (see BooleanQuery)
+ *      /phrase?q=P                  exact phrase (needs -positions true)
+ *      /rank?q=Q[&k=N]              the N (default 10) verses most relevant
+ *                                   to the words of Q, best first (BM25)
+ *      /stats                       word, verse, chapter and book totals
+ *                                   and result cache counters
+ *      /metrics                     hash table, build and latency figures
+ *                                   (see ConcordanceMetrics; also over JMX)
+ *
+ *  /search (without context), /query and /phrase also take offset=K and
+ *  limit=N to return only N references starting at the K-th (from 0); only
+ *  those are formatted, and limit=0 returns just the count.
+ *
+ *  Usage:
+ *      java ConcordServer -corpus bible.txt [-port 8080] [-positions true] [-snapshot file]
+ *                         [-cacheEntries 1024]
+ *
+ *  With -snapshot the snapshot is loaded if it exists, and otherwise
+ *  written after the corpus is built.  /search references are cached for
+ *  the -cacheEntries most recently used words (0 turns the cache off).
+ *
+ *  @author Max Sotsky
+ */
+
+public class ConcordServer
+{
+	private ReadOnlyConcordance concord;
+	private HttpServer server;
+	private ExecutorService executor;
+	//-------------------------------------------------------------------------
+	public static void main(String[] args) throws Exception
+	{
+		File corpus = null, snapshot = null;
+		int port = 8080;
+		int cacheEntries = 1024;
+		boolean positions = false;
+		Concordance built;
+
+		for (int i = 0; i + 1 < args.length; i += 2)
+		{
+			if (args[i].equals("-corpus")) corpus = new File(args[i+1]);
+			else if (args[i].equals("-snapshot")) snapshot = new File(args[i+1]);
+			else if (args[i].equals("-port")) port = Integer.parseInt(args[i+1]);
+			else if (args[i].equals("-positions")) positions = Boolean.parseBoolean(args[i+1]);
+			else if (args[i].equals("-cacheEntries")) cacheEntries = Integer.parseInt(args[i+1]);
+			else throw new IllegalArgumentException("Unknown option " + args[i]);
+		} // for
+
+		if (corpus == null && (snapshot == null || !snapshot.exists()))
+		{
+			throw new IllegalArgumentException("Usage: java ConcordServer -corpus file [-port n] [-positions true] [-snapshot file] [-cacheEntries n]");
+		} // if
+		built = open(corpus, snapshot, positions, System.out);
+
+		if (cacheEntries > 0)
+		{
+			built.setResultCache(new ResultCache(cacheEntries, 0));
+		} // if
+		built.getMetrics().register(snapshot != null && snapshot.exists() ? snapshot.getName() : corpus.getName());
+
+		ConcordServer concordServer = new ConcordServer(new ReadOnlyConcordance(built), port);
+		concordServer.start();
+		System.out.println("Serving on http://localhost:" + concordServer.getPort() + "/");
+	} // main(String[])
+	//-------------------------------------------------------------------------
+	/**
+	 * Loads snapshot if it exists; otherwise builds a concordance from
+	 * corpus and, if snapshot is not null, saves it there for next time.
+	 */
+	static Concordance open(File corpus, File snapshot, boolean positions, PrintStream outPS) throws IOException, ConcordanceException
+	{
+		Concordance built;
+
+		if (snapshot != null && snapshot.exists())
+		{
+			return Concordance.load(snapshot, outPS);
+		} // if
+		built = new Concordance(corpus, new BuildOptions().setPositionalIndex(positions), outPS);
+		if (snapshot != null)
+		{
+			built.save(snapshot);
+		} // if
+		return built;
+	} // open(File,File,boolean,PrintStream)
+	//-------------------------------------------------------------------------
+	/**
+	 * Creates a server on the loopback interface; start() begins serving.
+	 *
+	 * @param  inConcord  the concordance to serve
+	 * @param  port       port to listen on, or 0 for any free port
+	 */
+	public ConcordServer(ReadOnlyConcordance inConcord, int port) throws IOException
+	{
+		concord = inConcord;
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		executor = newRequestExecutor();
+		server.setExecutor(executor);
+
+		server.createContext("/search", exchange -> handle(exchange, this::search));
+		server.createContext("/count", exchange -> handle(exchange, this::count));
+		server.createContext("/query", exchange -> handle(exchange, this::query));
+		server.createContext("/phrase", exchange -> handle(exchange, this::phrase));
+		server.createContext("/rank", exchange -> handle(exchange, this::rank));
+		server.createContext("/stats", exchange -> handle(exchange, this::stats));
+		server.createContext("/metrics", exchange -> handle(exchange, this::metrics));
+	} // constructor ConcordServer(ReadOnlyConcordance,int)
+	//-------------------------------------------------------------------------
+	public void start()
+	{
+		server.start();
+	} // start()
+	//-------------------------------------------------------------------------
+	/**
+	 * Stops accepting requests, waits up to delaySeconds for those in
+	 * progress, and releases the threads.
+	 */
+	public void stop(int delaySeconds)
+	{
+		server.stop(delaySeconds);
+		executor.shutdown();
+	} // stop(int)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the port actually being listened on.
+	 */
+	public int getPort()
+	{
+		return server.getAddress().getPort();
+	} // getPort()
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns an executor that starts a virtual thread per task if this JVM
+	 * has them, or a cached pool of platform threads otherwise.  Looked up
+	 * reflectively so the class still compiles and runs on Java 17.
+	 */
+	static ExecutorService newRequestExecutor()
+	{
+		try
+		{
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} // try
+		catch(ReflectiveOperationException e)
+		{
+			return Executors.newCachedThreadPool();
+		} // catch
+	} // newRequestExecutor()
+	//-------------------------------------------------------------------------
+	/**
+	 * One endpoint: builds the JSON body from the request parameters.
+	 */
+	private interface Endpoint
+	{
+		String respond(Map<String, String> parameters) throws ConcordanceException;
+	} // interface Endpoint
+	//-------------------------------------------------------------------------
+	/**
+	 * Runs an endpoint and sends its answer: 200 with the JSON body, 400
+	 * with {"error": ...} for a missing parameter or invalid query, 500 with
+	 * {"error": ...} if the endpoint fails in any other way, or 405 for
+	 * anything but GET.
+	 */
+	private void handle(HttpExchange exchange, Endpoint endpoint) throws IOException
+	{
+		int status = 200;
+		String body;
+
+		try
+		{
+			if (!exchange.getRequestMethod().equals("GET"))
+			{
+				status = 405;
+				body = error("only GET is supported");
+			} // if
+			else
+			{
+				body = endpoint.respond(parseQuery(exchange.getRequestURI().getRawQuery()));
+			} // else
+		} // try
+		catch(ConcordanceException | IllegalArgumentException e)
+		{
+			status = 400;
+			body = error(e.getMessage() != null ? e.getMessage() : e.toString());
+		} // catch
+		catch(RuntimeException e)
+		{
+			// A bug in an endpoint: still answer, rather than let the server drop the exchange.
+			status = 500;
+			body = error(e.getMessage() != null ? e.getMessage() : e.toString());
+		} // catch
+
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream responseBody = exchange.getResponseBody())
+		{
+			responseBody.write(bytes);
+		} // try
+	} // handle(HttpExchange,Endpoint)
+	//-------------------------------------------------------------------------
+	private String search(Map<String, String> parameters) throws ConcordanceException
+	{
+		String word = required(parameters, "word");
+		String context = parameters.get("context");
+		String book = parameters.get("book");
+		String[] results;
+
+		if (book != null && parameters.containsKey("fromChapter"))
+		{
+			int fromChapter = Integer.parseInt(parameters.get("fromChapter"));
+			int toChapter = Integer.parseInt(parameters.getOrDefault("toChapter", parameters.get("fromChapter")));
+			return "{\"word\":" + quote(word) + "," + page(concord.cursor(word, book, fromChapter, toChapter), parameters) + "}";
+		} // if
+		if (book != null)
+		{
+			return "{\"word\":" + quote(word) + "," + page(concord.cursor(word, book, parameters.getOrDefault("toBook", book)), parameters) + "}";
+		} // if
+
+		if (context == null && (parameters.containsKey("offset") || parameters.containsKey("limit")))
+		{
+			return "{\"word\":" + quote(word) + "," + page(concord.cursor(word), parameters) + "}";
+		} // if
+		if (context == null)
+		{
+			results = concord.references(word);
+			return "{\"word\":" + quote(word) + ",\"count\":" + results.length + ",\"references\":" + array(results) + "}";
+		} // if
+		results = concord.contexts(word, Integer.parseInt(context));
+		return "{\"word\":" + quote(word) + ",\"count\":" + results.length + ",\"contexts\":" + array(results) + "}";
+	} // search(Map)
+	//-------------------------------------------------------------------------
+	private String count(Map<String, String> parameters)
+	{
+		String word = required(parameters, "word");
+		return "{\"word\":" + quote(word) + ",\"count\":" + concord.count(word) + "}";
+	} // count(Map)
+	//-------------------------------------------------------------------------
+	private String query(Map<String, String> parameters) throws ConcordanceException
+	{
+		String q = required(parameters, "q");
+		return "{\"query\":" + quote(q) + "," + page(concord.cursor(concord.query(q)), parameters) + "}";
+	} // query(Map)
+	//-------------------------------------------------------------------------
+	private String phrase(Map<String, String> parameters) throws ConcordanceException
+	{
+		String q = required(parameters, "q");
+		return "{\"phrase\":" + quote(q) + "," + page(concord.cursor(concord.phraseSearch(q)), parameters) + "}";
+	} // phrase(Map)
+	//-------------------------------------------------------------------------
+	private String rank(Map<String, String> parameters) throws ConcordanceException
+	{
+		String q = required(parameters, "q");
+		ScoredVerse[] verses = concord.rankedSearch(q, Integer.parseInt(parameters.getOrDefault("k", "10")));
+		int[] packedIDs = new int[verses.length];
+		String[] references;
+		StringBuilder json = new StringBuilder("{\"query\":").append(quote(q)).append(",\"results\":[");
+
+		for (int i = 0; i < verses.length; i++)
+		{
+			packedIDs[i] = verses[i].getID();
+		} // for
+		references = concord.formatReferences(packedIDs);
+		for (int i = 0; i < verses.length; i++)
+		{
+			json.append(i > 0 ? "," : "").append("{\"reference\":").append(quote(references[i]))
+					.append(",\"score\":").append(String.format(Locale.ROOT, "%.4f", verses[i].getScore())).append('}');
+		} // for
+		return json.append("]}").toString();
+	} // rank(Map)
+	//-------------------------------------------------------------------------
+	private String stats(Map<String, String> parameters)
+	{
+		ResultCache cache = concord.getResultCache();
+
+		return "{\"words\":" + concord.getWordCount()
+				+ ",\"distinctWords\":" + concord.getDistinctWordCount()
+				+ ",\"verses\":" + concord.getVerseCount()
+				+ ",\"chapters\":" + concord.getChapterCount()
+				+ ",\"books\":" + array(concord.getBookNames().toArray(new String[0]))
+				+ (cache == null ? "" : ",\"cache\":{\"entries\":" + cache.size() + ",\"bytes\":" + cache.getBytes()
+						+ ",\"hits\":" + cache.getHitCount() + ",\"misses\":" + cache.getMissCount()
+						+ ",\"evictions\":" + cache.getEvictionCount() + "}") + "}";
+	} // stats(Map)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the "count" and "references" members for the page of cursor
+	 * selected by the offset (default 0) and limit (default all) parameters.
+	 * Only the references on the page are formatted; limit=0 gives the count
+	 * alone.
+	 */
+	private static String page(ResultCursor cursor, Map<String, String> parameters)
+	{
+		int offset = Integer.parseInt(parameters.getOrDefault("offset", "0"));
+		int limit = parameters.containsKey("limit") ? Integer.parseInt(parameters.get("limit")) : Integer.MAX_VALUE;
+		StringBuilder json = new StringBuilder("\"count\":").append(cursor.getCount());
+
+		cursor.page(offset, limit);
+		json.append(",\"offset\":").append(offset).append(",\"references\":[");
+		while (cursor.hasNext())
+		{
+			json.append(quote(cursor.nextReference()));
+			if (cursor.hasNext())
+			{
+				json.append(',');
+			} // if
+		} // while
+		return json.append(']').toString();
+	} // page(ResultCursor,Map)
+	//-------------------------------------------------------------------------
+	private String metrics(Map<String, String> parameters)
+	{
+		ConcordanceMetrics metrics = concord.getMetrics();
+
+		return "{\"tableSize\":" + metrics.getTableSize()
+				+ ",\"loadFactor\":" + metrics.getLoadFactor()
+				+ ",\"meanProbeLength\":" + metrics.getMeanProbeLength()
+				+ ",\"maxProbeLength\":" + metrics.getMaxProbeLength()
+				+ ",\"probeLengthHistogram\":" + Arrays.toString(metrics.getProbeLengthHistogram()).replace(" ", "")
+				+ ",\"longestCluster\":" + metrics.getLongestCluster()
+				+ ",\"failedInserts\":" + metrics.getFailedInserts()
+				+ ",\"rehashCount\":" + metrics.getRehashCount()
+				+ ",\"postingBytes\":" + metrics.getPostingBytes()
+				+ ",\"buildMillis\":" + metrics.getBuildMillis()
+				+ ",\"rehashMillis\":" + metrics.getRehashMillis()
+				+ ",\"finishMillis\":" + metrics.getFinishMillis()
+				+ ",\"tokensPerSecondByBook\":" + Arrays.toString(metrics.getTokensPerSecondByBook()).replace(" ", "")
+				+ ",\"lookups\":{\"count\":" + metrics.getLookupCount()
+				+ ",\"p50Micros\":" + metrics.getLookupLatencyP50Micros()
+				+ ",\"p99Micros\":" + metrics.getLookupLatencyP99Micros()
+				+ ",\"p999Micros\":" + metrics.getLookupLatencyP999Micros() + "}"
+				+ ",\"queries\":{\"count\":" + metrics.getQueryCount()
+				+ ",\"p50Micros\":" + metrics.getQueryLatencyP50Micros()
+				+ ",\"p99Micros\":" + metrics.getQueryLatencyP99Micros()
+				+ ",\"p999Micros\":" + metrics.getQueryLatencyP999Micros()
+				+ ",\"maxMicros\":" + metrics.getQueryLatencyMaxMicros() + "}}";
+	} // metrics(Map)
+	//-------------------------------------------------------------------------
+	private static String required(Map<String, String> parameters, String name)
+	{
+		String value = parameters.get(name);
+		if (value == null || value.trim().equals(""))
+		{
+			throw new IllegalArgumentException("missing parameter \"" + name + "\"");
+		} // if
+		return value;
+	} // required(Map,String)
+	//-------------------------------------------------------------------------
+	/**
+	 * Splits "a=1&b=2" into a map, URL-decoding names and values.
+	 */
+	static Map<String, String> parseQuery(String rawQuery)
+	{
+		Map<String, String> parameters = new HashMap<String, String>();
+		int equals;
+
+		if (rawQuery == null)
+		{
+			return parameters;
+		} // if
+		for (String pair : rawQuery.split("&"))
+		{
+			equals = pair.indexOf('=');
+			if (equals > 0)
+			{
+				parameters.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+						URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+			} // if
+		} // for
+		return parameters;
+	} // parseQuery(String)
+	//-------------------------------------------------------------------------
+	private static String error(String message)
+	{
+		return "{\"error\":" + quote(message) + "}";
+	} // error(String)
+	//-------------------------------------------------------------------------
+	static String array(String[] values)
+	{
+		StringBuilder json = new StringBuilder("[");
+
+		for (int i = 0; i < values.length; i++)
+		{
+			if (i > 0)
+			{
+				json.append(',');
+			} // if
+			json.append(quote(values[i]));
+		} // for
+		return json.append(']').toString();
+	} // array(String[])
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns s as a JSON string literal.
+	 */
+	static String quote(String s)
+	{
+		StringBuilder json = new StringBuilder(s.length() + 2).append('"');
+		char c;
+
+		for (int i = 0; i < s.length(); i++)
+		{
+			c = s.charAt(i);
+			if (c == '"' || c == '\\')
+			{
+				json.append('\\').append(c);
+			} // if
+			else if (c < 0x20)
+			{
+				json.append(String.format("\\u%04x", (int) c));
+			} // else if
+			else
+			{
+				json.append(c);
+			} // else
+		} // for
+		return json.append('"').toString();
+	} // quote(String)
+	//-------------------------------------------------------------------------
+} // class ConcordServer
@@ -1,27 +1,37 @@
-
-
 import java.io.*;
 import javax.swing.*;
+import javax.swing.event.*;
 import javax.swing.filechooser.*;
 import java.awt.*;
 import java.awt.event.*;
+import java.util.List;
+import java.util.concurrent.*;
 import java.util.prefs.*;    // Gives access to persistent user Preferences (for 'set ...' commands)
 
 /**
  * Class used to test the King James Concordance
- * 
+ *
  * @author Jason Rhinelander and Liam Keliher
  */
 public class ConcordTester extends JFrame implements ActionListener
 {
-	private JButton openFile, searchButton;
+	private JButton openFile, cancelBuild, searchButton;
 	private JTextField searchText;
+	private JCheckBox searchAsYouType;
+	private JProgressBar progressBar;
+	private JLabel resultHeader;
+	private JList<String> resultList;
+	private ResultListModel resultModel;
 	private JTextArea outputTextArea;
 	private JFileChooser fc;
 	private static Preferences prefs = Preferences.userRoot().node("ConcordTester");
 	private boolean fileLoaded = false;
 	private PrintStream textAreaPS;
 	private Concordance concord;
+	private SwingWorker<Concordance, String> builder;    // the build in progress, if any
+	private javax.swing.Timer typingTimer;
+	private static final int CONTEXT_WIDTH = 60;   // characters of verse text shown with each result
+	private static final int TYPING_DELAY = 250;   // ms without typing before search-as-you-type runs
 
 	//-------------------------------------------------------------------------
 	/**
@@ -34,9 +44,9 @@ public class ConcordTester extends JFrame implements ActionListener
 
 		// BorderLayout lets us put one thing on one side (i.e. the control
 		// panel), then use "CENTER" positioning to take up all the rest of the
-		// space (i.e. for the output text field).
+		// space (i.e. for the results and build messages).
 		setLayout(new BorderLayout());
-		setSize(600, 500);
+		setSize(760, 600);
 
 		JPanel controls = new JPanel();
 		controls.setLayout(new BoxLayout(controls, BoxLayout.X_AXIS));
@@ -44,12 +54,21 @@ public class ConcordTester extends JFrame implements ActionListener
 
 		openFile = new JButton("Open file...");
 		// The action command string is used in actionPerformed to identify
-		// which button was clicked        
+		// which button was clicked
 		openFile.setActionCommand("open file");
 		// The current object (i.e. "this") handles button clicks by
 		// implementing ActionListener and providing an actionPerformed method.
 		openFile.addActionListener(this);
 
+		cancelBuild = new JButton("Cancel");
+		cancelBuild.setActionCommand("cancel build");
+		cancelBuild.addActionListener(this);
+		cancelBuild.setEnabled(false);
+
+		progressBar = new JProgressBar(0, 100);
+		progressBar.setStringPainted(true);
+		progressBar.setString("No file loaded");
+
 		searchText = new JTextField();
 		searchText.setActionCommand("search field");
 		searchText.addActionListener(this);
@@ -58,9 +77,23 @@ public class ConcordTester extends JFrame implements ActionListener
 		searchButton.setActionCommand("search");
 		searchButton.addActionListener(this);
 
+		// Search as you type: each change restarts the timer, so the search
+		// only runs once typing pauses for TYPING_DELAY ms.
+		searchAsYouType = new JCheckBox("As you type");
+		typingTimer = new javax.swing.Timer(TYPING_DELAY, e -> runSearch(false));
+		typingTimer.setRepeats(false);
+		searchText.getDocument().addDocumentListener(new DocumentListener() {
+			public void insertUpdate(DocumentEvent e) { textChanged(); }
+			public void removeUpdate(DocumentEvent e) { textChanged(); }
+			public void changedUpdate(DocumentEvent e) { textChanged(); }
+		});
+
 		controls.add(openFile);
-		controls.add(Box.createRigidArea(new Dimension(50, 1)));
+		controls.add(cancelBuild);
+		controls.add(progressBar);
+		controls.add(Box.createRigidArea(new Dimension(20, 1)));
 		controls.add(searchText);
+		controls.add(searchAsYouType);
 		controls.add(searchButton);
 
 		fc = new JFileChooser();
@@ -72,20 +105,35 @@ public class ConcordTester extends JFrame implements ActionListener
 		if (defaultPath != null)
 			fc.setCurrentDirectory(new File(defaultPath));
 
-		outputTextArea = new JTextArea();
+		// Results go in a list that only formats the rows scrolled into view.
+		// A fixed cell size (taken from the prototype) stops the list from
+		// measuring every row.
+		resultModel = new ResultListModel();
+		resultList = new JList<String>(resultModel);
+		resultList.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+		resultList.setPrototypeCellValue("  Book Name 000:000  " + "x".repeat(CONTEXT_WIDTH + 10));
+		resultHeader = new JLabel(" ");
+		JPanel resultPanel = new JPanel(new BorderLayout());
+		resultPanel.add(resultHeader, BorderLayout.NORTH);
+		resultPanel.add(new JScrollPane(resultList), BorderLayout.CENTER);
+
+		outputTextArea = new JTextArea(6, 40);
+		outputTextArea.setEditable(false);
 		// Create a new PrintStream object that sends print calls both to the
-		// text area and System.out
+		// text area and System.out.  The build prints from a background
+		// thread, so the text area is updated on the event thread.
 		ByteArrayOutputStream baos = new ByteArrayOutputStream() {
-			public void flush () {
+			public synchronized void flush () {
 				String s = toString();
-				outputTextArea.append(s);
+				SwingUtilities.invokeLater(() -> outputTextArea.append(s));
 				System.out.print(s);
 				reset();
 			}
 		};
 		textAreaPS = new PrintStream(baos, true);
-		JScrollPane textscroll = new JScrollPane(outputTextArea);
-		add(textscroll, BorderLayout.CENTER);
+		JSplitPane split = new JSplitPane(JSplitPane.VERTICAL_SPLIT, resultPanel, new JScrollPane(outputTextArea));
+		split.setResizeWeight(0.8);
+		add(split, BorderLayout.CENTER);
 
 		setVisible(true);
 	} // constructor ConcordTester()
@@ -101,76 +149,235 @@ public class ConcordTester extends JFrame implements ActionListener
 
 			if (status == JFileChooser.APPROVE_OPTION) {
 				int tableSize = 0;
-				String msg = "Enter hash table size.";
+				String msg = "Enter initial hash table size (the table grows as needed).";
 				while (tableSize <= 0) {
 					String tableStr = JOptionPane.showInputDialog(
 							this, msg, prefs.get("lastTableSize", "")
 					);
-					tableSize = Integer.parseInt(tableStr);
+					if (tableStr == null) return; // Cancelled
+					try {
+						tableSize = Integer.parseInt(tableStr.trim());
+					} // try
+					catch (NumberFormatException nfe) {
+						tableSize = 0;
+					} // catch
 					msg = "Invalid hash table size.  Please enter a valid hash table size.";
 				} // while
 				prefs.put("lastTableSize", ""+tableSize);
-				concord = null;
+				startBuild(fc.getSelectedFile(), tableSize);
+			} // if
+
+		} // if
+		else if (command.equals("cancel build")) {
+			if (builder != null) {
+				// Interrupts the build thread; the Concordance stops at the next book
+				builder.cancel(true);
+			} // if
+		} // else if
+		else if (command.equals("search field") || command.equals("search")) {
+			typingTimer.stop();
+			runSearch(true);
+		} // else if
+	} // actionPerformed(ActionEvent)
+	//-------------------------------------------------------------------------
+	/**
+	 * Builds the concordance on a background thread, so the window stays
+	 * responsive, updating the progress bar as each book is reached.
+	 */
+	private void startBuild(final File file, final int tableSize)
+	{
+		concord = null;
+		resultModel.setResults(null, null, null);
+		resultHeader.setText(" ");
+		openFile.setEnabled(false);
+		cancelBuild.setEnabled(true);
+		progressBar.setValue(0);
+		progressBar.setString("Building...");
+
+		builder = new SwingWorker<Concordance, String>() {
+			protected Concordance doInBackground() throws Exception {
+				return new Concordance(file,
+						new BuildOptions().setTableSize(tableSize).setPositionalIndex(true)
+								.setBuildListener((bookName, bookNumber, fractionRead) -> {
+									setProgress((int) (100 * fractionRead));
+									publish("Book " + bookNumber + ": " + bookName);
+								}),
+						textAreaPS);
+			}
+			protected void process(List<String> books) {
+				// Only the latest book matters
+				progressBar.setString(books.get(books.size() - 1));
+			}
+			protected void done() {
+				openFile.setEnabled(true);
+				cancelBuild.setEnabled(false);
+				builder = null;
+				if (isCancelled()) {
+					progressBar.setValue(0);
+					progressBar.setString("Build cancelled");
+					textAreaPS.println("Build cancelled.");
+					return;
+				} // if
 				try {
-					concord = new Concordance(fc.getSelectedFile(), tableSize, textAreaPS);
+					concord = get();
+					progressBar.setValue(100);
+					progressBar.setString(concord.getDistinctWordCount() + " words indexed");
+					if (searchText.getText().trim().length() > 0) runSearch(false);
 				} // try
-				catch (FileNotFoundException fnfe) {
-					textAreaPS.print("Unable to load file: " + fnfe.getMessage());
+				catch (ExecutionException ee) {
+					progressBar.setValue(0);
+					progressBar.setString("Build failed");
+					if (ee.getCause() instanceof FileNotFoundException)
+						textAreaPS.print("Unable to load file: " + ee.getCause().getMessage());
+					else
+						textAreaPS.print("An exception occured while building concordance: " + ee.getCause().getMessage());
 				} // catch
-				catch (ConcordanceException cbe) {
-					textAreaPS.print("An exception occured while building concordance: " + cbe.getMessage());
+				catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
 				} // catch
-			} // if
-
+			}
+		};
+		builder.addPropertyChangeListener(event -> {
+			if (event.getPropertyName().equals("progress"))
+				progressBar.setValue((Integer) event.getNewValue());
+		});
+		builder.execute();
+	} // startBuild(File,int)
+	//-------------------------------------------------------------------------
+	/**
+	 * Restarts the search-as-you-type timer after each edit of the search box.
+	 */
+	private void textChanged()
+	{
+		if (searchAsYouType.isSelected()) {
+			typingTimer.restart();
 		} // if
-		else if (command.equals("search field") || command.equals("search")) {
-			// Get the string we're searching for:
-			String searchFor = searchText.getText();
-			if (concord == null) {
-				// If concord is null, we haven't loaded a file (or the loading failed),
-				// so show an error message dialog:
+	} // textChanged()
+	//-------------------------------------------------------------------------
+	/**
+	 * Searches for the text in the search box and shows the results.
+	 *
+	 * @param  interactive  true if the user asked for the search (error
+	 *                      dialogs are shown), false for search-as-you-type
+	 */
+	private void runSearch(boolean interactive)
+	{
+		// Get the string we're searching for:
+		String searchFor = searchText.getText();
+		if (concord == null) {
+			// If concord is null, we haven't loaded a file (or the loading failed),
+			// so show an error message dialog:
+			if (interactive)
 				JOptionPane.showMessageDialog(
 						null,
 						"No file loaded!  Please open a file before searching.",
 						"No file loaded!",
 						JOptionPane.ERROR_MESSAGE);
-			} // if
-			else if (searchFor == null || searchFor.length() < 1) {
-				// They hit search but haven't typed anything; show an error dialog
+			return;
+		} // if
+		if (searchFor == null || searchFor.trim().length() < 1) {
+			// They hit search but haven't typed anything; show an error dialog
+			if (interactive)
 				JOptionPane.showMessageDialog(
 						null,
 						"No search string entered!  Please type the word to search for.",
 						"No search string!",
 						JOptionPane.ERROR_MESSAGE);
-			} // else if
-			else {
-				searchText.selectAll(); // Select the text in the box, so that typing again will enter a new word
-				int index = concord.search(searchFor);
-				String[] results = concord.formatIDs(index);
-				textAreaPS.println("Result of search for \"" + searchFor + "\"");
-				textAreaPS.print("-----------------------");
-				for (int i = 0; i < searchFor.length(); i++) textAreaPS.print("-");
-				textAreaPS.println();
-				if (results != null && results.length > 0) {
-					textAreaPS.println("  [" + results.length + " results found]\n");
-					for (String r: results) {
-						textAreaPS.println("  " + r);
-					} // for r
+			resultModel.setResults(null, null, null);
+			resultHeader.setText(" ");
+			return;
+		} // if
+
+		String trimmed = searchFor.trim();
+		ResultCursor results;
+		String[] words;
+		if (trimmed.indexOf(' ') < 0) {
+			results = concord.cursor(trimmed);
+			words = new String[] {trimmed};
+		} // if
+		else {
+			// Several words: an exact phrase if quoted, otherwise a boolean query (AND is implied)
+			try {
+				if (trimmed.length() > 1 && trimmed.startsWith("\"") && trimmed.endsWith("\"")) {
+					String phrase = trimmed.substring(1, trimmed.length() - 1);
+					results = concord.cursor(concord.phraseSearch(phrase));
+					words = phrase.trim().split("\\s+");
 				} // if
 				else {
-					textAreaPS.println("*** No matches for \"" + searchFor + "\" ***");
+					results = concord.cursor(concord.query(trimmed));
+					// Highlight the query's words, not its operators
+					words = (" " + trimmed + " ").replaceAll(" (AND|OR|NOT)(?= )", "").trim().split("\\s+");
 				} // else
-				textAreaPS.println("\n");
-			} // else
-		} // else if
-	} // actionPerformed(ActionEvent)
+			} // try
+			catch (ConcordanceException ce) {
+				if (interactive)
+					JOptionPane.showMessageDialog(null, ce.getMessage(), "Invalid query", JOptionPane.ERROR_MESSAGE);
+				else {
+					resultModel.setResults(null, null, null); // Don't leave the previous query's results under the message
+					resultHeader.setText("Invalid query: " + ce.getMessage());
+				} // else
+				return;
+			} // catch
+		} // else
+		if (interactive)
+			searchText.selectAll(); // Select the text in the box, so that typing again will enter a new word
+
+		resultModel.setResults(concord, results, words);
+		resultList.ensureIndexIsVisible(0);
+		if (results.getCount() > 0) {
+			resultHeader.setText("Result of search for \"" + searchFor + "\"  [" + results.getCount() + " results found]");
+		} // if
+		else {
+			StringBuilder header = new StringBuilder("*** No matches for \"" + searchFor + "\" ***");
+			TermMatch[] suggestions = concord.fuzzySearch(trimmed, 2, 5);
+			if (suggestions.length > 0) {
+				header.append("    Did you mean:");
+				for (TermMatch m: suggestions) {
+					header.append(" " + m.getTerm());
+				} // for m
+				header.append("?");
+			} // if
+			resultHeader.setText(header.toString());
+		} // else
+	} // runSearch(boolean)
+	//-------------------------------------------------------------------------
+	/**
+	 * List model over a ResultCursor: a row is formatted (reference and
+	 * verse in context) only when the list asks for it, i.e. when it
+	 * scrolls into view, so showing 20,000 results costs no more than 20.
+	 */
+	private static class ResultListModel extends AbstractListModel<String>
+	{
+		private static final long serialVersionUID = 1L;
+
+		private Concordance concord;
+		private ResultCursor results;
+		private String[] words;
+
+		public void setResults(Concordance inConcord, ResultCursor inResults, String[] inWords) {
+			int oldSize = getSize();
+			concord = inConcord;
+			results = inResults;
+			words = inWords;
+			if (oldSize > 0) fireIntervalRemoved(this, 0, oldSize - 1);
+			if (getSize() > 0) fireIntervalAdded(this, 0, getSize() - 1);
+		}
+		public int getSize() {
+			return results == null ? 0 : results.getCount();
+		}
+		public String getElementAt(int i) {
+			return "  " + concord.formatContexts(new int[] {results.getID(i)}, CONTEXT_WIDTH, words)[0];
+		}
+	} // class ResultListModel
 
 	//-------------------------------------------------------------------------
 	public static void main (String[] args)
 	{
 		// Just get a ConcordTester object; the constructor does the real work
-		ConcordTester c = new ConcordTester();
-		c.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+		SwingUtilities.invokeLater(() -> {
+			ConcordTester c = new ConcordTester();
+			c.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+		});
 	} // main(String[])
 	//-------------------------------------------------------------------------
 } // class ConcordTester
\ No newline at end of file
@@ -2,7 +2,10 @@
 
 import java.util.*;
 import java.io.*;
-import java.math.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.util.concurrent.*;
 
 /**
  * Concordance class
@@ -17,15 +20,56 @@ import java.math.*;
 
 public class Concordance
 {
+	/**
+	 * How the input file is read: line by line through a BufferedReader, by
+	 * memory-mapping the whole file and scanning its bytes, or by mapping it
+	 * and indexing the books in parallel.  MAPPED and PARALLEL accept only
+	 * ASCII input, as kjv12.txt is; a file with other bytes is rejected
+	 * rather than indexed under different words than READER would give.
+	 */
+	public enum IngestMode { READER, MAPPED, PARALLEL }
+
+	public static final double DEFAULT_LOAD_FACTOR = 0.5;
+	public static final int MAX_FUZZY_DISTANCE = 3;   // larger distances in fuzzySearch are lowered to this
+	private static final int SNAPSHOT_MAGIC = 0x434F4E43;   // "CONC"
+	private static final int SNAPSHOT_VERSION = 5;
+	private static final int SNAPSHOT_DIRECTORY_INTS = 16;   // per table entry, see save
+	private static final int MIN_TABLE_SIZE = 16;
+
 	private BufferedReader input;
 	private int tableSize;
+	private double loadFactor;
+	private int resizeThreshold;
 	private HashEntry[] table;
+	private int[] keyOffsets;   // offset in keys of each slot's word...
+	private int[] keyHashes;    // ...and its hash, so probes need not touch the entry
+	private TermArena keys = new TermArena(1 << 14);
 	private ArrayList<String> allBookNames;
 	private int wordCounter = 0;
 	private int distinctWordCounter = 0;
 	private int verseCounter = 0;
 	private int chapterCounter = 0;
+	private short bookNum = 0, chapterNum = 0, verseNum = 0;
+	private short bookBase = 0;   // books indexed before the file being read
+	private int lineCounter = 0;
+	private boolean positionalIndex = false;
+	private int versePosition = 0;
+	private TermDictionary dictionary;
+	private VerseStore verses = new VerseStore();
+	private volatile ResultCache resultCache;   // null: references() does not cache
+	private ConcordanceMetrics metrics = new ConcordanceMetrics(this);
+	private volatile CorpusStatistics statistics;   // null until computed
+	private volatile int staleTopTerms = 0;   // > 0: statistics dropped by append(), recompute when asked
+	private volatile boolean frozen = false;   // true once a ReadOnlyConcordance wraps this
+	private BookIndexedEvent bookEvent;   // the book being indexed, or null
+	private long bookStartNanos;
+	private int bookStartWords;
+	private BuildListener listener;   // null: no progress reports
+	private Thread buildThread;       // interrupting it cancels the build
+	private long inputLength = 1, inputOffset = 0, charsRead = 0;
 	private PrintStream out;
+	private char[] lineBuffer = new char[128];
+	private char[] termBuffer = new char[64];
 	//-------------------------------------------------------------------------
 	public Concordance(File inFile, int inTableSize) throws FileNotFoundException, ConcordanceException
 	{
@@ -34,50 +78,336 @@ public class Concordance
 	//-------------------------------------------------------------------------
 	public Concordance(File inFile, int inTableSize, PrintStream outPS) throws FileNotFoundException, ConcordanceException
 	{
-		input = new BufferedReader(new FileReader(inFile));
-		tableSize = inTableSize;
-		table = new HashEntry[tableSize];
+		this(inFile, inTableSize, DEFAULT_LOAD_FACTOR, outPS);
+	} // Concordance(File,int,PrintStream)
+	//-------------------------------------------------------------------------
+	/**
+	 * Builds a concordance whose hash table starts with room for at least
+	 * inTableSize entries and doubles (rehashing every entry) whenever the
+	 * number of distinct words would exceed inLoadFactor times its size.
+	 * The table size no longer has to be a well-chosen prime.
+	 *
+	 * @param  inFile        text file with the structure of kjv12.txt
+	 * @param  inTableSize   initial table size (rounded up to a power of two)
+	 * @param  inLoadFactor  maximum fraction of the table in use, 0 < f < 1
+	 * @param  outPS         stream for progress messages
+	 */
+	public Concordance(File inFile, int inTableSize, double inLoadFactor, PrintStream outPS) throws FileNotFoundException, ConcordanceException
+	{
+		this(inFile, inTableSize, inLoadFactor, IngestMode.READER, outPS);
+	} // Concordance(File,int,double,PrintStream)
+	//-------------------------------------------------------------------------
+	/**
+	 * Same as Concordance(File,int,double,PrintStream), but with a choice of
+	 * how the input file is read.  Both modes apply the same format checks
+	 * and produce the same concordance.
+	 *
+	 * @param  inMode  IngestMode.READER, IngestMode.MAPPED or IngestMode.PARALLEL
+	 */
+	public Concordance(File inFile, int inTableSize, double inLoadFactor, IngestMode inMode, PrintStream outPS) throws FileNotFoundException, ConcordanceException
+	{
+		this(inFile, new BuildOptions().setTableSize(inTableSize).setLoadFactor(inLoadFactor).setIngestMode(inMode), outPS);
+	} // Concordance(File,int,double,IngestMode,PrintStream)
+	//-------------------------------------------------------------------------
+	/**
+	 * Builds a concordance with the given options (see BuildOptions).
+	 *
+	 * @param  inFile     text file with the structure of kjv12.txt
+	 * @param  inOptions  table size, load factor, ingest mode and optional indexes
+	 * @param  outPS      stream for progress messages
+	 */
+	public Concordance(File inFile, BuildOptions inOptions, PrintStream outPS) throws FileNotFoundException, ConcordanceException
+	{
+		if (!(inOptions.getLoadFactor() > 0.0 && inOptions.getLoadFactor() < 1.0))
+		{
+			throw new ConcordanceException("Inside Concordance constructor -- load factor must be between 0 and 1");
+		} // if
+
+		loadFactor = inOptions.getLoadFactor();
+		positionalIndex = inOptions.getPositionalIndex();
+		listener = inOptions.getBuildListener();
+		buildThread = Thread.currentThread();
+		inputLength = Math.max(1, inFile.length());
+		allocateTable(inOptions.getTableSize());
 		allBookNames = new ArrayList<String>();
 		out = outPS;
 
 		out.println("Building concordance...");
-		buildConcordance();
+		long startNanos = System.nanoTime();
+		if (inOptions.getIngestMode() == IngestMode.MAPPED)
+		{
+			buildConcordanceMapped(new RandomAccessFile(inFile, "r"));
+		} // if
+		else if (inOptions.getIngestMode() == IngestMode.PARALLEL)
+		{
+			buildConcordanceParallel(new RandomAccessFile(inFile, "r"));
+		} // else if
+		else
+		{
+			input = new BufferedReader(new FileReader(inFile));
+			buildConcordance();
+		} // else
+		long parsedNanos = System.nanoTime();
+		finishBuild();
+		metrics.recordBuild(parsedNanos - startNanos, System.nanoTime() - parsedNanos);
+		if (inOptions.getStatistics())
+		{
+			computeStatistics(CorpusStatistics.DEFAULT_TOP_TERMS);
+		} // if
+
+		printTotals();
+
+	} // Concordance(File,BuildOptions,PrintStream)
+	//-------------------------------------------------------------------------
+	/**
+	 * Creates an empty concordance, used for the per-book partial tables of
+	 * a parallel build.
+	 */
+	private Concordance(double inLoadFactor, boolean inPositional, PrintStream outPS)
+	{
+		loadFactor = inLoadFactor;
+		positionalIndex = inPositional;
+		allocateTable(MIN_TABLE_SIZE);
+		allBookNames = new ArrayList<String>();
+		out = outPS;
+	} // Concordance(double,boolean,PrintStream)
+	//-------------------------------------------------------------------------
+	/**
+	 * Adds the books of another file after the books already indexed.  The
+	 * file has the same structure as the original, with its own books
+	 * numbered from "Book 01"; they become books getBookNames().size()+1,
+	 * +2, ... here.  Only the new file is read: it is indexed into a table
+	 * of its own, which is then merged into this one as in a parallel
+	 * build, and the table grows as needed.  If the file cannot be read or
+	 * has a format problem, this concordance is left unchanged.
+	 *
+	 * The sorted dictionary and position skips are rebuilt and the result
+	 * cache is cleared afterwards.  Statistics (if computed) are dropped and
+	 * recomputed the next time getStatistics() is called, so appending does
+	 * not re-read the text already indexed.  Not safe while other threads
+	 * are querying: append first, then create a ReadOnlyConcordance.  Once
+	 * a ReadOnlyConcordance has been created, append fails.
+	 *
+	 * @param  inFile  text file with the structure of kjv12.txt
+	 * @throws  ConcordanceException  also if a ReadOnlyConcordance of this exists
+	 */
+	public void append(File inFile) throws FileNotFoundException, ConcordanceException
+	{
+		Concordance partial;
+		ResultCache cache = resultCache;
+
+		if (frozen)
+		{
+			throw new ConcordanceException("Inside append -- this concordance is shared through a ReadOnlyConcordance and can no longer change");
+		} // if
+		partial = new Concordance(loadFactor, positionalIndex, out);
+
+		partial.bookNum = bookNum;
+		partial.bookBase = bookNum;
+		partial.listener = listener;
+		partial.buildThread = Thread.currentThread();
+		partial.inputLength = Math.max(1, inFile.length());
+		partial.input = new BufferedReader(new FileReader(inFile));
+
+		out.println("Appending " + inFile + "...");
+		long startNanos = System.nanoTime();
+		partial.buildConcordance();
+		merge(partial);
+		long parsedNanos = System.nanoTime();
+		finishBuild();
+		metrics.recordBuild(parsedNanos - startNanos, System.nanoTime() - parsedNanos);
+		if (cache != null)
+		{
+			cache.clear();
+		} // if
+		if (statistics != null)
+		{
+			staleTopTerms = statistics.getTopTermCount();
+			statistics = null;
+		} // if
 
+		printTotals();
+	} // append(File)
+	//-------------------------------------------------------------------------
+	/**
+	 * Forbids append() from now on; called by ReadOnlyConcordance, whose
+	 * copies of the counters and book names must stay true.
+	 */
+	void freeze()
+	{
+		frozen = true;
+	} // freeze()
+	//-------------------------------------------------------------------------
+	/**
+	 * Builds the structures derived from the table once all text is indexed,
+	 * and compresses every entry's references (see HashEntry.compress).
+	 */
+	private void finishBuild()
+	{
+		dictionary = new TermDictionary(table);
+		for (int i = 0; i < tableSize; i++)
+		{
+			if (table[i] != null)
+			{
+				table[i].compress(verses);
+				if (positionalIndex)
+				{
+					table[i].indexPositions();
+				} // if
+			} // if
+		} // for
+	} // finishBuild()
+	//-------------------------------------------------------------------------
+	private void printTotals()
+	{
 		out.println();
 		out.println("Total number of words = " + wordCounter);
 		out.println("Number of distinct words = " + distinctWordCounter);
 		out.println("Number of verses = " + verseCounter);
 		out.println("Number of chapters = " + chapterCounter);
 		out.println();
+	} // printTotals()
+	//-------------------------------------------------------------------------
+	/**
+	 * Standard accessor method for the total number of words indexed.
+	 */
+	public int getWordCount()
+	{
+		return wordCounter;
+	} // getWordCount()
+	//-------------------------------------------------------------------------
+	/**
+	 * Standard accessor method for the number of distinct words.
+	 */
+	public int getDistinctWordCount()
+	{
+		return distinctWordCounter;
+	} // getDistinctWordCount()
+	//-------------------------------------------------------------------------
+	/**
+	 * Standard accessor method for the number of verses.
+	 */
+	public int getVerseCount()
+	{
+		return verseCounter;
+	} // getVerseCount()
+	//-------------------------------------------------------------------------
+	/**
+	 * Standard accessor method for the number of chapters.
+	 */
+	public int getChapterCount()
+	{
+		return chapterCounter;
+	} // getChapterCount()
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the names of the books, in order (book 1 first).
+	 */
+	public List<String> getBookNames()
+	{
+		return Collections.unmodifiableList(allBookNames);
+	} // getBookNames()
+	//-------------------------------------------------------------------------
+	/**
+	 * Standard accessor method for the current hash table size.
+	 */
+	public int getTableSize()
+	{
+		return tableSize;
+	} // getTableSize()
+	//-------------------------------------------------------------------------
+	/**
+	 *  Creates an empty table with the smallest power-of-two size that is at
+	 *  least requestedSize, and sets the threshold at which it will grow.
+	 */
+	private void allocateTable(int requestedSize)
+	{
+		int size = MIN_TABLE_SIZE;
+		while (size < requestedSize && size < (1 << 30))
+		{
+			size <<= 1;
+		} // while
 
-	} // Concordance(File,int,PrintStream)
+		tableSize = size;
+		table = new HashEntry[tableSize];
+		keyOffsets = new int[tableSize];
+		keyHashes = new int[tableSize];
+		resizeThreshold = (int) (tableSize * loadFactor);
+	} // allocateTable(int)
 	//-------------------------------------------------------------------------
 	/**
-	 *  Hashes the input string to produce an integer in the range 0...(N-1),
-	 *  where N is the table size.
+	 *  Doubles the table size and reinserts every entry.  Called whenever an
+	 *  insertion pushes the number of distinct words past the load factor.
 	 */
-	private int hash(String input)
+	private void rehash()
 	{
-		// Value to hold the position, and how far quadradic probing should jump, for the given string.
-		BigInteger jump = new BigInteger("0");
-		BigInteger toAdd;
-		BigInteger tableSizeBI = new BigInteger("" + tableSize);
-		
-		// Goes through each character, adding up ASCII values times 10 to the power of the character's index.
-		for(int index = 0; index < input.length(); index++) {
-			toAdd = new BigInteger("" + ((long) Math.pow(10, index) * (int) input.charAt(index)));
-			jump = jump.add(toAdd);
-		}
-		
-		// Squares jump, mod tableSize.
-		jump = jump.multiply(jump);
-		jump = jump.mod(tableSizeBI);
-		
-		// Converts jump from a BigInteger to an int and returns it.
-		return jump.intValue();
+		HashEntry[] oldTable = table;
+		int[] oldOffsets = keyOffsets, oldHashes = keyHashes;
+		int index;
+		long startNanos = System.nanoTime();
+		TableResizeEvent event = new TableResizeEvent();
+
+		event.begin();
+		allocateTable(tableSize * 2);
+		for (int i = 0; i < oldTable.length; i++)
+		{
+			if (oldTable[i] != null)
+			{
+				// Keys are distinct, so the first empty slot in the probe sequence is the right one.
+				index = oldHashes[i] & (tableSize - 1);
+				for (int step = 1; table[index] != null; step++)
+				{
+					index = (index + step) & (tableSize - 1);
+				} // for
+				table[index] = oldTable[i];
+				keyOffsets[index] = oldOffsets[i];
+				keyHashes[index] = oldHashes[i];
+			} // if
+		} // for
+
+		metrics.recordRehash(System.nanoTime() - startNanos);
+		event.end();
+		if (event.shouldCommit())
+		{
+			event.oldSize = oldTable.length;
+			event.newSize = tableSize;
+			event.entries = distinctWordCounter;
+			event.commit();
+		} // if
+	} // rehash()
+	//-------------------------------------------------------------------------
+	/**
+	 *  Hashes the input string to a well-mixed 32-bit value.  Only primitive
+	 *  arithmetic is used, so no objects are created per call; callers reduce
+	 *  the result to a table index by masking with (N-1), N being a power of two.
+	 */
+	private static int hash(String input)
+	{
+		int h = 0;
+
+		for (int index = 0; index < input.length(); index++)
+		{
+			h = 31 * h + input.charAt(index);
+		} // for
+
+		return mix(h);
 
 	} // hash(String)
 	//-------------------------------------------------------------------------
+	/**
+	 *  Final avalanche step (from MurmurHash3) so that the low bits of the
+	 *  hash depend on every character.
+	 */
+	private static int mix(int h)
+	{
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	} // mix(int)
+	//-------------------------------------------------------------------------
 	/**
 	 *  Searches the hash table for the input word.
 	 *  If the input word is not present *and* the table is full, return -1.
@@ -88,32 +418,52 @@ public class Concordance
 	 *  the empty table location where an entry containing that word would be inserted if
 	 *  we were performing insertion.
 	 *  
-	 *  NOTE:  this is the method where you perform quadratic probing.
+	 *  Collisions are resolved by quadratic probing with triangular-number
+	 *  offsets (h, h+1, h+3, h+6, ...), which visits every slot of a
+	 *  power-of-two table.  Each slot's key hash is cached in an int array,
+	 *  so a probe compares the key's characters (in the TermArena) only when
+	 *  the hashes are equal, and never touches the HashEntry.  Because the
+	 *  table grows before it passes the load factor, -1 is only returned for
+	 *  keys that cannot be in the concordance (i.e. that contain characters
+	 *  other than letters and hyphens).
 	 *  
 	 *  @param  key  the word being searched for
 	 *  @return a table index or -1 (see above description)
 	 */
 	public int search(String key)
 	{
+		long startNanos = metrics.sampleLookup() ? System.nanoTime() : 0;
+
 		// Makes the key lowercase.
 		String lowerKey = customToLowerCase(key);
-		// Figures out how far each jump should be.
-		int jump = hash(lowerKey);
-		
-		// If the first index is empty, or the key it is searching for, returns first index.
-		if (table[jump] == null || table[jump].getKey().equals(lowerKey)) {
-			return jump;
-		}
-		
-		// Checks the second index onward. 
-		// If it finds the key or an empty place without returning back to the first index, returns found index.
-		for(int index = (2 * jump) % tableSize; index != jump; index = (index + jump) % tableSize) {
-			if (table[index] == null || table[index].getKey().equals(lowerKey)) {
+		if (lowerKey == null || lowerKey.equals(""))
+		{
+			return -1;
+		} // if
+
+		int mask = tableSize - 1;
+		int keyHash = hash(lowerKey);
+		int index = keyHash & mask;
+
+		// Probes until it finds the key or an empty place; gives up after visiting every slot once.
+		for (int step = 1; step <= tableSize; step++)
+		{
+			if (table[index] == null || (keyHashes[index] == keyHash && keys.matches(keyOffsets[index], lowerKey)))
+			{
+				if (startNanos != 0)
+				{
+					metrics.recordLookup(System.nanoTime() - startNanos);
+				} // if
 				return index;
-			}
-		}
-		
-		// If the loop went back around to the first index, returns -1. No empty index or matching key found.
+			} // if
+			index = (index + step) & mask;
+		} // for
+
+		// Every slot is taken and none holds the key.
+		if (startNanos != 0)
+		{
+			metrics.recordLookup(System.nanoTime() - startNanos);
+		} // if
 		return -1;
 
 	} // search(String)
@@ -130,281 +480,1774 @@ public class Concordance
 	public String[] formatIDs(int index)
 	{
 		// If the index exists and isn't empty...
-        if (index != -1 && table[index] != null) {
-        	
-        	// Variables to hold data.
-        	LinkedList<ID> IDList = table[index].getList();
-            String[] IDStrings = new String[IDList.size()];
-            ID currentID;
-            
-            // Goes down the list, putting each ID's data into a String, and that String into the String array
-            for(int i = 0; i < IDList.size(); i++) {
-            	currentID = IDList.get(i);
-            	IDStrings[i] = allBookNames.get(currentID.getBook() - 1) + " " + currentID.getChapter() + ":" + currentID.getVerse();
-            }
-            
-            return IDStrings;
-        }
-        
-        // If there are no results, returns null
+		if (index != -1 && table[index] != null) {
+
+			// Variables to hold data.
+			HashEntry entry = table[index];
+			PostingIterator iterator = entry.iterator();
+			String[] IDStrings = new String[entry.size()];
+
+			// Goes down the list, putting each ID's data into a String, and that String into the String array
+			for(int i = 0; i < IDStrings.length; i++) {
+				IDStrings[i] = formatReference(iterator.next());
+			}
+
+			return IDStrings;
+		}
+
+		// If there are no results, returns null
 		return null;
 
 	} // formatIDs(int)
 	//-------------------------------------------------------------------------
 	/**
-	 *  Reads in each line of the input file and processes it appropriately.
+	 * Returns the "Book C:V" references of word, as formatIDs(search(word))
+	 * does, but through the result cache if one is set: a word asked for
+	 * again is answered from the cache.  The returned array may be shared
+	 * with other callers and must not be modified.
 	 *
-	 *  DO NOT MODIFY THIS METHOD !!!
+	 * @param  word  the word being searched for
+	 * @return  its references, or an empty array if it does not occur
 	 */
-	private void buildConcordance() throws ConcordanceException
+	public String[] references(String word)
 	{
-		String currLine = "", restOfLine;
-		int lineCounter = 0;
-		short bookNum = 0, chapterNum = 0, verseNum = 0;
-		String bookNumStr, chapterNumStr, verseNumStr;
-		String bookName;
+		ResultCache cache = resultCache;
+		String lowerWord = customToLowerCase(word);
+		String[] results;
+		QueryEvent event = startQuery("references", word);
+		long startNanos = System.nanoTime();
 
-		try
+		if (lowerWord == null || lowerWord.equals(""))
 		{
-			currLine = input.readLine();
-			while (currLine != null)
+			finishQuery(event, startNanos, 0);
+			return new String[0];
+		} // if
+		if (cache != null)
+		{
+			results = cache.get(lowerWord);
+			if (results != null)
 			{
-				lineCounter++;
-
-				//---------------------------------------
-				//----- Line introducing a new book -----
-				//---------------------------------------
-				if ((currLine.length() > 7) && currLine.substring(0, 4).equals("Book"))
-				{
-					bookNumStr = currLine.substring(5, 7);
-					bookName = currLine.substring(7).trim();
-					bookNum++;
-					try
-					{
-						if (bookNum != Integer.parseInt(bookNumStr) || bookName.equals(""))
-						{
-							out.println("Inside buildConcordance() method in class Concordance (#1).");
-							out.println("Format problem on line " + lineCounter);
-							out.println("Terminating...");
-							throw new ConcordanceException("Inside buildConcordance -- format problem on line " + lineCounter);
-						} // if
-					} // try
-					catch(NumberFormatException nfe)
-					{
-						out.println("Inside buildConcordance() method in class Concordance (#2).");
-						out.println("Format problem on line " + lineCounter);
-						out.println("Terminating...");
-						throw new ConcordanceException("Inside buildConcordance -- format problem on line " + lineCounter);
-					} // catch
-					allBookNames.add(bookName);
-					chapterNum = 0;
-
-					out.println("Currently working on " + bookName);
-
-				} // if
-
-				//---------------------------------
-				//----- First line of a verse -----
-				//---------------------------------
-				else if ((currLine.length() > 7) && (currLine.charAt(0) >= '0' && currLine.charAt(0) <= '9'))
-				{
-					chapterNumStr = currLine.substring(0, 3);
-					verseNumStr = currLine.substring(4, 7);
-					restOfLine = currLine.substring(7).trim();
-					if (verseNumStr.equals("001"))
-					{
-						verseNum = 1;
-						chapterNum++;
-						chapterCounter++;
-					} // if
-					else
-					{
-						verseNum++;
-					} // else
-					try
-					{
-						if (chapterNum != Integer.parseInt(chapterNumStr) || verseNum != Integer.parseInt(verseNumStr) || currLine.charAt(3) != ':')
-						{
-							out.println("Inside buildConcordance() method in class Concordance (#3).");
-							out.println("Format problem on line " + lineCounter);
-							out.println("Terminating...");
-							throw new ConcordanceException("Inside buildConcordance -- format problem on line " + lineCounter);
-						} // if
-					} // try
-					catch(NumberFormatException nfe)
-					{
-						out.println("Inside buildConcordance() method in class Concordance (#4).");
-						out.println("Format problem on line " + lineCounter);
-						out.println("Terminating...");
-						throw new ConcordanceException("Inside buildConcordance -- format problem on line " + lineCounter);
-					} // catch
-
-					verseCounter++;
-
-					addToConcordance(restOfLine, bookNum, chapterNum, verseNum);
-				} // else if
-
-				//--------------------------
-				//----- Any other line -----
-				//--------------------------
-				else
-				{
-					currLine = currLine.trim();
-					addToConcordance(currLine, bookNum, chapterNum, verseNum);
-				} // else
-
-				currLine = input.readLine();
-			} // while
+				finishQuery(event, startNanos, results.length);
+				return results;
+			} // if
+		} // if
 
-			input.close();
-		} // try
-		catch(IOException ioe)
+		results = formatIDs(search(lowerWord));
+		if (results == null)
 		{
-			out.println("Inside buildConcordance() method in class Concordance (#5).");
-			out.println("An IOException has occurred.  This is NOT the fault of the programmer.");	
-			out.println("Terminating...");
-			throw new ConcordanceException("Inside buildConcordance -- format problem on line " + lineCounter);
-		} // catch(IOException)
-	} // buildConcordance()
+			results = new String[0];
+		} // if
+		if (cache != null)
+		{
+			cache.put(lowerWord, results);
+		} // if
+		finishQuery(event, startNanos, results.length);
+		return results;
+	} // references(String)
 	//-------------------------------------------------------------------------
 	/**
-	 *  This method parses the String passed as input, and for each word that it contains,
-	 *  adds an ID to the concordance (as long as this does not create a duplicate).
+	 * Sets the cache used by references(String), or removes it if null.
 	 */
-	private void addToConcordance(String currLine, short currBook, short currChap, short currVerse) throws ConcordanceException
+	public void setResultCache(ResultCache inCache)
 	{
-		String[] words;
-		String trimmedLine = currLine.trim();
-		String newWord;
-		ID newID;
-
-		if (!trimmedLine.equals(""))
+		resultCache = inCache;
+	} // setResultCache(ResultCache)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the cache used by references(String), or null if there is none.
+	 */
+	public ResultCache getResultCache()
+	{
+		return resultCache;
+	} // getResultCache()
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns a cursor over the verses containing word, which formats each
+	 * reference only when asked (see ResultCursor).  For one page of 50:
+	 *
+	 *     String[] page = concord.cursor(word).page(100, 50).toReferences();
+	 *
+	 * @param  word  the word being searched for
+	 * @return  a cursor, with no results if word does not occur
+	 */
+	public ResultCursor cursor(String word)
+	{
+		return new ResultCursor(this, lookup(word));
+	} // cursor(String)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns a cursor over packed IDs, e.g. the result of query(String).
+	 */
+	public ResultCursor cursor(int[] packedIDs)
+	{
+		return new ResultCursor(this, packedIDs);
+	} // cursor(int[])
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns a cursor over the verses containing word from fromID through
+	 * toID (packed; see ID.pack), e.g. one book or chapter.  The start and
+	 * end of the range are found with the posting list's skip table, so the
+	 * cost depends on the number of verses in the range, not on how often
+	 * the word occurs elsewhere.
+	 */
+	public ResultCursor cursor(String word, int fromID, int toID)
+	{
+		return new ResultCursor(this, lookup(word), fromID, toID);
+	} // cursor(String,int,int)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns a cursor over the verses containing word in the books from
+	 * fromBook through toBook, e.g. ("goat", "Leviticus", "Leviticus").
+	 *
+	 * @throws  ConcordanceException  if either book does not exist
+	 */
+	public ResultCursor cursor(String word, String fromBook, String toBook) throws ConcordanceException
+	{
+		return cursor(word, ID.pack(requireBook(fromBook), 0, 0), ID.pack(requireBook(toBook), ID.MAX_CHAPTER, ID.MAX_VERSE));
+	} // cursor(String,String,String)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns a cursor over the verses containing word in chapters
+	 * fromChapter through toChapter of book.
+	 *
+	 * @throws  ConcordanceException  if the book does not exist
+	 */
+	public ResultCursor cursor(String word, String book, int fromChapter, int toChapter) throws ConcordanceException
+	{
+		int bookNumber = requireBook(book);
+		return cursor(word, ID.pack(bookNumber, Math.max(0, Math.min(fromChapter, ID.MAX_CHAPTER)), 0),
+				ID.pack(bookNumber, Math.max(0, Math.min(toChapter, ID.MAX_CHAPTER)), ID.MAX_VERSE));
+	} // cursor(String,String,int,int)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the number of the book with the given name (ignoring case),
+	 * counting from 1 as in packed IDs, or -1 if there is none.
+	 */
+	public int getBookNumber(String name)
+	{
+		for (int i = 0; i < allBookNames.size(); i++)
 		{
-			words = trimmedLine.split(" ");
-			for (int i = 0; i < words.length; i++)
+			if (allBookNames.get(i).equalsIgnoreCase(name))
 			{
-				newWord = removePunctuation(words[i]);
-				newWord = customToLowerCase(newWord);
-				if (newWord == null || newWord.equals(""))
-				{
-					out.println("Inside addToConcordance() method in class Concordance.");
-					out.println("Call to removePunctuation() and makeLowerCase() returned null or empty String.");
-					out.println("Terminating...");
-					throw new ConcordanceException("removePunctuation() or makeLowerCase() returned null or empty String.");
-				} // if
-
-				wordCounter++;
-
-				newID = new ID(currBook, currChap, currVerse);
-
-
-
-				//----------------------------------------------------------------------
-				//--- If newWord is not yet in the concordance, add an entry for it  ---
-				//--- (the HashEntry constructor will automatically insert the first ---
-				//---  reference (ID) into the associated list), and then increment  ---
-				//---  distinctWordCounter.                                          ---
-				//---                                                                ---
-				//--- If newWord is already in the concordance, only add a new       ---
-				//--- reference (ID) if it does not create a duplicate.              ---
-				//----------------------------------------------------------------------
-				
-				// Finds where the key should be placed.
-				int wordPlace = search(newWord);
-				
-				// If it found a place, and that place is empty...
-				if (wordPlace != -1 && table[wordPlace] == null) {
-					// Adds in the new HashEntry for that word and ID.
-					table[wordPlace] = new HashEntry(newWord, newID);
-					distinctWordCounter++;
-				}
-				
-				// If it found the word already in there somewhere...
-				else if (wordPlace != -1) {
-					// Gets the ID list already in that place.
-					LinkedList<ID> list = table[wordPlace].getList();
-					
-					// If this ID is not already on the list, adds it on.
-					if (!list.getLast().equals(newID)) {
-						list.add(newID);
-					}
-				}
-			} // for
-		} // if
-	} // addToConcordance(String,short,short,short)
+				return i + 1;
+			} // if
+		} // for
+		return -1;
+	} // getBookNumber(String)
 	//-------------------------------------------------------------------------
-	private String removePunctuation(String inWord)
+	private int requireBook(String name) throws ConcordanceException
 	{
-		char[] punc = {'.', ',', ';', ':', '?', '!', '(', ')'};
-		boolean isPunc;
-		char c;
-		int inWordLength, newWordLength;
-		String newWord = null;
+		int number = getBookNumber(name);
 
-		if (inWord == null)
+		if (number < 0)
 		{
-			newWord = null;
+			throw new ConcordanceException("Inside Concordance -- no book named \"" + name + "\"");
 		} // if
-		if (inWord.equals(""))
-		{
-			newWord = "";
-		} // else if
-		else
-		{
-			//--------------------------------------------------------------
-			//----- Remove any punctuation marks that appear in punc[] -----
-			//--------------------------------------------------------------
-			inWordLength = inWord.length();
-			newWord = "";
-			for (int i = 0; i < inWordLength; i++)
-			{
-				c = inWord.charAt(i);
-				isPunc = false;
-				for (int j = 0; j < punc.length; j++)
-				{
-					if (c == punc[j])
-					{
-						isPunc = true;
-						break;
-					} // if
-				} // for
+		return number;
+	} // requireBook(String)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the number of verses containing word, without formatting any.
+	 */
+	public int count(String word)
+	{
+		HashEntry entry = lookup(word);
+		return entry == null ? 0 : entry.size();
+	} // count(String)
+	//-------------------------------------------------------------------------
+	/**
+	 * Converts each packed ID (see ID.pack) to human-friendly form, as
+	 * formatIDs(int) does for the IDs of one table entry.
+	 *
+	 * @param  packedIDs  packed IDs, e.g. the result of query(String)
+	 * @return  one "Book C:V" String per packed ID
+	 */
+	public String[] formatReferences(int[] packedIDs)
+	{
+		String[] IDStrings = new String[packedIDs.length];
 
-				if (!isPunc)
-				{
-					newWord += c;
+		for (int i = 0; i < packedIDs.length; i++)
+		{
+			IDStrings[i] = formatReference(packedIDs[i]);
+		} // for
+		return IDStrings;
+	} // formatReferences(int[])
+	//-------------------------------------------------------------------------
+	String formatReference(int packed)
+	{
+		return allBookNames.get(ID.bookOf(packed) - 1) + " " + ID.chapterOf(packed) + ":" + ID.verseOf(packed);
+	} // formatReference(int)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the full text of a verse, or null if there is no such verse.
+	 *
+	 * @param  packedID  the verse's ID (see ID.pack)
+	 */
+	public String getVerseText(int packedID)
+	{
+		int ordinal = verses.ordinalOf(packedID);
+		return ordinal < 0 ? null : verses.getText(ordinal);
+	} // getVerseText(int)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the text of a verse with every occurrence of the given words
+	 * in [brackets] (matched the same way the concordance matches words, so
+	 * "Lord's" is an occurrence of "lord"; the words are cleaned the same
+	 * way, so "lord's" highlights "lord", and a word with nothing left is
+	 * ignored).  If width is positive and the verse is longer, only about
+	 * width characters around the first occurrence are kept, with "..."
+	 * marking what was cut.
+	 *
+	 * @param  packedID  the verse's ID (see ID.pack)
+	 * @param  width     characters of context to keep, or 0 for the whole verse
+	 * @param  words     the words to highlight
+	 * @return  the highlighted text, or null if there is no such verse
+	 */
+	public String keywordInContext(int packedID, int width, String... words)
+	{
+		String text = getVerseText(packedID);
+		StringBuilder result;
+		char[] chars, cleaned;
+		String[] lowerWords = new String[words.length];
+		int tokenStart, tokenEnd, coreStart, coreEnd, length, firstHit = -1, firstHitEnd = -1, from, to;
+		boolean hit;
+
+		if (text == null)
+		{
+			return null;
+		} // if
+		for (int i = 0; i < words.length; i++)
+		{
+			// Cleaned like the verse's own tokens; null if nothing is left.
+			cleaned = new char[words[i].length()];
+			length = cleanWord(words[i].toCharArray(), 0, words[i].length(), cleaned);
+			lowerWords[i] = length > 0 ? new String(cleaned, 0, length) : null;
+		} // for
+
+		chars = text.toCharArray();
+		cleaned = new char[chars.length];
+		result = new StringBuilder(chars.length + 8);
+		tokenStart = 0;
+		while (tokenStart < chars.length)
+		{
+			tokenEnd = tokenStart;
+			while (tokenEnd < chars.length && chars[tokenEnd] != ' ')
+			{
+				tokenEnd++;
+			} // while
+
+			length = cleanWord(chars, tokenStart, tokenEnd, cleaned);
+			hit = false;
+			for (int i = 0; i < lowerWords.length && length > 0 && !hit; i++)
+			{
+				hit = lowerWords[i] != null && lowerWords[i].length() == length && lowerWords[i].contentEquals(CharBuffer.wrap(cleaned, 0, length));
+			} // for
+
+			if (hit)
+			{
+				// Brackets go around the token less any punctuation at either end.
+				coreStart = tokenStart;
+				coreEnd = tokenEnd;
+				while (coreStart < coreEnd && isPunctuation(chars[coreStart]))
+				{
+					coreStart++;
+				} // while
+				while (coreEnd > coreStart && isPunctuation(chars[coreEnd - 1]))
+				{
+					coreEnd--;
+				} // while
+				result.append(chars, tokenStart, coreStart - tokenStart).append('[');
+				if (firstHit < 0)
+				{
+					firstHit = result.length() - 1;
+				} // if
+				result.append(chars, coreStart, coreEnd - coreStart).append(']');
+				if (firstHitEnd < 0)
+				{
+					firstHitEnd = result.length();
+				} // if
+				result.append(chars, coreEnd, tokenEnd - coreEnd);
+			} // if
+			else
+			{
+				result.append(chars, tokenStart, tokenEnd - tokenStart);
+			} // else
+
+			while (tokenEnd < chars.length && chars[tokenEnd] == ' ')
+			{
+				result.append(' ');
+				tokenEnd++;
+			} // while
+			tokenStart = tokenEnd;
+		} // while
+
+		if (width <= 0 || result.length() <= width)
+		{
+			return result.toString();
+		} // if
+
+		// Centres the window on the first occurrence, then widens it to whole words.
+		if (firstHit < 0)
+		{
+			firstHit = firstHitEnd = 0;
+		} // if
+		from = Math.max(0, firstHit - Math.max(0, width - (firstHitEnd - firstHit)) / 2);
+		to = Math.min(result.length(), from + Math.max(width, firstHitEnd - firstHit));
+		from = Math.max(0, Math.min(from, to - width));
+		while (from > 0 && result.charAt(from - 1) != ' ')
+		{
+			from--;
+		} // while
+		while (to < result.length() && result.charAt(to) != ' ')
+		{
+			to++;
+		} // while
+		return (from > 0 ? "..." : "") + result.substring(from, to).trim() + (to < result.length() ? "..." : "");
+	} // keywordInContext(int,int,String...)
+	//-------------------------------------------------------------------------
+	/**
+	 * Like formatIDs(int), but each reference is followed by its verse with
+	 * the word in [brackets] (see keywordInContext).
+	 *
+	 * @param  index  hash table index
+	 * @param  width  characters of context per verse, or 0 for whole verses
+	 * @return  one "Book C:V  context" String per reference, or null if the slot is empty
+	 */
+	public String[] formatContexts(int index, int width)
+	{
+		HashEntry entry;
+		PostingIterator iterator;
+		String[] contexts;
+		int packedID;
+
+		if (index == -1 || table[index] == null)
+		{
+			return null;
+		} // if
+		entry = table[index];
+		iterator = entry.iterator();
+		contexts = new String[entry.size()];
+		for (int i = 0; i < contexts.length; i++)
+		{
+			packedID = iterator.next();
+			contexts[i] = formatReference(packedID) + "  " + keywordInContext(packedID, width, entry.getKey());
+		} // for
+		return contexts;
+	} // formatContexts(int,int)
+	//-------------------------------------------------------------------------
+	/**
+	 * Like formatReferences(int[]), but each reference is followed by its
+	 * verse with the given words in [brackets] (see keywordInContext).
+	 *
+	 * @param  packedIDs  packed IDs, e.g. the result of query(String)
+	 * @param  width      characters of context per verse, or 0 for whole verses
+	 * @param  words      the words to highlight
+	 * @return  one "Book C:V  context" String per packed ID
+	 */
+	public String[] formatContexts(int[] packedIDs, int width, String... words)
+	{
+		String[] contexts = new String[packedIDs.length];
+
+		for (int i = 0; i < packedIDs.length; i++)
+		{
+			contexts[i] = formatReference(packedIDs[i]) + "  " + keywordInContext(packedIDs[i], width, words);
+		} // for
+		return contexts;
+	} // formatContexts(int[],int,String...)
+	//-------------------------------------------------------------------------
+	/**
+	 * Runs a boolean query such as "goat AND sin NOT ram" (see BooleanQuery)
+	 * and returns the verses that match it.
+	 *
+	 * @param  query  words combined with AND, OR and NOT
+	 * @return  matching verses as packed IDs, in canonical order
+	 */
+	public int[] query(String query) throws ConcordanceException
+	{
+		QueryEvent event = startQuery("query", query);
+		long startNanos = System.nanoTime();
+		int[] result = new BooleanQuery(query).evaluate(this);
+
+		finishQuery(event, startNanos, result.length);
+		return result;
+	} // query(String)
+	//-------------------------------------------------------------------------
+	/**
+	 * Finds the verses containing the exact phrase, e.g. "let there be light"
+	 * (see PhraseQuery).  Requires a concordance built with a positional index.
+	 *
+	 * @param  phrase  words separated by spaces
+	 * @return  matching verses as packed IDs, in canonical order
+	 */
+	public int[] phraseSearch(String phrase) throws ConcordanceException
+	{
+		QueryEvent event = startQuery("phrase", phrase);
+		long startNanos = System.nanoTime();
+		int[] result = new PhraseQuery(phrase).evaluate(this);
+
+		finishQuery(event, startNanos, result.length);
+		return result;
+	} // phraseSearch(String)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the k verses most relevant to a list of words, best first,
+	 * ranked by BM25 (see RankedQuery), e.g. "love thy neighbour".  Unlike
+	 * query(), a verse need not contain every word.
+	 *
+	 * @param  text  words separated by spaces
+	 * @param  k     number of verses wanted
+	 */
+	public ScoredVerse[] rankedSearch(String text, int k) throws ConcordanceException
+	{
+		QueryEvent event = startQuery("ranked", text);
+		long startNanos = System.nanoTime();
+		ScoredVerse[] result = new RankedQuery(text).evaluate(this, k);
+
+		finishQuery(event, startNanos, result.length);
+		return result;
+	} // rankedSearch(String,int)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the words matching a pattern such as "sanctif*", "*eth" or
+	 * "b?g*t", with their number of references, in alphabetical order.
+	 * '*' matches any run of characters and '?' any single character (see
+	 * TermDictionary).
+	 *
+	 * @param  pattern  word with wildcards
+	 * @return  the matching words (empty if there are none)
+	 */
+	public TermMatch[] matchTerms(String pattern)
+	{
+		int[] matches = dictionary.match(pattern);
+		TermMatch[] result = new TermMatch[matches.length];
+
+		for (int i = 0; i < matches.length; i++)
+		{
+			result[i] = new TermMatch(dictionary.getTerm(matches[i]), dictionary.getEntry(matches[i]).size(), 0);
+		} // for
+		return result;
+	} // matchTerms(String)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns every verse containing any word that matches pattern (see
+	 * matchTerms), as packed IDs in canonical order.
+	 */
+	public int[] wildcardSearch(String pattern)
+	{
+		QueryEvent event = startQuery("wildcard", pattern);
+		long startNanos = System.nanoTime();
+		int[] matches = dictionary.match(pattern);
+		int[] merged;
+		int total = 0, count = 0;
+		PostingIterator iterator;
+
+		for (int m : matches)
+		{
+			total += dictionary.getEntry(m).size();
+		} // for
+		merged = new int[total];
+		for (int m : matches)
+		{
+			iterator = dictionary.getEntry(m).iterator();
+			while (iterator.hasNext())
+			{
+				merged[count++] = iterator.next();
+			} // while
+		} // for
+
+		// Sort and drop the verses that contain more than one of the words.
+		Arrays.sort(merged);
+		count = 0;
+		for (int i = 0; i < merged.length; i++)
+		{
+			if (i == 0 || merged[i] != merged[i - 1])
+			{
+				merged[count++] = merged[i];
+			} // if
+		} // for
+		finishQuery(event, startNanos, count);
+		return Arrays.copyOf(merged, count);
+	} // wildcardSearch(String)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the words within maxDistance edits (insertions, deletions or
+	 * substitutions) of word, closest first and, at equal distance, most
+	 * frequent first.  Intended for "did you mean" suggestions when search()
+	 * finds nothing; the dictionary is searched with a Levenshtein automaton
+	 * (see TermDictionary.fuzzyMatch), not by comparing word with every key.
+	 *
+	 * @param  word         the word as typed
+	 * @param  maxDistance  largest edit distance to accept (normally 1 or 2;
+	 *                      at most MAX_FUZZY_DISTANCE is used)
+	 * @param  limit        maximum number of suggestions to return
+	 * @return  the suggestions (empty if word is not a valid word, limit is
+	 *          not positive, or none are close)
+	 */
+	public TermMatch[] fuzzySearch(String word, int maxDistance, int limit)
+	{
+		String lowerWord = customToLowerCase(word);
+		int[] distances, matches;
+		ArrayList<TermMatch> found = new ArrayList<TermMatch>();
+		QueryEvent event = startQuery("fuzzy", word);
+		long startNanos = System.nanoTime();
+
+		if (lowerWord == null || lowerWord.equals("") || maxDistance < 0 || limit <= 0)
+		{
+			finishQuery(event, startNanos, 0);
+			return new TermMatch[0];
+		} // if
+
+		// Each automaton step fills a band 2*maxDistance+1 wide, and beyond
+		// a few edits nearly every short word would match anyway.
+		distances = new int[dictionary.size()];
+		matches = dictionary.fuzzyMatch(new LevenshteinAutomaton(lowerWord, Math.min(maxDistance, MAX_FUZZY_DISTANCE)), distances);
+		for (int m : matches)
+		{
+			found.add(new TermMatch(dictionary.getTerm(m), dictionary.getEntry(m).size(), distances[m]));
+		} // for
+		found.sort((a, b) -> a.getDistance() != b.getDistance() ? a.getDistance() - b.getDistance()
+				: a.getCount() != b.getCount() ? b.getCount() - a.getCount() : a.getTerm().compareTo(b.getTerm()));
+
+		finishQuery(event, startNanos, Math.min(limit, found.size()));
+		return found.subList(0, Math.min(limit, found.size())).toArray(new TermMatch[0]);
+	} // fuzzySearch(String,int,int)
+	//-------------------------------------------------------------------------
+	/**
+	 * Begins the Flight Recorder event for a query (see QueryEvent).
+	 */
+	private static QueryEvent startQuery(String kind, String text)
+	{
+		QueryEvent event = new QueryEvent();
+		event.kind = kind;
+		event.text = text;
+		event.begin();
+		return event;
+	} // startQuery(String,String)
+	//-------------------------------------------------------------------------
+	/**
+	 * Records a query's latency in the metrics and commits its event.
+	 */
+	private void finishQuery(QueryEvent event, long startNanos, int results)
+	{
+		metrics.recordQuery(System.nanoTime() - startNanos);
+		event.end();
+		if (event.shouldCommit())
+		{
+			event.results = results;
+			event.commit();
+		} // if
+	} // finishQuery(QueryEvent,long,int)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the table, build and query measurements of this concordance,
+	 * which can also be published through JMX (see ConcordanceMetrics).
+	 */
+	public ConcordanceMetrics getMetrics()
+	{
+		return metrics;
+	} // getMetrics()
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the load factor at which the table doubles.
+	 */
+	public double getMaxLoadFactor()
+	{
+		return loadFactor;
+	} // getMaxLoadFactor()
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns, for n = 0, 1, ..., the number of keys found n probes after
+	 * their home slot; counts for n >= buckets-1 are added to the last
+	 * element.  With buckets = Integer.MAX_VALUE the array ends at the
+	 * longest probe sequence.
+	 */
+	long[] probeLengthHistogram(int buckets)
+	{
+		long[] counts = new long[16];
+		int mask = tableSize - 1, longest = -1, index, probes;
+
+		for (int i = 0; i < tableSize; i++)
+		{
+			if (table[i] != null)
+			{
+				index = keyHashes[i] & mask;
+				probes = 0;
+				while (index != i)
+				{
+					probes++;
+					index = (index + probes) & mask;
+				} // while
+
+				probes = Math.min(probes, buckets - 1);
+				if (probes >= counts.length)
+				{
+					counts = Arrays.copyOf(counts, Math.max(counts.length * 2, probes + 1));
+				} // if
+				counts[probes]++;
+				longest = Math.max(longest, probes);
+			} // if
+		} // for
+		return Arrays.copyOf(counts, buckets == Integer.MAX_VALUE ? longest + 1 : buckets);
+	} // probeLengthHistogram(int)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the length of the longest run of occupied slots, wrapping
+	 * around the end of the table.
+	 */
+	int longestCluster()
+	{
+		int longest = 0, run = 0;
+
+		// Two passes so that a run wrapping past the end is counted whole.
+		for (int i = 0; i < 2 * tableSize && longest < tableSize; i++)
+		{
+			run = table[i & (tableSize - 1)] == null ? 0 : run + 1;
+			longest = Math.max(longest, Math.min(run, tableSize));
+		} // for
+		return longest;
+	} // longestCluster()
+	//-------------------------------------------------------------------------
+	/**
+	 * Computes word frequencies per book and collocations (see
+	 * CorpusStatistics) with one pass over the posting lists, keeps them for
+	 * getStatistics() and returns them.  Done by the constructor when
+	 * BuildOptions.setStatistics(true) is given; call it after load() to
+	 * get statistics for a snapshot.
+	 *
+	 * @param  topTerms  number of commonest words whose collocations are precomputed
+	 */
+	public CorpusStatistics computeStatistics(int topTerms)
+	{
+		long startNanos = System.nanoTime();
+
+		statistics = new CorpusStatistics(dictionary, verses, allBookNames.size(), topTerms);
+		staleTopTerms = 0;
+		out.printf("Statistics computed in %.1f ms%n", (System.nanoTime() - startNanos) / 1e6);
+		return statistics;
+	} // computeStatistics(int)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the statistics from computeStatistics(), or null if they have
+	 * not been computed.  Statistics dropped by append() are recomputed
+	 * here, on the first call after it.
+	 */
+	public synchronized CorpusStatistics getStatistics()
+	{
+		if (statistics == null && staleTopTerms > 0)
+		{
+			computeStatistics(staleTopTerms);
+		} // if
+		return statistics;
+	} // getStatistics()
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the bytes used by all entries' references (see
+	 * HashEntry.getPostingBytes).
+	 */
+	long postingBytes()
+	{
+		long bytes = 0;
+
+		for (int i = 0; i < tableSize; i++)
+		{
+			if (table[i] != null)
+			{
+				bytes += table[i].getPostingBytes();
+			} // if
+		} // for
+		return bytes;
+	} // postingBytes()
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the sorted term dictionary built at the end of the build.
+	 */
+	TermDictionary getDictionary()
+	{
+		return dictionary;
+	} // getDictionary()
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns true if word positions were recorded, so phraseSearch() works.
+	 */
+	public boolean hasPositionalIndex()
+	{
+		return positionalIndex;
+	} // hasPositionalIndex()
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the verse text store, with each verse's number of words.
+	 */
+	VerseStore getVerseStore()
+	{
+		return verses;
+	} // getVerseStore()
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the table entry for word, or null if it is not in the concordance.
+	 */
+	HashEntry lookup(String word)
+	{
+		int index = search(word);
+
+		if (index == -1)
+		{
+			return null;
+		} // if
+		return table[index];
+	} // lookup(String)
+	//-------------------------------------------------------------------------
+	/**
+	 * Writes this concordance to a compact binary snapshot that load() can
+	 * open without re-reading the text or rebuilding anything.  The snapshot
+	 * holds, in order:
+	 *
+	 *   - the counters and the book names;
+	 *   - the verse text store (see VerseStore.write);
+	 *   - the keys, as the bytes of the TermArena;
+	 *   - a directory of 16 ints per table entry: its slot, key offset, key
+	 *     hash, number of references, largest occurrence count, flags (1:
+	 *     compressed, 2: has positions) and the offset and length in the
+	 *     data section of its references, skip table, occurrence counts,
+	 *     positions and position skip table;
+	 *   - the table slots of the words in sorted order, and the sorted
+	 *     positions of the words in order of their spelling backwards (see
+	 *     TermDictionary);
+	 *   - the data section, with each block as the entry holds it: the
+	 *     compressed gaps (or packed references, for an entry that could not
+	 *     be compressed) and the other buffers byte for byte.
+	 *
+	 * Sections and int blocks start at multiples of 4.  All values are
+	 * big-endian.
+	 *
+	 * @param  snapshotFile  file to create (overwritten if it exists)
+	 */
+	public void save(File snapshotFile) throws IOException
+	{
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(snapshotFile), 1 << 16));
+		IdentityHashMap<HashEntry, Integer> slots = new IdentityHashMap<HashEntry, Integer>();
+		int[] directory = new int[SNAPSHOT_DIRECTORY_INTS * distinctWordCounter];
+		int count = 0, dataLength = 0, d;
+		HashEntry entry;
+		PostingIterator iterator;
+
+		// The directory is laid out first, so every data offset is known before writing.
+		for (int i = 0; i < tableSize; i++)
+		{
+			entry = table[i];
+			if (entry != null)
+			{
+				if (entry.hasPositions())
+				{
+					entry.indexPositions();
+				} // if
+				slots.put(entry, i);
+				d = SNAPSHOT_DIRECTORY_INTS * count++;
+				directory[d] = i;
+				directory[d + 1] = keyOffsets[i];
+				directory[d + 2] = keyHashes[i];
+				directory[d + 3] = entry.size();
+				directory[d + 4] = entry.getMaxFrequency();
+				directory[d + 5] = (entry.getPostingGaps() != null ? 1 : 0) | (entry.hasPositions() ? 2 : 0);
+				dataLength = layOut(directory, d + 6, dataLength, entry.getPostingGaps() != null ? entry.getPostingGaps().capacity() : 4 * entry.size());
+				dataLength = layOut(directory, d + 8, dataLength, entry.getPostingGaps() != null ? 4 * entry.getPostingSkips().capacity() : 0);
+				dataLength = layOut(directory, d + 10, dataLength, entry.getFrequencies() != null ? entry.getFrequencies().capacity() : 0);
+				dataLength = layOut(directory, d + 12, dataLength, entry.hasPositions() ? entry.getPositionsLength() : 0);
+				dataLength = layOut(directory, d + 14, dataLength, entry.hasPositions() ? 4 * entry.getPositionSkips().capacity() : 0);
+			} // if
+		} // for
+
+		try
+		{
+			output.writeInt(SNAPSHOT_MAGIC);
+			output.writeInt(SNAPSHOT_VERSION);
+			output.writeInt(tableSize);
+			output.writeDouble(loadFactor);
+			output.writeInt(wordCounter);
+			output.writeInt(distinctWordCounter);
+			output.writeInt(verseCounter);
+			output.writeInt(chapterCounter);
+			output.writeBoolean(positionalIndex);
+
+			output.writeInt(allBookNames.size());
+			for (String bookName : allBookNames)
+			{
+				writeSnapshotString(output, bookName.getBytes(StandardCharsets.UTF_8));
+			} // for
+
+			verses.write(output);
+			pad(output);
+			output.writeInt(keys.size());
+			keys.write(output);
+			pad(output);
+
+			for (int value : directory)
+			{
+				output.writeInt(value);
+			} // for
+			for (int i = 0; i < distinctWordCounter; i++)
+			{
+				output.writeInt(slots.get(dictionary.getEntry(i)));
+			} // for
+			for (int i = 0; i < distinctWordCounter; i++)
+			{
+				output.writeInt(dictionary.getReversedOrdinal(i));
+			} // for
+
+			output.writeInt(dataLength);
+			for (int i = 0; i < distinctWordCounter; i++)
+			{
+				entry = table[directory[SNAPSHOT_DIRECTORY_INTS * i]];
+				if (entry.getPostingGaps() != null)
+				{
+					writeSnapshotBytes(output, entry.getPostingGaps(), entry.getPostingGaps().capacity());
+					writeSnapshotInts(output, entry.getPostingSkips());
+				} // if
+				else
+				{
+					iterator = entry.iterator();
+					for (int j = 0; j < entry.size(); j++)
+					{
+						output.writeInt(iterator.next());
+					} // for
+				} // else
+				if (entry.getFrequencies() != null)
+				{
+					writeSnapshotBytes(output, entry.getFrequencies(), entry.getFrequencies().capacity());
+				} // if
+				if (entry.hasPositions())
+				{
+					writeSnapshotBytes(output, entry.getPositionStream(), entry.getPositionsLength());
+					writeSnapshotInts(output, entry.getPositionSkips());
+				} // if
+			} // for
+		} // try
+		finally
+		{
+			output.close();
+		} // finally
+	} // save(File)
+	//-------------------------------------------------------------------------
+	/**
+	 * Records a block of length bytes at dataLength in directory[d] and
+	 * directory[d+1], and returns where the next block starts (rounded up
+	 * to a multiple of 4, as writeSnapshotBytes pads).
+	 */
+	private static int layOut(int[] directory, int d, int dataLength, int length)
+	{
+		directory[d] = dataLength;
+		directory[d + 1] = length;
+		return dataLength + ((length + 3) & ~3);
+	} // layOut(int[],int,int,int)
+	//-------------------------------------------------------------------------
+	private static void writeSnapshotString(DataOutputStream output, byte[] bytes) throws IOException
+	{
+		output.writeShort(bytes.length);
+		output.write(bytes);
+	} // writeSnapshotString(DataOutputStream,byte[])
+	//-------------------------------------------------------------------------
+	/**
+	 * Writes buffer[0...length-1], then pads to a multiple of 4 bytes.
+	 */
+	private static void writeSnapshotBytes(DataOutputStream output, ByteBuffer buffer, int length) throws IOException
+	{
+		byte[] bytes;
+
+		if (buffer.hasArray())
+		{
+			output.write(buffer.array(), buffer.arrayOffset(), length);
+		} // if
+		else
+		{
+			bytes = new byte[length];
+			buffer.get(0, bytes);
+			output.write(bytes);
+		} // else
+		pad(output);
+	} // writeSnapshotBytes(DataOutputStream,ByteBuffer,int)
+	//-------------------------------------------------------------------------
+	private static void writeSnapshotInts(DataOutputStream output, IntBuffer buffer) throws IOException
+	{
+		for (int i = 0; i < buffer.capacity(); i++)
+		{
+			output.writeInt(buffer.get(i));
+		} // for
+	} // writeSnapshotInts(DataOutputStream,IntBuffer)
+	//-------------------------------------------------------------------------
+	/**
+	 * Pads output with zeros to a multiple of 4 bytes.
+	 */
+	private static void pad(DataOutputStream output) throws IOException
+	{
+		while (output.size() % 4 != 0)
+		{
+			output.write(0);
+		} // while
+	} // pad(DataOutputStream)
+	//-------------------------------------------------------------------------
+	/**
+	 * Opens a snapshot written by save().  The file is memory-mapped and
+	 * nothing in it is copied, decompressed or rebuilt: the keys, the
+	 * compressed references and their skip tables, the occurrence counts,
+	 * the positions, the dictionary orders and the verse texts are all read
+	 * in place, through slices of the mapping.  Each entry goes straight back
+	 * into its table slot with its saved key offset and hash.  Only an entry
+	 * that could not be compressed (see HashEntry.compress) is copied to the
+	 * heap, as it is kept there when built.
+	 *
+	 * Every offset and length in the file is checked against the sections
+	 * it points into, and every entry's streams are walked once (see
+	 * HashEntry.isConsistent), so a truncated or corrupt snapshot raises a
+	 * ConcordanceException here rather than a failure at query time.  The
+	 * keys and the sorted order are not decoded, so damage to them shows up
+	 * only as words not being found.
+	 *
+	 * @param  snapshotFile  file written by save()
+	 * @param  outPS         stream for progress messages
+	 * @return the concordance stored in the snapshot
+	 */
+	public static Concordance load(File snapshotFile, PrintStream outPS) throws FileNotFoundException, ConcordanceException
+	{
+		Concordance concordance = new Concordance(DEFAULT_LOAD_FACTOR, false, outPS);
+		MappedByteBuffer buffer = concordance.mapFile(new RandomAccessFile(snapshotFile, "r"));
+		int bookCount, distinct, length, d, slot, count, flags, ordinal;
+		int[] postings;
+		IntBuffer directory, sortedSlots, reversedOrdinals;
+		ByteBuffer data, block;
+		HashEntry entry;
+		boolean[] seen;
+
+		try
+		{
+			if (buffer.getInt() != SNAPSHOT_MAGIC)
+			{
+				throw new ConcordanceException("Inside load -- " + snapshotFile + " is not a concordance snapshot");
+			} // if
+			if (buffer.getInt() != SNAPSHOT_VERSION)
+			{
+				throw new ConcordanceException("Inside load -- unsupported snapshot version in " + snapshotFile);
+			} // if
+
+			concordance.tableSize = buffer.getInt();
+			concordance.loadFactor = buffer.getDouble();
+			if (concordance.tableSize <= 0 || Integer.bitCount(concordance.tableSize) != 1 || !(concordance.loadFactor > 0.0 && concordance.loadFactor < 1.0))
+			{
+				throw new ConcordanceException("Inside load -- corrupt header in " + snapshotFile);
+			} // if
+			concordance.table = new HashEntry[concordance.tableSize];
+			concordance.keyOffsets = new int[concordance.tableSize];
+			concordance.keyHashes = new int[concordance.tableSize];
+			concordance.resizeThreshold = (int) (concordance.tableSize * concordance.loadFactor);
+			concordance.wordCounter = buffer.getInt();
+			concordance.distinctWordCounter = distinct = buffer.getInt();
+			concordance.verseCounter = buffer.getInt();
+			concordance.chapterCounter = buffer.getInt();
+			concordance.positionalIndex = buffer.get() != 0;
+			if (distinct < 0 || distinct >= concordance.tableSize)
+			{
+				throw new ConcordanceException("Inside load -- corrupt header in " + snapshotFile);
+			} // if
+
+			bookCount = buffer.getInt();
+			for (int i = 0; i < bookCount; i++)
+			{
+				concordance.allBookNames.add(readSnapshotString(buffer));
+			} // for
+			concordance.bookNum = (short) bookCount;
+
+			concordance.verses = VerseStore.read(buffer);
+			align(buffer);
+			length = buffer.getInt();
+			concordance.keys = new TermArena(buffer.slice(buffer.position(), length));
+			buffer.position(buffer.position() + length);
+			align(buffer);
+
+			directory = buffer.slice(buffer.position(), 4 * SNAPSHOT_DIRECTORY_INTS * distinct).asIntBuffer();
+			buffer.position(buffer.position() + 4 * SNAPSHOT_DIRECTORY_INTS * distinct);
+			sortedSlots = buffer.slice(buffer.position(), 4 * distinct).asIntBuffer();
+			buffer.position(buffer.position() + 4 * distinct);
+			reversedOrdinals = buffer.slice(buffer.position(), 4 * distinct).asIntBuffer();
+			buffer.position(buffer.position() + 4 * distinct);
+			length = buffer.getInt();
+			data = buffer.slice(buffer.position(), length);
+
+			for (int i = 0; i < distinct; i++)
+			{
+				d = SNAPSHOT_DIRECTORY_INTS * i;
+				slot = directory.get(d);
+				count = directory.get(d + 3);
+				flags = directory.get(d + 5);
+				if (slot < 0 || slot >= concordance.tableSize || concordance.table[slot] != null
+						|| directory.get(d + 1) < 0 || directory.get(d + 1) >= concordance.keys.size()
+						|| count < 1 || directory.get(d + 4) < 1 || directory.get(d + 4) > 256 || (flags & ~3) != 0
+						|| (directory.get(d + 6) & 3) != 0 || (directory.get(d + 8) & 3) != 0 || (directory.get(d + 9) & 3) != 0
+						|| (directory.get(d + 14) & 3) != 0 || (directory.get(d + 15) & 3) != 0)
+				{
+					throw new ConcordanceException("Inside load -- corrupt entry " + i + " in " + snapshotFile);
+				} // if
+
+				if ((flags & 1) != 0)
+				{
+					entry = new HashEntry(concordance.keys, directory.get(d + 1), count, dataBlock(data, directory, d + 6),
+							dataBlock(data, directory, d + 8).asIntBuffer(), concordance.verses);
+				} // if
+				else
+				{
+					block = dataBlock(data, directory, d + 6);
+					if (block.capacity() != 4 * count || directory.get(d + 9) != 0)
+					{
+						throw new ConcordanceException("Inside load -- corrupt entry " + i + " in " + snapshotFile);
+					} // if
+					postings = new int[count];
+					block.asIntBuffer().get(postings);
+					entry = new HashEntry(concordance.keys, directory.get(d + 1), postings, count);
+				} // else
+
+				block = dataBlock(data, directory, d + 10);
+				if (block.capacity() > 0 && (flags & 1) == 0)
+				{
+					block = heapCopy(block);
+				} // if
+				entry.setFrequencies(block.capacity() > 0 ? block : null, directory.get(d + 4));
+				if ((flags & 2) != 0)
+				{
+					block = dataBlock(data, directory, d + 12);
+					entry.setPositions((flags & 1) != 0 ? block : heapCopy(block), dataBlock(data, directory, d + 14).asIntBuffer());
+				} // if
+
+				if (!entry.isConsistent())
+				{
+					throw new ConcordanceException("Inside load -- corrupt references of entry " + i + " in " + snapshotFile);
+				} // if
+				concordance.table[slot] = entry;
+				concordance.keyOffsets[slot] = directory.get(d + 1);
+				concordance.keyHashes[slot] = directory.get(d + 2);
+			} // for
+
+			// Both orders must be permutations, so every lookup stays in range.
+			seen = new boolean[concordance.tableSize];
+			for (int i = 0; i < distinct; i++)
+			{
+				slot = sortedSlots.get(i);
+				if (slot < 0 || slot >= concordance.tableSize || concordance.table[slot] == null || seen[slot])
+				{
+					throw new ConcordanceException("Inside load -- corrupt dictionary in " + snapshotFile);
+				} // if
+				seen[slot] = true;
+			} // for
+			seen = new boolean[distinct];
+			for (int i = 0; i < distinct; i++)
+			{
+				ordinal = reversedOrdinals.get(i);
+				if (ordinal < 0 || ordinal >= distinct || seen[ordinal])
+				{
+					throw new ConcordanceException("Inside load -- corrupt dictionary in " + snapshotFile);
+				} // if
+				seen[ordinal] = true;
+			} // for
+			concordance.dictionary = new TermDictionary(concordance.table, sortedSlots, reversedOrdinals);
+		} // try
+		catch(BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e)
+		{
+			throw new ConcordanceException("Inside load -- " + snapshotFile + " is truncated or corrupt");
+		} // catch
+
+		outPS.println("Loaded concordance snapshot " + snapshotFile);
+		concordance.printTotals();
+		return concordance;
+	} // load(File,PrintStream)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the slice of data at the offset and length in
+	 * directory[d] and directory[d+1].
+	 */
+	private static ByteBuffer dataBlock(ByteBuffer data, IntBuffer directory, int d)
+	{
+		return data.slice(directory.get(d), directory.get(d + 1));
+	} // dataBlock(ByteBuffer,IntBuffer,int)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns a writable heap copy of buffer.
+	 */
+	private static ByteBuffer heapCopy(ByteBuffer buffer)
+	{
+		return ByteBuffer.allocate(buffer.capacity()).put(0, buffer, 0, buffer.capacity());
+	} // heapCopy(ByteBuffer)
+	//-------------------------------------------------------------------------
+	/**
+	 * Moves buffer's position up to a multiple of 4 (see save).
+	 */
+	private static void align(ByteBuffer buffer)
+	{
+		buffer.position((buffer.position() + 3) & ~3);
+	} // align(ByteBuffer)
+	//-------------------------------------------------------------------------
+	private static String readSnapshotString(ByteBuffer buffer)
+	{
+		byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	} // readSnapshotString(ByteBuffer)
+	//-------------------------------------------------------------------------
+	/**
+	 *  Reads in each line of the input file and processes it appropriately.
+	 */
+	private void buildConcordance() throws ConcordanceException
+	{
+		String currLine;
+		int length;
+
+		lineCounter = 0;
+		try
+		{
+			currLine = input.readLine();
+			while (currLine != null)
+			{
+				lineCounter++;
+				length = currLine.length();
+				if (lineBuffer.length < length)
+				{
+					lineBuffer = new char[Math.max(length, lineBuffer.length * 2)];
+				} // if
+				currLine.getChars(0, length, lineBuffer, 0);
+				processLine(lineBuffer, length);
+
+				currLine = input.readLine();
+			} // while
+
+			input.close();
+			finishBook();
+		} // try
+		catch(IOException ioe)
+		{
+			out.println("Inside buildConcordance() method in class Concordance (#5).");
+			out.println("An IOException has occurred.  This is NOT the fault of the programmer.");	
+			out.println("Terminating...");
+			throw new ConcordanceException("Inside buildConcordance -- format problem on line " + lineCounter);
+		} // catch(IOException)
+	} // buildConcordance()
+	//-------------------------------------------------------------------------
+	/**
+	 *  Same as buildConcordance(), but memory-maps the input file and splits it
+	 *  into lines directly from the mapped buffer, so no String is created per
+	 *  line and the platform charset decoder is bypassed.  Each byte is taken
+	 *  as one character, so the file must be ASCII, which is what kjv12.txt
+	 *  contains; any other byte is reported as a format problem on its line,
+	 *  since READER mode would decode it with the platform charset instead.
+	 *  Lines may end in "\n", "\r\n" or "\r", as with BufferedReader.readLine().
+	 */
+	private void buildConcordanceMapped(RandomAccessFile inFile) throws ConcordanceException
+	{
+		MappedByteBuffer buffer = mapFile(inFile);
+
+		lineCounter = 0;
+		parseMapped(buffer, 0, buffer.limit());
+	} // buildConcordanceMapped(RandomAccessFile)
+	//-------------------------------------------------------------------------
+	/**
+	 *  Same as buildConcordanceMapped(), but indexes the books in parallel.
+	 *  The mapped file is cut at each "Book NN" line, every region is indexed
+	 *  into its own partial Concordance on a ForkJoinPool, and the partial
+	 *  tables are then merged in book order.  Since each book's references
+	 *  all come after those of the books before it, appending the partial
+	 *  posting lists in that order keeps every list in canonical order, and
+	 *  the counters come out the same as for a serial build.
+	 */
+	private void buildConcordanceParallel(RandomAccessFile inFile) throws ConcordanceException
+	{
+		final MappedByteBuffer buffer = mapFile(inFile);
+		ArrayList<Integer> regionStarts = new ArrayList<Integer>();
+		ArrayList<Integer> regionLines = new ArrayList<Integer>();
+		ArrayList<Callable<Concordance>> tasks = new ArrayList<Callable<Concordance>>();
+		List<Future<Concordance>> results;
+		ForkJoinPool pool;
+		int limit = buffer.limit();
+		int lineStart = 0, lineEnd, lines = 0;
+		byte b;
+
+		//---------------------------------------------------------------
+		//----- Find the start (and line number) of every book header -----
+		//---------------------------------------------------------------
+		regionStarts.add(0);
+		regionLines.add(0);
+		while (lineStart < limit)
+		{
+			lineEnd = lineStart;
+			while (lineEnd < limit && (b = buffer.get(lineEnd)) != '\n' && b != '\r')
+			{
+				lineEnd++;
+			} // while
+			if (lineEnd - lineStart > 7 && buffer.get(lineStart) == 'B' && buffer.get(lineStart + 1) == 'o'
+					&& buffer.get(lineStart + 2) == 'o' && buffer.get(lineStart + 3) == 'k')
+			{
+				regionStarts.add(lineStart);
+				regionLines.add(lines);
+			} // if
+			lines++;
+			if (lineEnd < limit && buffer.get(lineEnd) == '\r' && lineEnd + 1 < limit && buffer.get(lineEnd + 1) == '\n')
+			{
+				lineEnd++;
+			} // if
+			lineStart = lineEnd + 1;
+		} // while
+		regionStarts.add(limit);
+
+		//---------------------------------------------------------------
+		//----- Index each region (region 0 is any text before Book 01) -----
+		//---------------------------------------------------------------
+		for (int r = 0; r + 1 < regionStarts.size(); r++)
+		{
+			final int start = regionStarts.get(r), end = regionStarts.get(r + 1);
+			final int firstLine = regionLines.get(r);
+			final short booksBefore = (short) (r == 0 ? 0 : r - 1);
+			if (start == end)
+			{
+				continue;
+			} // if
+			tasks.add(new Callable<Concordance>() {
+				public Concordance call() throws ConcordanceException
+				{
+					Concordance partial = new Concordance(loadFactor, positionalIndex, out);
+					partial.bookNum = booksBefore;
+					partial.lineCounter = firstLine;
+					partial.listener = listener;
+					partial.buildThread = buildThread;
+					partial.inputLength = inputLength;
+					partial.inputOffset = start;
+					partial.parseMapped(buffer, start, end);
+					return partial;
+				}
+			});
+		} // for
+
+		pool = new ForkJoinPool();
+		try
+		{
+			results = pool.invokeAll(tasks);
+			for (Future<Concordance> result : results)
+			{
+				merge(result.get());
+			} // for
+		} // try
+		catch(ExecutionException ee)
+		{
+			// Results are checked in book order, so this is the first problem in the file.
+			// The pool may wrap the task's exception more than once.
+			for (Throwable cause = ee.getCause(); cause != null; cause = cause.getCause())
+			{
+				if (cause instanceof ConcordanceException)
+				{
+					throw (ConcordanceException) cause;
 				} // if
 			} // for
+			throw new ConcordanceException("Inside buildConcordanceParallel -- " + ee.getCause());
+		} // catch(ExecutionException)
+		catch(InterruptedException ie)
+		{
+			Thread.currentThread().interrupt();
+			throw new ConcordanceException("Inside buildConcordanceParallel -- interrupted");
+		} // catch(InterruptedException)
+		finally
+		{
+			pool.shutdown();
+		} // finally
+	} // buildConcordanceParallel(RandomAccessFile)
+	//-------------------------------------------------------------------------
+	/**
+	 *  Appends a partial concordance covering the books that follow the ones
+	 *  already indexed here.
+	 */
+	private void merge(Concordance partial)
+	{
+		HashEntry entry;
+		String key;
+		int index;
+
+		allBookNames.addAll(partial.allBookNames);
+		wordCounter += partial.wordCounter;
+		verseCounter += partial.verseCounter;
+		chapterCounter += partial.chapterCounter;
+		bookNum = partial.bookNum;
+		verses.append(partial.verses);
+		metrics.add(partial.metrics);
+
+		for (int i = 0; i < partial.tableSize; i++)
+		{
+			entry = partial.table[i];
+			if (entry != null)
+			{
+				// Probes with the cached hash; search(String) would count each probe as a user lookup.
+				key = entry.getKey();
+				index = search(key.toCharArray(), key.length(), partial.keyHashes[i]);
+				if (index == -1)
+				{
+					metrics.recordFailedInsert();
+				} // if
+				else if (table[index] == null)
+				{
+					// The partial is discarded afterwards, so its entry can be taken over, with its key moved here.
+					keyOffsets[index] = keys.add(key);
+					keyHashes[index] = partial.keyHashes[i];
+					entry.setKey(keys, keyOffsets[index]);
+					table[index] = entry;
+					distinctWordCounter++;
+					if (distinctWordCounter > resizeThreshold)
+					{
+						rehash();
+					} // if
+				} // if
+				else
+				{
+					table[index].addPostings(entry);
+				} // else
+			} // if
+		} // for
+	} // merge(Concordance)
+	//-------------------------------------------------------------------------
+	/**
+	 *  Maps the whole input file read-only and closes it.
+	 */
+	private MappedByteBuffer mapFile(RandomAccessFile inFile) throws ConcordanceException
+	{
+		MappedByteBuffer buffer;
+
+		try
+		{
+			FileChannel channel = inFile.getChannel();
+			if (channel.size() > Integer.MAX_VALUE)
+			{
+				throw new ConcordanceException("Inside mapFile -- file is too large to map (" + channel.size() + " bytes)");
+			} // if
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} // try
+		catch(IOException ioe)
+		{
+			out.println("Inside mapFile() method in class Concordance (#5).");
+			out.println("An IOException has occurred.  This is NOT the fault of the programmer.");	
+			out.println("Terminating...");
+			throw new ConcordanceException("Inside mapFile -- unable to map input file: " + ioe.getMessage());
+		} // catch(IOException)
+		finally
+		{
+			// The mapping stays valid after the channel is closed.
+			try
+			{
+				inFile.close();
+			} // try
+			catch(IOException ioe)
+			{
+			} // catch(IOException)
+		} // finally
+
+		return buffer;
+	} // mapFile(RandomAccessFile)
+	//-------------------------------------------------------------------------
+	/**
+	 *  Processes the lines in buffer[start...end-1], continuing the line count
+	 *  and book/chapter/verse numbering from the current state.
+	 */
+	private void parseMapped(ByteBuffer buffer, int start, int end) throws ConcordanceException
+	{
+		int lineStart, lineEnd;
+		byte b;
+
+		lineStart = start;
+		while (lineStart < end)
+		{
+			lineCounter++;
+
+			// Decodes bytes into lineBuffer up to the end of the line.
+			lineEnd = lineStart;
+			while (lineEnd < end)
+			{
+				b = buffer.get(lineEnd);
+				if (b == '\n' || b == '\r')
+				{
+					break;
+				} // if
+				if (b < 0)
+				{
+					out.println("Inside buildConcordanceMapped() method in class Concordance.");
+					out.println("Non-ASCII byte on line " + lineCounter);
+					out.println("Terminating...");
+					throw new ConcordanceException("Inside buildConcordanceMapped -- non-ASCII byte on line " + lineCounter + " (use IngestMode.READER for other encodings)");
+				} // if
+				if (lineEnd - lineStart == lineBuffer.length)
+				{
+					lineBuffer = Arrays.copyOf(lineBuffer, lineBuffer.length * 2);
+				} // if
+				lineBuffer[lineEnd - lineStart] = (char) (b & 0xFF);
+				lineEnd++;
+			} // while
 
-			//--------------------------------------
-			//----- Remove "--" at end of word -----
-			//--------------------------------------
-			newWordLength = newWord.length();
-			if (newWordLength > 2 && newWord.substring(newWordLength-2).equals("--"))
+			processLine(lineBuffer, lineEnd - lineStart);
+
+			// Skips the line terminator, treating "\r\n" as one.
+			if (lineEnd < end && buffer.get(lineEnd) == '\r' && lineEnd + 1 < end && buffer.get(lineEnd + 1) == '\n')
 			{
-				newWord = newWord.substring(0, newWordLength-2);
+				lineEnd++;
 			} // if
+			lineStart = lineEnd + 1;
+		} // while
+		finishBook();
+	} // parseMapped(ByteBuffer,int,int)
+	//-------------------------------------------------------------------------
+	/**
+	 *  Processes one line of input held in line[0...length-1].  The line is
+	 *  either a book header ("Book NN Name"), the first line of a verse
+	 *  ("CCC:VVV text"), or a continuation of the current verse.  Book,
+	 *  chapter and verse numbers are checked against the running counts, and
+	 *  a ConcordanceException naming lineCounter is thrown on any mismatch.
+	 */
+	private void processLine(char[] line, int length) throws ConcordanceException
+	{
+		String bookName;
+		int chapterNumIn, verseNumIn;
 
-			//--------------------------------------
-			//----- Remove "'s" at end of word -----
-			//--------------------------------------
-			newWordLength = newWord.length();
-			if (newWordLength > 2 && newWord.substring(newWordLength-2).equals("'s"))
+		charsRead += length + 1;
+		if ((lineCounter & 4095) == 0)
+		{
+			checkCancelled();
+		} // if
+
+		//---------------------------------------
+		//----- Line introducing a new book -----
+		//---------------------------------------
+		if ((length > 7) && line[0] == 'B' && line[1] == 'o' && line[2] == 'o' && line[3] == 'k')
+		{
+			checkCancelled();
+			bookName = new String(line, 7, length - 7).trim();
+			bookNum++;
+			if (bookNum - bookBase != parseDigits(line, 5, 7) || bookName.equals(""))
 			{
-				newWord = newWord.substring(0, newWordLength-2);
+				out.println("Inside buildConcordance() method in class Concordance (#1).");
+				out.println("Format problem on line " + lineCounter);
+				out.println("Terminating...");
+				throw new ConcordanceException("Inside buildConcordance -- format problem on line " + lineCounter);
 			} // if
+			allBookNames.add(bookName);
+			chapterNum = 0;
+			finishBook();
+			startBook(bookName);
+			if (listener != null)
+			{
+				listener.bookStarted(bookName, bookNum, Math.min(1.0, (double) (inputOffset + charsRead) / inputLength));
+			} // if
+
+			out.println("Currently working on " + bookName);
+
+		} // if
 
-			//--------------------------------------
-			//----- Remove trailing apostrophe -----
-			//--------------------------------------
-			newWordLength = newWord.length();
-			if (newWord.charAt(newWordLength-1) == '\'')
+		//---------------------------------
+		//----- First line of a verse -----
+		//---------------------------------
+		else if ((length > 7) && (line[0] >= '0' && line[0] <= '9'))
+		{
+			chapterNumIn = parseDigits(line, 0, 3);
+			verseNumIn = parseDigits(line, 4, 7);
+			if (verseNumIn == 1)
+			{
+				verseNum = 1;
+				chapterNum++;
+				chapterCounter++;
+			} // if
+			else
 			{
-				newWord = newWord.substring(0,newWordLength-1);
+				verseNum++;
+			} // else
+			if (chapterNum != chapterNumIn || verseNum != verseNumIn || line[3] != ':')
+			{
+				out.println("Inside buildConcordance() method in class Concordance (#3).");
+				out.println("Format problem on line " + lineCounter);
+				out.println("Terminating...");
+				throw new ConcordanceException("Inside buildConcordance -- format problem on line " + lineCounter);
 			} // if
+
+			verseCounter++;
+			versePosition = 0;
+
+			verses.startVerse(ID.pack(bookNum, chapterNum, verseNum));
+			verses.append(line, 7, length);
+			addToConcordance(line, 7, length, bookNum, chapterNum, verseNum);
+		} // else if
+
+		//--------------------------
+		//----- Any other line -----
+		//--------------------------
+		else
+		{
+			verses.append(line, 0, length);
+			addToConcordance(line, 0, length, bookNum, chapterNum, verseNum);
 		} // else
+	} // processLine(char[],int)
+	//-------------------------------------------------------------------------
+	/**
+	 *  Throws a ConcordanceException if the thread running the build has
+	 *  been interrupted (see BuildOptions.setBuildListener).
+	 */
+	private void checkCancelled() throws ConcordanceException
+	{
+		if (buildThread != null && buildThread.isInterrupted())
+		{
+			out.println("Build cancelled on line " + lineCounter);
+			throw new ConcordanceException("Inside buildConcordance -- build cancelled");
+		} // if
+	} // checkCancelled()
+	//-------------------------------------------------------------------------
+	/**
+	 *  Starts timing a book (see ConcordanceMetrics and BookIndexedEvent).
+	 */
+	private void startBook(String bookName)
+	{
+		bookEvent = new BookIndexedEvent();
+		bookEvent.book = bookName;
+		bookEvent.begin();
+		bookStartNanos = System.nanoTime();
+		bookStartWords = wordCounter;
+	} // startBook(String)
+	//-------------------------------------------------------------------------
+	/**
+	 *  Records the words in and time taken by the book being indexed, if any.
+	 */
+	private void finishBook()
+	{
+		if (bookEvent == null)
+		{
+			return;
+		} // if
+		metrics.recordBook(wordCounter - bookStartWords, System.nanoTime() - bookStartNanos);
+		bookEvent.end();
+		if (bookEvent.shouldCommit())
+		{
+			bookEvent.words = wordCounter - bookStartWords;
+			bookEvent.distinctWords = distinctWordCounter;
+			bookEvent.tableSize = tableSize;
+			bookEvent.commit();
+		} // if
+		bookEvent = null;
+	} // finishBook()
+	//-------------------------------------------------------------------------
+	/**
+	 *  Returns the value of the decimal digits in line[start...end-1], or -1
+	 *  if any of them is not a digit.
+	 */
+	private static int parseDigits(char[] line, int start, int end)
+	{
+		int value = 0;
+
+		for (int i = start; i < end; i++)
+		{
+			if (line[i] < '0' || line[i] > '9')
+			{
+				return -1;
+			} // if
+			value = value * 10 + (line[i] - '0');
+		} // for
+		return value;
+	} // parseDigits(char[],int,int)
+	//-------------------------------------------------------------------------
+	/**
+	 *  Tokenizes line[start...end-1] in a single pass and adds an ID to the
+	 *  concordance for each word (as long as this does not create a duplicate).
+	 *
+	 *  Words are separated by single spaces once the line is trimmed.  Each word
+	 *  is cleaned by cleanWord() into termBuffer and hashed there, and copied
+	 *  into the key arena (see TermArena) the first time it is seen; no String
+	 *  is created.
+	 */
+	private void addToConcordance(char[] line, int start, int end, short currBook, short currChap, short currVerse) throws ConcordanceException
+	{
+		int tokenStart, tokenEnd, length, wordPlace, h;
+		int newID;
+
+		if (currBook > ID.MAX_BOOK || currChap > ID.MAX_CHAPTER || currVerse > ID.MAX_VERSE)
+		{
+			throw new ConcordanceException("Inside addToConcordance -- reference " + currBook + " " + currChap + ":" + currVerse + " is out of range");
+		} // if
+
+		// Same as String.trim(): skip leading and trailing control characters and spaces.
+		while (start < end && line[start] <= ' ')
+		{
+			start++;
+		} // while
+		while (end > start && line[end - 1] <= ' ')
+		{
+			end--;
+		} // while
+
+		newID = ID.pack(currBook, currChap, currVerse);
+		tokenStart = start;
+		while (tokenStart < end)
+		{
+			tokenEnd = tokenStart;
+			while (tokenEnd < end && line[tokenEnd] != ' ')
+			{
+				tokenEnd++;
+			} // while
+
+			if (termBuffer.length < tokenEnd - tokenStart)
+			{
+				termBuffer = new char[tokenEnd - tokenStart];
+			} // if
+			length = cleanWord(line, tokenStart, tokenEnd, termBuffer);
+			h = 0;
+			for (int i = 0; i < length; i++)
+			{
+				h = 31 * h + termBuffer[i];
+			} // for
+
+			if (length <= 0)
+			{
+				out.println("Inside addToConcordance() method in class Concordance.");
+				out.println("Word \"" + new String(line, tokenStart, tokenEnd - tokenStart) + "\" is empty or contains characters other than letters and hyphens.");
+				out.println("Terminating...");
+				throw new ConcordanceException("Word \"" + new String(line, tokenStart, tokenEnd - tokenStart) + "\" is empty or contains characters other than letters and hyphens.");
+			} // if
 
-		return newWord;
-	} // removePunctuation(String)
+			wordCounter++;
+
+			//----------------------------------------------------------------------
+			//--- If the word is not yet in the concordance, add an entry for it ---
+			//--- (the HashEntry constructor will automatically insert the first ---
+			//---  reference (ID) into the associated list), and then increment  ---
+			//---  distinctWordCounter.                                          ---
+			//---                                                                ---
+			//--- If the word is already in the concordance, only add a new      ---
+			//--- reference (ID) if it does not create a duplicate.              ---
+			//----------------------------------------------------------------------
+
+			// Finds where the key should be placed.
+			wordPlace = search(termBuffer, length, mix(h));
+
+			// If it found a place, and that place is empty...
+			if (wordPlace != -1 && table[wordPlace] == null) {
+				// Adds in the new HashEntry for that word and ID, growing the table if it is now too full.
+				keyOffsets[wordPlace] = keys.add(termBuffer, length);
+				keyHashes[wordPlace] = mix(h);
+				table[wordPlace] = new HashEntry(keys, keyOffsets[wordPlace], newID);
+				if (positionalIndex) {
+					table[wordPlace].addPosition(versePosition, true);
+				}
+				distinctWordCounter++;
+				if (distinctWordCounter > resizeThreshold) {
+					rehash();
+				}
+			}
+
+			// If it found the word already in there somewhere...
+			else if (wordPlace != -1) {
+				// Adds the ID unless it matches the last one on the list (same verse).
+				boolean newVerse = table[wordPlace].addPosting(newID);
+				if (positionalIndex) {
+					table[wordPlace].addPosition(versePosition, newVerse);
+				}
+			}
+
+			// No free slot anywhere: the word is dropped, but counted.
+			else {
+				metrics.recordFailedInsert();
+			}
+			versePosition++;
+
+			// Skips the single space separating this word from the next.
+			tokenStart = tokenEnd + 1;
+		} // while
+		verses.setWordCount(versePosition);
+	} // addToConcordance(char[],int,int,short,short,short)
+	//-------------------------------------------------------------------------
+	/**
+	 *  Cleans the word in line[tokenStart...tokenEnd-1] and writes it, in
+	 *  lowercase, to the front of dest (which must be at least as long as the
+	 *  word).  The punctuation marks in isPunctuation() are dropped, then a
+	 *  trailing "--", a trailing "'s" and a trailing apostrophe are removed.
+	 *
+	 *  @return  the length of the cleaned word, or -1 if it is empty or contains
+	 *           characters other than letters and hyphens
+	 */
+	static int cleanWord(char[] line, int tokenStart, int tokenEnd, char[] dest)
+	{
+		int length = 0;
+		char c;
+
+		//-------------------------------------------------
+		//----- Copy the word, dropping punctuation -----
+		//-------------------------------------------------
+		for (int i = tokenStart; i < tokenEnd; i++)
+		{
+			c = line[i];
+			if (!isPunctuation(c))
+			{
+				dest[length++] = c;
+			} // if
+		} // for
+
+		//--------------------------------------------------------------
+		//----- Remove "--", then "'s", then an apostrophe at the end -----
+		//--------------------------------------------------------------
+		if (length > 2 && dest[length-2] == '-' && dest[length-1] == '-')
+		{
+			length -= 2;
+		} // if
+		if (length > 2 && dest[length-2] == '\'' && dest[length-1] == 's')
+		{
+			length -= 2;
+		} // if
+		if (length > 0 && dest[length-1] == '\'')
+		{
+			length--;
+		} // if
+
+		//-------------------------------------------
+		//----- Check and lowercase in one pass -----
+		//-------------------------------------------
+		for (int i = 0; i < length; i++)
+		{
+			c = dest[i];
+			if (!Character.isLetter(c) && c != '-')
+			{
+				return -1;
+			} // if
+			dest[i] = Character.toLowerCase(c);
+		} // for
+
+		return length == 0 ? -1 : length;
+	} // cleanWord(char[],int,int,char[])
+	//-------------------------------------------------------------------------
+	/**
+	 *  Same as search(String), but for a key that has already been lowercased
+	 *  into key[0...length-1] and hashed.  Compares characters in place, so
+	 *  no String is created for the key.
+	 */
+	private int search(char[] key, int length, int keyHash)
+	{
+		int mask = tableSize - 1;
+		int index = keyHash & mask;
+
+		for (int step = 1; step <= tableSize; step++)
+		{
+			if (table[index] == null || (keyHashes[index] == keyHash && keys.matches(keyOffsets[index], key, length)))
+			{
+				return index;
+			} // if
+			index = (index + step) & mask;
+		} // for
+
+		return -1;
+	} // search(char[],int,int)
+	//-------------------------------------------------------------------------
+	/**
+	 *  Returns true for the punctuation marks that are stripped from words.
+	 */
+	private static boolean isPunctuation(char c)
+	{
+		switch (c)
+		{
+			case '.': case ',': case ';': case ':':
+			case '?': case '!': case '(': case ')':
+				return true;
+			default:
+				return false;
+		} // switch
+	} // isPunctuation(char)
 	//-------------------------------------------------------------------------
 	/**
 	 * Customized toLowerCase method.  Takes a String and processes each character.
@@ -416,36 +2259,26 @@ public class Concordance
 	 */
 	public String customToLowerCase(String inWord)
 	{
-		int inWordLength;
-		String newWord = null;
+		char[] newWord;
+		char c;
 
 		if (inWord == null)
 		{
-			newWord = null;
+			return null;
 		} // if
-		if (inWord.equals(""))
-		{
-			newWord = "";
-		} // else if
-		else
+
+		newWord = new char[inWord.length()];
+		for (int i = 0; i < newWord.length; i++)
 		{
-			newWord = "";
-			inWordLength = inWord.length();
-			for (int i = 0; i < inWordLength; i++)
+			c = inWord.charAt(i);
+			if (!Character.isLetter(c) && c != '-')
 			{
-				if (!Character.isLetter(inWord.charAt(i)) && (inWord.charAt(i) != '-'))
-				{
-					newWord = null;
-					break;
-				} // if
-				else
-				{
-					newWord += Character.toLowerCase(inWord.charAt(i));
-				} // else
-			} // for
-		} // else
+				return null;
+			} // if
+			newWord[i] = Character.toLowerCase(c);
+		} // for
 
-		return newWord;
+		return new String(newWord);
 	} // customToLowerCase(String)
 	//-------------------------------------------------------------------------
 } // class Concordance
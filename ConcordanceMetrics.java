@@ -0,0 +1,325 @@
+import java.lang.management.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import javax.management.*;
+
+/**
+ *  Measurements of one concordance's hash table, build and queries,
+ *  returned by Concordance.getMetrics() and publishable as a JMX MBean
+ *  (see register).
+ *
+ *  The table figures (probe lengths, clusters, load) are computed from the
+ *  table whenever they are asked for.  The build figures are recorded as
+ *  the concordance is built: time per book, time spent rehashing, and
+ *  insertions that found no free slot.  Queries (references, query,
+ *  phraseSearch, wildcardSearch, fuzzySearch) are timed into a
+ *  LatencyHistogram.  Lookups (Concordance.search) take only a few hundred
+ *  nanoseconds, which timing each one would noticeably slow down, so all
+ *  are counted but only a random one in 64 is timed; the percentiles of
+ *  that sample are those of all lookups.  The same events are also sent to
+ *  Flight Recorder (see QueryEvent, BookIndexedEvent, TableResizeEvent).
+ *
+ *  @author Max Sotsky
+ */
+
+public class ConcordanceMetrics implements ConcordanceMetricsMBean
+{
+	static final int PROBE_BUCKETS = 16;   // the last counts 15 or more extra probes
+	static final int LOOKUP_SAMPLE_MASK = 63;   // time 1 lookup in 64
+
+	private Concordance concord;
+	private LongAdder lookups = new LongAdder();
+	private LatencyHistogram lookupLatency = new LatencyHistogram();
+	private LatencyHistogram queryLatency = new LatencyHistogram();
+	private volatile long failedInserts = 0;
+	private volatile int rehashCount = 0;
+	private volatile long rehashNanos = 0, buildNanos = 0, finishNanos = 0;
+	private int[] bookWords = new int[8];
+	private long[] bookNanos = new long[8];
+	private volatile int bookCount = 0;
+	//-------------------------------------------------------------------------
+	ConcordanceMetrics(Concordance inConcord)
+	{
+		concord = inConcord;
+	} // constructor ConcordanceMetrics(Concordance)
+	//-------------------------------------------------------------------------
+	/**
+	 * Registers these metrics with the platform MBean server under
+	 * "Concordance:type=Metrics,name=<name>", and returns that name.
+	 */
+	public ObjectName register(String name) throws JMException
+	{
+		ObjectName objectName = new ObjectName("Concordance:type=Metrics,name=" + ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+		return objectName;
+	} // register(String)
+	//-------------------------------------------------------------------------
+	//----- Recording (called by Concordance) -----
+	//-------------------------------------------------------------------------
+	/**
+	 * Counts a lookup and returns true if it should be timed.
+	 */
+	boolean sampleLookup()
+	{
+		lookups.increment();
+		return (ThreadLocalRandom.current().nextInt() & LOOKUP_SAMPLE_MASK) == 0;
+	} // sampleLookup()
+	//-------------------------------------------------------------------------
+	void recordLookup(long nanos)
+	{
+		lookupLatency.record(nanos);
+	} // recordLookup(long)
+	//-------------------------------------------------------------------------
+	void recordQuery(long nanos)
+	{
+		queryLatency.record(nanos);
+	} // recordQuery(long)
+	//-------------------------------------------------------------------------
+	void recordFailedInsert()
+	{
+		failedInserts++;
+	} // recordFailedInsert()
+	//-------------------------------------------------------------------------
+	void recordRehash(long nanos)
+	{
+		rehashCount++;
+		rehashNanos += nanos;
+	} // recordRehash(long)
+	//-------------------------------------------------------------------------
+	void recordBuild(long parseNanos, long inFinishNanos)
+	{
+		buildNanos += parseNanos;
+		finishNanos += inFinishNanos;
+	} // recordBuild(long,long)
+	//-------------------------------------------------------------------------
+	/**
+	 * Records the words in and time taken by the next book.
+	 */
+	void recordBook(int words, long nanos)
+	{
+		if (bookCount == bookWords.length)
+		{
+			bookWords = Arrays.copyOf(bookWords, bookCount * 2);
+			bookNanos = Arrays.copyOf(bookNanos, bookCount * 2);
+		} // if
+		bookWords[bookCount] = words;
+		bookNanos[bookCount] = nanos;
+		bookCount++;
+	} // recordBook(int,long)
+	//-------------------------------------------------------------------------
+	/**
+	 * Adds the build figures of a partial concordance merged into this one.
+	 */
+	void add(ConcordanceMetrics partial)
+	{
+		failedInserts += partial.failedInserts;
+		rehashCount += partial.rehashCount;
+		rehashNanos += partial.rehashNanos;
+		for (int i = 0; i < partial.bookCount; i++)
+		{
+			recordBook(partial.bookWords[i], partial.bookNanos[i]);
+		} // for
+	} // add(ConcordanceMetrics)
+	//-------------------------------------------------------------------------
+	//----- Hash table -----
+	//-------------------------------------------------------------------------
+	public int getTableSize()
+	{
+		return concord.getTableSize();
+	} // getTableSize()
+	//-------------------------------------------------------------------------
+	public int getDistinctWords()
+	{
+		return concord.getDistinctWordCount();
+	} // getDistinctWords()
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the fraction of table slots in use.
+	 */
+	public double getLoadFactor()
+	{
+		return (double) concord.getDistinctWordCount() / concord.getTableSize();
+	} // getLoadFactor()
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the load factor at which the table doubles.
+	 */
+	public double getMaxLoadFactor()
+	{
+		return concord.getMaxLoadFactor();
+	} // getMaxLoadFactor()
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns, for n = 0, 1, ..., how many words are found n probes after
+	 * their home slot (the last element counts n >= PROBE_BUCKETS-1).
+	 */
+	public long[] getProbeLengthHistogram()
+	{
+		return concord.probeLengthHistogram(PROBE_BUCKETS);
+	} // getProbeLengthHistogram()
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the average number of slots examined by a successful search.
+	 */
+	public double getMeanProbeLength()
+	{
+		long[] histogram = concord.probeLengthHistogram(Integer.MAX_VALUE);
+		long words = 0, probes = 0;
+
+		for (int n = 0; n < histogram.length; n++)
+		{
+			words += histogram[n];
+			probes += (n + 1) * histogram[n];
+		} // for
+		return words == 0 ? 0.0 : (double) probes / words;
+	} // getMeanProbeLength()
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the most slots examined by any successful search.
+	 */
+	public int getMaxProbeLength()
+	{
+		return concord.probeLengthHistogram(Integer.MAX_VALUE).length;
+	} // getMaxProbeLength()
+	//-------------------------------------------------------------------------
+	public int getLongestCluster()
+	{
+		return concord.longestCluster();
+	} // getLongestCluster()
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the number of words dropped because no free slot was found.
+	 */
+	public long getFailedInserts()
+	{
+		return failedInserts;
+	} // getFailedInserts()
+	//-------------------------------------------------------------------------
+	public int getRehashCount()
+	{
+		return rehashCount;
+	} // getRehashCount()
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the bytes taken by the references of all words (see
+	 * HashEntry.compress), which is most of a concordance's memory.
+	 */
+	public long getPostingBytes()
+	{
+		return concord.postingBytes();
+	} // getPostingBytes()
+	//-------------------------------------------------------------------------
+	//----- Build -----
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the time spent reading and indexing text (including rehashing).
+	 */
+	public double getBuildMillis()
+	{
+		return buildNanos / 1e6;
+	} // getBuildMillis()
+	//-------------------------------------------------------------------------
+	public double getRehashMillis()
+	{
+		return rehashNanos / 1e6;
+	} // getRehashMillis()
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the time spent building the dictionary and position skips.
+	 */
+	public double getFinishMillis()
+	{
+		return finishNanos / 1e6;
+	} // getFinishMillis()
+	//-------------------------------------------------------------------------
+	public String[] getBookNames()
+	{
+		return concord.getBookNames().toArray(new String[0]);
+	} // getBookNames()
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the words indexed per second for each book, in the order of
+	 * getBookNames() (0 for books loaded from a snapshot).
+	 */
+	public double[] getTokensPerSecondByBook()
+	{
+		double[] rates = new double[concord.getBookNames().size()];
+		int books = Math.min(bookCount, rates.length);
+
+		for (int i = 0; i < books; i++)
+		{
+			rates[rates.length - books + i] = bookNanos[i] == 0 ? 0.0 : bookWords[i] * 1e9 / bookNanos[i];
+		} // for
+		return rates;
+	} // getTokensPerSecondByBook()
+	//-------------------------------------------------------------------------
+	//----- Queries -----
+	//-------------------------------------------------------------------------
+	public long getLookupCount()
+	{
+		return lookups.sum();
+	} // getLookupCount()
+	//-------------------------------------------------------------------------
+	public double getLookupLatencyP50Micros()
+	{
+		return lookupLatency.getPercentile(0.5) / 1e3;
+	} // getLookupLatencyP50Micros()
+	//-------------------------------------------------------------------------
+	public double getLookupLatencyP99Micros()
+	{
+		return lookupLatency.getPercentile(0.99) / 1e3;
+	} // getLookupLatencyP99Micros()
+	//-------------------------------------------------------------------------
+	public double getLookupLatencyP999Micros()
+	{
+		return lookupLatency.getPercentile(0.999) / 1e3;
+	} // getLookupLatencyP999Micros()
+	//-------------------------------------------------------------------------
+	public long getQueryCount()
+	{
+		return queryLatency.getCount();
+	} // getQueryCount()
+	//-------------------------------------------------------------------------
+	public double getQueryLatencyP50Micros()
+	{
+		return queryLatency.getPercentile(0.5) / 1e3;
+	} // getQueryLatencyP50Micros()
+	//-------------------------------------------------------------------------
+	public double getQueryLatencyP99Micros()
+	{
+		return queryLatency.getPercentile(0.99) / 1e3;
+	} // getQueryLatencyP99Micros()
+	//-------------------------------------------------------------------------
+	public double getQueryLatencyP999Micros()
+	{
+		return queryLatency.getPercentile(0.999) / 1e3;
+	} // getQueryLatencyP999Micros()
+	//-------------------------------------------------------------------------
+	public double getQueryLatencyMaxMicros()
+	{
+		return queryLatency.getMax() / 1e3;
+	} // getQueryLatencyMaxMicros()
+	//-------------------------------------------------------------------------
+	public void resetLatencies()
+	{
+		lookups.reset();
+		lookupLatency.reset();
+		queryLatency.reset();
+	} // resetLatencies()
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the histogram of sampled lookup latencies, for reports beyond
+	 * the MBean's fixed percentiles.
+	 */
+	public LatencyHistogram getLookupLatency()
+	{
+		return lookupLatency;
+	} // getLookupLatency()
+	//-------------------------------------------------------------------------
+	public LatencyHistogram getQueryLatency()
+	{
+		return queryLatency;
+	} // getQueryLatency()
+	//-------------------------------------------------------------------------
+} // class ConcordanceMetrics
@@ -0,0 +1,43 @@
+
+/**
+ *  Management interface of ConcordanceMetrics, as seen in JConsole or any
+ *  other JMX client.  Latencies are in microseconds, durations of the build
+ *  in milliseconds.
+ *
+ *  @author Max Sotsky
+ */
+
+public interface ConcordanceMetricsMBean
+{
+	// Hash table
+	int getTableSize();
+	int getDistinctWords();
+	double getLoadFactor();
+	double getMaxLoadFactor();
+	long[] getProbeLengthHistogram();
+	double getMeanProbeLength();
+	int getMaxProbeLength();
+	int getLongestCluster();
+	long getFailedInserts();
+	int getRehashCount();
+	long getPostingBytes();
+
+	// Build
+	double getBuildMillis();
+	double getRehashMillis();
+	double getFinishMillis();
+	String[] getBookNames();
+	double[] getTokensPerSecondByBook();
+
+	// Queries
+	long getLookupCount();
+	double getLookupLatencyP50Micros();
+	double getLookupLatencyP99Micros();
+	double getLookupLatencyP999Micros();
+	long getQueryCount();
+	double getQueryLatencyP50Micros();
+	double getQueryLatencyP99Micros();
+	double getQueryLatencyP999Micros();
+	double getQueryLatencyMaxMicros();
+	void resetLatencies();
+} // interface ConcordanceMetricsMBean
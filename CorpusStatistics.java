@@ -0,0 +1,388 @@
+import java.util.*;
+
+/**
+ *  Word frequencies and collocations of a concordance, computed once so
+ *  that questions such as "the 100 commonest words in Psalms" or "the
+ *  words found most often in the same verse as covenant" are answered
+ *  without scanning the text.  See Concordance.computeStatistics() and
+ *  BuildOptions.setStatistics().
+ *
+ *  The statistics are computed in one pass over the posting lists, from
+ *  each reference and the number of times its word occurs in that verse
+ *  (see HashEntry.getFrequency), so they count exactly the words the
+ *  index holds; the stored verse text, which may have replaced some
+ *  characters, is not read.  The counts are stored as sparse int arrays,
+ *  already sorted most frequent first, so a top-k question costs O(k):
+ *
+ *   - the number of occurrences of every word, and a ranking of the words
+ *     by it;
+ *   - for every book, the occurrences of each word that appears in it;
+ *   - for each of the topTerms commonest words, the number of verses it
+ *     shares with every other word.  Collocations of any other word are
+ *     counted when asked for, from its verses only.
+ *
+ *  Words are numbered by their position in the sorted TermDictionary.
+ *  The object does not change once constructed, so any number of threads
+ *  may query it at once.
+ *
+ *  @author Max Sotsky
+ */
+
+public class CorpusStatistics
+{
+	public static final int DEFAULT_TOP_TERMS = 200;
+
+	private String[] terms;          // every word, sorted
+	private int[] totals;            // occurrences of each word
+	private int[] ranking;           // words, most frequent first
+	private int[] bookWords;         // words in each book
+	private int[][] bookTerms;       // per book: the words in it, most frequent first...
+	private int[][] bookCounts;      // ...and their occurrences in the book
+	private int[][] bookTermsSorted; // per book: the same words in sorted order...
+	private int[][] bookCountsSorted;// ...and their occurrences
+	private int[] verseStarts;       // verseTerms[verseStarts[v]...verseStarts[v+1]-1]
+	private int[] verseTerms;        //   are the distinct words of verse v
+	private int[] termStarts;        // termVerses[termStarts[t]...termStarts[t+1]-1]
+	private int[] termVerses;        //   are the verses containing word t
+	private int[] rowOf;             // collocation row of each word, or -1
+	private int[][] partnerTerms;    // per row: words sharing verses, most shared first...
+	private int[][] partnerCounts;   // ...and the number of verses shared
+	//-------------------------------------------------------------------------
+	/**
+	 * Computes the statistics of a finished concordance.
+	 *
+	 * @param  dictionary  the concordance's sorted words
+	 * @param  verses      the concordance's verse text
+	 * @param  bookCount   number of books (book numbers are 1 to bookCount)
+	 * @param  topTerms    number of commonest words whose collocations are precomputed
+	 */
+	CorpusStatistics(TermDictionary dictionary, VerseStore verses, int bookCount, int topTerms)
+	{
+		int termCount = dictionary.size(), verseCount = verses.size();
+		int[] bookScratch, touched, verseCounts = new int[verseCount], listSizes;
+		int[][] bookLists;
+		int touchedCount, book, ordinal, count, packed, termVerseCount = 0;
+		HashEntry entry;
+		PostingIterator iterator;
+
+		if (verseCount > 0)
+		{
+			bookCount = Math.max(bookCount, ID.bookOf(verses.getID(verseCount - 1)));
+		} // if
+		terms = new String[termCount];
+		for (int t = 0; t < termCount; t++)
+		{
+			terms[t] = dictionary.getTerm(t);
+		} // for
+		totals = new int[termCount];
+		bookWords = new int[bookCount + 1];
+		bookTerms = new int[bookCount + 1][];
+		bookCounts = new int[bookCount + 1][];
+		bookTermsSorted = new int[bookCount + 1][];
+		bookCountsSorted = new int[bookCount + 1][];
+		bookScratch = new int[bookCount + 1];
+		touched = new int[bookCount + 1];
+		bookLists = new int[bookCount + 1][];   // per book: word, occurrences, word, ...
+		listSizes = new int[bookCount + 1];
+		termStarts = new int[termCount + 1];
+		termVerses = new int[Math.max(16, verseCount * 16)];
+
+		//-----------------------------------------------------------------
+		//----- Count occurrences per word and per book, and list     -----
+		//----- each word's verses, from its references              -----
+		//-----------------------------------------------------------------
+		for (int t = 0; t < termCount; t++)
+		{
+			entry = dictionary.getEntry(t);
+			iterator = entry.iterator();
+			touchedCount = 0;
+			while ((packed = iterator.next()) != PostingIterator.NO_MORE)
+			{
+				count = entry.getFrequency(iterator.index());
+				totals[t] += count;
+				book = ID.bookOf(packed);
+				if (bookScratch[book] == 0)
+				{
+					touched[touchedCount++] = book;
+				} // if
+				bookScratch[book] += count;
+
+				// A reference outside every stored verse counts, but shares no verse.
+				ordinal = iterator.verseNumber() >= 0 ? iterator.verseNumber() : verses.ordinalOf(packed);
+				if (ordinal >= 0)
+				{
+					if (termVerseCount == termVerses.length)
+					{
+						termVerses = Arrays.copyOf(termVerses, termVerseCount * 2);
+					} // if
+					termVerses[termVerseCount++] = ordinal;
+					verseCounts[ordinal]++;
+				} // if
+			} // while
+			termStarts[t + 1] = termVerseCount;
+
+			// Words are visited in sorted order, so each book's list stays sorted.
+			for (int i = 0; i < touchedCount; i++)
+			{
+				book = touched[i];
+				if (bookLists[book] == null || listSizes[book] + 2 > bookLists[book].length)
+				{
+					bookLists[book] = bookLists[book] == null ? new int[64] : Arrays.copyOf(bookLists[book], bookLists[book].length * 2);
+				} // if
+				bookLists[book][listSizes[book]++] = t;
+				bookLists[book][listSizes[book]++] = bookScratch[book];
+				bookWords[book] += bookScratch[book];
+				bookScratch[book] = 0;
+			} // for
+		} // for
+		termVerses = Arrays.copyOf(termVerses, termVerseCount);
+		for (int b = 0; b <= bookCount; b++)
+		{
+			storeBook(b, bookLists[b], listSizes[b] / 2);
+		} // for
+
+		//-----------------------------------------------------------------
+		//----- Rank the words, and invert the verse lists           -----
+		//-----------------------------------------------------------------
+		ranking = rank(totals, termCount);
+
+		verseStarts = new int[verseCount + 1];
+		for (int v = 0; v < verseCount; v++)
+		{
+			verseStarts[v + 1] = verseStarts[v] + verseCounts[v];
+		} // for
+		verseTerms = new int[termVerseCount];
+		Arrays.fill(verseCounts, 0);
+		for (int t = 0; t < termCount; t++)
+		{
+			for (int i = termStarts[t]; i < termStarts[t + 1]; i++)
+			{
+				ordinal = termVerses[i];
+				verseTerms[verseStarts[ordinal] + verseCounts[ordinal]++] = t;
+			} // for
+		} // for
+
+		//-----------------------------------------------------------------
+		//----- Collocations of the commonest words                  -----
+		//-----------------------------------------------------------------
+		bookScratch = new int[termCount];
+		touched = new int[termCount];
+		topTerms = Math.max(0, Math.min(topTerms, termCount));
+		rowOf = new int[termCount];
+		Arrays.fill(rowOf, -1);
+		partnerTerms = new int[topTerms][];
+		partnerCounts = new int[topTerms][];
+		for (int r = 0; r < topTerms; r++)
+		{
+			rowOf[ranking[r]] = r;
+			int[][] row = collocate(ranking[r], bookScratch, touched);
+			partnerTerms[r] = row[0];
+			partnerCounts[r] = row[1];
+		} // for
+	} // constructor CorpusStatistics(TermDictionary,VerseStore,int,int)
+	//-------------------------------------------------------------------------
+	/**
+	 * Stores the counts of one book from list[] (word, occurrences, ... in
+	 * sorted order of the words; null if the book has none).
+	 */
+	private void storeBook(int book, int[] list, int count)
+	{
+		int[] sorted = new int[count], counts = new int[count], order;
+
+		for (int i = 0; i < count; i++)
+		{
+			sorted[i] = list[2 * i];
+			counts[i] = list[2 * i + 1];
+		} // for
+		order = rank(counts, count);
+		bookTermsSorted[book] = sorted;
+		bookCountsSorted[book] = counts;
+		bookTerms[book] = new int[count];
+		bookCounts[book] = new int[count];
+		for (int i = 0; i < count; i++)
+		{
+			bookTerms[book][i] = sorted[order[i]];
+			bookCounts[book][i] = counts[order[i]];
+		} // for
+	} // storeBook(int,int[],int)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the indices 0 to count-1 ordered by decreasing counts[], and
+	 * by index among equal counts (alphabetically, when counts[i] belongs
+	 * to the i-th of a sorted list of words).
+	 */
+	private static int[] rank(int[] counts, int count)
+	{
+		long[] keys = new long[count];
+		int[] order = new int[count];
+
+		// The high half sorts by count, descending; the low half by index.
+		for (int i = 0; i < count; i++)
+		{
+			keys[i] = ((long) (Integer.MAX_VALUE - counts[i]) << 32) | i;
+		} // for
+		Arrays.sort(keys);
+		for (int i = 0; i < count; i++)
+		{
+			order[i] = (int) keys[i];
+		} // for
+		return order;
+	} // rank(int[],int)
+	//-------------------------------------------------------------------------
+	/**
+	 * Counts, for every other word, the verses it shares with term, using
+	 * scratch[] and touched[] (termCount long, scratch all zero).
+	 *
+	 * @return  {partner words, verses shared}, most shared first
+	 */
+	private int[][] collocate(int term, int[] scratch, int[] touched)
+	{
+		int touchedCount = 0, v, partner;
+		int[] partners, counts, sharedCounts, order;
+
+		for (int i = termStarts[term]; i < termStarts[term + 1]; i++)
+		{
+			v = termVerses[i];
+			for (int j = verseStarts[v]; j < verseStarts[v + 1]; j++)
+			{
+				partner = verseTerms[j];
+				if (partner != term && scratch[partner]++ == 0)
+				{
+					touched[touchedCount++] = partner;
+				} // if
+			} // for
+		} // for
+
+		Arrays.sort(touched, 0, touchedCount);
+		counts = new int[touchedCount];
+		for (int i = 0; i < touchedCount; i++)
+		{
+			counts[i] = scratch[touched[i]];
+			scratch[touched[i]] = 0;
+		} // for
+		order = rank(counts, touchedCount);
+		partners = new int[touchedCount];
+		sharedCounts = new int[touchedCount];
+		for (int i = 0; i < touchedCount; i++)
+		{
+			partners[i] = touched[order[i]];
+			sharedCounts[i] = counts[order[i]];
+		} // for
+		return new int[][] {partners, sharedCounts};
+	} // collocate(int,int[],int[])
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the number of word (its position in the dictionary), cleaned and lowercased as the
+	 * concordance does, or -1 if it is not a word of the concordance.
+	 */
+	private int termOf(String word)
+	{
+		char[] chars = word.trim().toCharArray(), cleaned = new char[chars.length];
+		int length = Concordance.cleanWord(chars, 0, chars.length, cleaned);
+
+		return length > 0 ? Math.max(-1, Arrays.binarySearch(terms, new String(cleaned, 0, length))) : -1;
+	} // termOf(String)
+	//-------------------------------------------------------------------------
+	private static TermMatch[] matches(String[] terms, int[] words, int[] counts, int k)
+	{
+		TermMatch[] result = new TermMatch[Math.max(0, Math.min(k, words.length))];
+
+		for (int i = 0; i < result.length; i++)
+		{
+			result[i] = new TermMatch(terms[words[i]], counts[i], 0);
+		} // for
+		return result;
+	} // matches(String[],int[],int[],int)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the number of occurrences of word in the whole text (0 if it
+	 * does not occur).
+	 */
+	public int frequency(String word)
+	{
+		int term = termOf(word);
+		return term < 0 ? 0 : totals[term];
+	} // frequency(String)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the number of occurrences of word in a book (1 for the first).
+	 */
+	public int frequency(String word, int book)
+	{
+		int term = termOf(word), i;
+
+		if (term < 0 || book < 1 || book >= bookTermsSorted.length)
+		{
+			return 0;
+		} // if
+		i = Arrays.binarySearch(bookTermsSorted[book], term);
+		return i < 0 ? 0 : bookCountsSorted[book][i];
+	} // frequency(String,int)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the number of words in a book (1 for the first).
+	 */
+	public int getBookWordCount(int book)
+	{
+		return book < 1 || book >= bookWords.length ? 0 : bookWords[book];
+	} // getBookWordCount(int)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the k commonest words of the whole text with their numbers of
+	 * occurrences, most frequent first.
+	 */
+	public TermMatch[] topTerms(int k)
+	{
+		TermMatch[] result = new TermMatch[Math.max(0, Math.min(k, ranking.length))];
+
+		for (int i = 0; i < result.length; i++)
+		{
+			result[i] = new TermMatch(terms[ranking[i]], totals[ranking[i]], 0);
+		} // for
+		return result;
+	} // topTerms(int)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the k commonest words of a book (1 for the first) with their
+	 * numbers of occurrences in it, most frequent first.
+	 */
+	public TermMatch[] topTerms(int book, int k)
+	{
+		if (book < 1 || book >= bookTerms.length)
+		{
+			return new TermMatch[0];
+		} // if
+		return matches(terms, bookTerms[book], bookCounts[book], k);
+	} // topTerms(int,int)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the k words that share the most verses with word, with the
+	 * number of verses shared, most shared first.  Precomputed for the
+	 * commonest words; for any other word, counted from its own verses.
+	 */
+	public TermMatch[] collocations(String word, int k)
+	{
+		int term = termOf(word);
+		int[][] row;
+
+		if (term < 0)
+		{
+			return new TermMatch[0];
+		} // if
+		if (rowOf[term] >= 0)
+		{
+			return matches(terms, partnerTerms[rowOf[term]], partnerCounts[rowOf[term]], k);
+		} // if
+		row = collocate(term, new int[terms.length], new int[terms.length]);
+		return matches(terms, row[0], row[1], k);
+	} // collocations(String,int)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the number of commonest words whose collocations are precomputed.
+	 */
+	public int getTopTermCount()
+	{
+		return partnerTerms.length;
+	} // getTopTermCount()
+	//-------------------------------------------------------------------------
+} // class CorpusStatistics
@@ -1,20 +1,66 @@
 
-
+import java.nio.*;
 import java.util.*;
 
 /**
  *  Represents a single hash table entry.
  *  
+ *  The references (IDs) for the key are stored as packed ints (see ID.pack)
+ *  in a growable array, so adding or reading a reference creates no objects.
+ *  References are kept in the order they were added, which for a concordance
+ *  built front to back is canonical book/chapter/verse order.
+ *  
+ *  Once the concordance is built the array is compressed (see compress):
+ *  each reference becomes the number of its verse in the verse store, and
+ *  only the gaps between successive verse numbers are kept, as
+ *  variable-length ints.  Most gaps take one or two bytes instead of four.
+ *  A skip table gives the byte offset and preceding verse number of every
+ *  64th reference, so PostingIterator can jump ahead without decoding
+ *  everything before.
+ *  
+ *  For ranking (see RankedQuery) the entry also counts the occurrences of
+ *  its key in each verse, one byte per reference holding the count minus
+ *  one (at most 255), allocated only once the key first occurs twice in
+ *  a verse.
+ *  
+ *  An entry may also record the position (word offset within the verse) of
+ *  every occurrence of its key.  Positions are stored as a byte stream of
+ *  variable-length ints: the first occurrence in a verse is written as
+ *  2*position+1, each later one in the same verse as 2*(gap from the
+ *  previous one), so most occurrences take a single byte.
+ *  
+ *  The gaps, skip tables, occurrence counts and positions are held in
+ *  buffers.  For an entry built in memory they wrap heap arrays; for one
+ *  loaded from a snapshot they are read-only slices of the mapped file
+ *  (see Concordance.load), copied onto the heap only if references are
+ *  added to the entry.
+ *  
  *  @author Liam Keliher
  */
 
 public class HashEntry
 {
-	private String key;
-	private LinkedList<ID> list;
+	private static final int INITIAL_CAPACITY = 4;
+	private static final int SKIP_INTERVAL = 64;
+	private static final IntBuffer NO_SKIPS = IntBuffer.allocate(0);   // shared by entries of one block
+
+	private String key;              // the key, or null if it is kept...
+	private TermArena keys;          // ...in a concordance's arena, at keyOffset
+	private int keyOffset;
+	private int[] postings;          // packed references, or null once compressed...
+	private int postingCount;
+	private ByteBuffer postingGaps;  // ...into gaps between verse numbers
+	private IntBuffer postingSkips;  // byte offset and previous verse number of references 64, 128, ...
+	private VerseStore verses;       // the verse numbers' store, once compressed
+	private ByteBuffer frequencies;  // occurrences in each verse minus one, or null while all are 1
+	private int maxFrequency = 1;
+	private ByteBuffer positions;
+	private int positionsLength;
+	private int lastPosition;
+	private IntBuffer positionSkips; // byte offset in positions of references 0, 64, 128, ...
 	//-------------------------------------------------------------------------
 	/**
-	 * HashEntry constructor.  Sets the key value and creates a new LinkedList<ID>
+	 * HashEntry constructor.  Sets the key value and creates a new posting list
 	 * to which it adds the first ID.
 	 * 
 	 * @param inKey    key value for this hash table entry (word from text)
@@ -28,24 +74,766 @@ public class HashEntry
 		} // if
 
 		key = inKey;
-		list = new LinkedList<ID>();
-		list.add(firstID);
-	} // constructor HashEntry(String, Reference)
+		postings = new int[INITIAL_CAPACITY];
+		postings[0] = firstID.pack();
+		postingCount = 1;
+	} // constructor HashEntry(String, ID)
+	//-------------------------------------------------------------------------
+	/**
+	 * HashEntry constructor taking the first reference already packed.
+	 * 
+	 * @param inKey        key value for this hash table entry (word from text)
+	 * @param firstPacked  first reference, as produced by ID.pack
+	 */
+	public HashEntry(String inKey, int firstPacked) throws ConcordanceException
+	{
+		if (inKey == null || inKey.equals(""))
+		{
+			throw new ConcordanceException("Inside HashEntry constructor -- problem with arguments");
+		} // if
+
+		key = inKey;
+		postings = new int[INITIAL_CAPACITY];
+		postings[0] = firstPacked;
+		postingCount = 1;
+	} // constructor HashEntry(String, int)
+	//-------------------------------------------------------------------------
+	/**
+	 * HashEntry constructor taking a complete list of packed references, in
+	 * canonical order.  The array is used as is, not copied.
+	 * 
+	 * @param inKey     key value for this hash table entry (word from text)
+	 * @param inPacked  references, as produced by ID.pack
+	 * @param inCount   number of references in use at the front of inPacked
+	 */
+	public HashEntry(String inKey, int[] inPacked, int inCount) throws ConcordanceException
+	{
+		if (inKey == null || inKey.equals("") || inPacked == null || inCount < 1 || inCount > inPacked.length)
+		{
+			throw new ConcordanceException("Inside HashEntry constructor -- problem with arguments");
+		} // if
+
+		key = inKey;
+		postings = inPacked;
+		postingCount = inCount;
+	} // constructor HashEntry(String, int[], int)
+	//-------------------------------------------------------------------------
+	/**
+	 * HashEntry constructor for a key already stored in an arena, taking the
+	 * first reference packed.
+	 * 
+	 * @param inKeys       the arena holding the key
+	 * @param inKeyOffset  the key's offset in inKeys (see TermArena.add)
+	 * @param firstPacked  first reference, as produced by ID.pack
+	 */
+	HashEntry(TermArena inKeys, int inKeyOffset, int firstPacked)
+	{
+		keys = inKeys;
+		keyOffset = inKeyOffset;
+		postings = new int[INITIAL_CAPACITY];
+		postings[0] = firstPacked;
+		postingCount = 1;
+	} // constructor HashEntry(TermArena, int, int)
 	//-------------------------------------------------------------------------
 	/**
-	 * Standard accessor method for key value.
+	 * HashEntry constructor for a key already stored in an arena, taking a
+	 * complete list of packed references (see HashEntry(String,int[],int)).
+	 */
+	HashEntry(TermArena inKeys, int inKeyOffset, int[] inPacked, int inCount) throws ConcordanceException
+	{
+		if (inPacked == null || inCount < 1 || inCount > inPacked.length)
+		{
+			throw new ConcordanceException("Inside HashEntry constructor -- problem with arguments");
+		} // if
+
+		keys = inKeys;
+		keyOffset = inKeyOffset;
+		postings = inPacked;
+		postingCount = inCount;
+	} // constructor HashEntry(TermArena, int, int[], int)
+	//-------------------------------------------------------------------------
+	/**
+	 * HashEntry constructor for an entry read back compressed from a
+	 * snapshot (see compress).  The buffers are used as they are, not
+	 * copied.
+	 * 
+	 * @param inCount   number of references
+	 * @param inGaps    gaps between their verse numbers in inVerses
+	 * @param inSkips   the skip table (empty for 64 references or fewer)
+	 */
+	HashEntry(TermArena inKeys, int inKeyOffset, int inCount, ByteBuffer inGaps, IntBuffer inSkips, VerseStore inVerses)
+	{
+		keys = inKeys;
+		keyOffset = inKeyOffset;
+		postingCount = inCount;
+		postingGaps = inGaps;
+		postingSkips = inSkips.capacity() == 0 ? NO_SKIPS : inSkips;
+		verses = inVerses;
+	} // constructor HashEntry(TermArena, int, int, ByteBuffer, IntBuffer, VerseStore)
+	//-------------------------------------------------------------------------
+	/**
+	 * Standard accessor method for key value.  A key kept in an arena is
+	 * copied into a new String on every call.
 	 */
 	public String getKey()
 	{
-		return key;
+		return key != null ? key : keys.get(keyOffset);
 	} // getKey()
 	//-------------------------------------------------------------------------
 	/**
-	 * Standard accessor method for list of IDs.
+	 * Moves the key to another arena (when an entry is merged into another
+	 * concordance's table).
+	 */
+	void setKey(TermArena inKeys, int inKeyOffset)
+	{
+		key = null;
+		keys = inKeys;
+		keyOffset = inKeyOffset;
+	} // setKey(TermArena,int)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the number of references stored for this key.
+	 */
+	public int size()
+	{
+		return postingCount;
+	} // size()
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the i-th reference in packed form (see ID.pack).
+	 */
+	public int getPosting(int i)
+	{
+		if (i < 0 || i >= postingCount)
+		{
+			throw new IndexOutOfBoundsException("Posting " + i + " of " + postingCount);
+		} // if
+		if (postings == null)
+		{
+			PostingIterator iterator = iterator();
+			iterator.skipTo(i);
+			return iterator.next();
+		} // if
+		return postings[i];
+	} // getPosting(int)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns an iterator over the references, in order.  Prefer it to
+	 * getPosting(int) for reading a compressed entry in order.
+	 */
+	public PostingIterator iterator()
+	{
+		if (postings == null)
+		{
+			return new PostingIterator(postingGaps, postingSkips, SKIP_INTERVAL, postingCount, verses);
+		} // if
+		return new PostingIterator(postings, postingCount);
+	} // iterator()
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the most recently added reference in packed form.
+	 */
+	public int getLastPosting()
+	{
+		return getPosting(postingCount - 1);
+	} // getLastPosting()
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the index of the first reference at or after position from that
+	 * is >= target (packed), or size() if there is none.  Probes from, from+1,
+	 * from+3, from+7, ... and then binary-searches the last gap, so the cost
+	 * is logarithmic in the distance skipped rather than linear.
+	 */
+	public int gallop(int target, int from)
+	{
+		PostingIterator iterator;
+
+		if (postings == null)
+		{
+			iterator = iterator();
+			iterator.skipTo(Math.min(from, postingCount));
+			if (iterator.next() < target)
+			{
+				iterator.advance(target);
+			} // if
+			return iterator.index();
+		} // if
+		return gallop(postings, postingCount, target, from);
+	} // gallop(int,int)
+	//-------------------------------------------------------------------------
+	/**
+	 * gallop(int,int) over postings[0...count-1].
+	 */
+	static int gallop(int[] postings, int count, int target, int from)
+	{
+		int low = from, high, step = 1, middle;
+
+		if (low >= count || postings[low] >= target)
+		{
+			return low;
+		} // if
+
+		// postings[low] < target; find high with postings[high] >= target (or the end).
+		high = low + step;
+		while (high < count && postings[high] < target)
+		{
+			low = high;
+			step <<= 1;
+			high = low + step;
+		} // while
+		if (high > count)
+		{
+			high = count;
+		} // if
+
+		// Invariant: postings[low] < target, and postings[high] >= target or high == count.
+		while (high - low > 1)
+		{
+			middle = (low + high) >>> 1;
+			if (postings[middle] < target)
+			{
+				low = middle;
+			} // if
+			else
+			{
+				high = middle;
+			} // else
+		} // while
+		return high;
+	} // gallop(int[],int,int,int)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the i-th reference as an ID object.  Prefer getPosting(int)
+	 * in loops, since this creates an object per call.
+	 */
+	public ID getID(int i)
+	{
+		return ID.unpack(getPosting(i));
+	} // getID(int)
+	//-------------------------------------------------------------------------
+	/**
+	 * Adds a packed reference, unless it is the same as the last one added
+	 * (a word occurring several times in one verse is only listed once).
+	 * 
+	 * @return  true if the reference was added
+	 */
+	public boolean addPosting(int packed)
+	{
+		if (postings == null)
+		{
+			expand();
+		} // if
+		if (postings[postingCount - 1] == packed)
+		{
+			countOccurrence(postingCount - 1);
+			return false;
+		} // if
+
+		if (postingCount == postings.length)
+		{
+			int[] bigger = new int[postings.length * 2];
+			System.arraycopy(postings, 0, bigger, 0, postingCount);
+			postings = bigger;
+		} // if
+		postings[postingCount++] = packed;
+		return true;
+	} // addPosting(int)
+	//-------------------------------------------------------------------------
+	/**
+	 * Counts one more occurrence in the verse of reference i.
+	 */
+	private void countOccurrence(int i)
+	{
+		byte count;
+
+		if (frequencies == null || frequencies.capacity() <= i)
+		{
+			frequencies = copyOf(frequencies, postings.length);
+		} // if
+		count = frequencies.get(i);
+		if (count != (byte) 0xFF)
+		{
+			frequencies.put(i, ++count);
+			maxFrequency = Math.max(maxFrequency, (count & 0xFF) + 1);
+		} // if
+	} // countOccurrence(int)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the number of times the key occurs in the verse of reference i
+	 * (at most 256).
+	 */
+	public int getFrequency(int i)
+	{
+		return frequencies == null || i >= frequencies.capacity() ? 1 : (frequencies.get(i) & 0xFF) + 1;
+	} // getFrequency(int)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the largest getFrequency() of any reference.
+	 */
+	public int getMaxFrequency()
+	{
+		return maxFrequency;
+	} // getMaxFrequency()
+	//-------------------------------------------------------------------------
+	/**
+	 * Appends all of other's references after this entry's own.  Used when
+	 * merging concordances, so every reference in other must come after the
+	 * last one here.
+	 */
+	public void addPostings(HashEntry other)
+	{
+		PostingIterator iterator = other.iterator();
+
+		if (postings == null)
+		{
+			expand();
+		} // if
+		if (postingCount + other.postingCount > postings.length)
+		{
+			postings = Arrays.copyOf(postings, Math.max(postings.length * 2, postingCount + other.postingCount));
+		} // if
+		for (int i = 0; i < other.postingCount; i++)
+		{
+			postings[postingCount + i] = iterator.next();
+		} // for
+		if (other.frequencies != null)
+		{
+			frequencies = copyOf(frequencies, postings.length);
+			frequencies.put(postingCount, other.frequencies, 0, Math.min(other.frequencies.capacity(), other.postingCount));
+			maxFrequency = Math.max(maxFrequency, other.maxFrequency);
+		} // if
+		postingCount += other.postingCount;
+
+		// other's first occurrence is flagged as a new verse, so the streams simply concatenate.
+		if (positions != null && other.positions != null)
+		{
+			if (positionsLength + other.positionsLength > positions.capacity())
+			{
+				positions = copyOf(positions, positionsLength + other.positionsLength);
+			} // if
+			positions.put(positionsLength, other.positions, 0, other.positionsLength);
+			positionsLength += other.positionsLength;
+			lastPosition = other.lastPosition;
+			positionSkips = null;
+		} // if
+	} // addPostings(HashEntry)
+	//-------------------------------------------------------------------------
+	/**
+	 * Replaces the packed references by the gaps between their verse numbers
+	 * in inVerses (see the class description).  Called once the entry is
+	 * complete; an entry with a reference that is not a verse of inVerses
+	 * (text before the first verse of a book) is only trimmed.
+	 *
+	 * @return  true if the entry is compressed
+	 */
+	boolean compress(VerseStore inVerses)
+	{
+		byte[] gaps;
+		int[] skips;
+		int length = 0, previous = -1, ordinal, gap;
+
+		if (postings == null)
+		{
+			return true;
+		} // if
+		if (frequencies != null && frequencies.capacity() != postingCount)
+		{
+			frequencies = copyOf(frequencies, postingCount);
+		} // if
+		gaps = new byte[postingCount + 4];
+		skips = new int[postingCount <= SKIP_INTERVAL ? 0 : 2 * ((postingCount - 1) / SKIP_INTERVAL)];
+		for (int i = 0; i < postingCount; i++)
+		{
+			ordinal = inVerses.ceilingOrdinal(postings[i], previous + 1);
+			if (ordinal == inVerses.size() || inVerses.getID(ordinal) != postings[i])
+			{
+				postings = Arrays.copyOf(postings, postingCount);
+				return false;
+			} // if
+			if (i > 0 && i % SKIP_INTERVAL == 0)
+			{
+				skips[2 * (i / SKIP_INTERVAL) - 2] = length;
+				skips[2 * (i / SKIP_INTERVAL) - 1] = previous;
+			} // if
+			if (length + 5 > gaps.length)
+			{
+				gaps = Arrays.copyOf(gaps, Math.max(gaps.length * 2, length + 5));
+			} // if
+			gap = ordinal - previous;
+			while ((gap & ~0x7F) != 0)
+			{
+				gaps[length++] = (byte) ((gap & 0x7F) | 0x80);
+				gap >>>= 7;
+			} // while
+			gaps[length++] = (byte) gap;
+			previous = ordinal;
+		} // for
+
+		postingGaps = ByteBuffer.wrap(Arrays.copyOf(gaps, length));
+		postingSkips = skips.length == 0 ? NO_SKIPS : IntBuffer.wrap(skips);
+		verses = inVerses;
+		postings = null;
+		return true;
+	} // compress(VerseStore)
+	//-------------------------------------------------------------------------
+	/**
+	 * Turns a compressed entry back into packed references, so more can be
+	 * added.  Counts and positions still in a snapshot are copied to the heap.
+	 */
+	private void expand()
+	{
+		PostingIterator iterator = iterator();
+		int[] packed = new int[Math.max(INITIAL_CAPACITY, postingCount)];
+
+		for (int i = 0; i < postingCount; i++)
+		{
+			packed[i] = iterator.next();
+		} // for
+		postings = packed;
+		postingGaps = null;
+		postingSkips = null;
+		verses = null;
+		if (frequencies != null && frequencies.isReadOnly())
+		{
+			frequencies = copyOf(frequencies, frequencies.capacity());
+		} // if
+		if (positions != null && positions.isReadOnly())
+		{
+			positions = copyOf(positions, positionsLength);
+		} // if
+	} // expand()
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns a heap buffer of the given capacity starting with the contents
+	 * of buffer (all zeros if buffer is null).
+	 */
+	private static ByteBuffer copyOf(ByteBuffer buffer, int capacity)
+	{
+		ByteBuffer copy = ByteBuffer.allocate(capacity);
+
+		if (buffer != null)
+		{
+			copy.put(0, buffer, 0, Math.min(buffer.capacity(), capacity));
+		} // if
+		return copy;
+	} // copyOf(ByteBuffer,int)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the bytes of arrays used by the references (not counting
+	 * object headers).
+	 */
+	long getPostingBytes()
+	{
+		long frequencyBytes = frequencies == null ? 0 : frequencies.capacity();
+
+		if (postings == null)
+		{
+			return postingGaps.capacity() + 4L * postingSkips.capacity() + frequencyBytes;
+		} // if
+		return 4L * postings.length + frequencyBytes;
+	} // getPostingBytes()
+	//-------------------------------------------------------------------------
+	/**
+	 * Records the position of an occurrence of the key.  Must be called once
+	 * for every occurrence, in text order, right after the reference for its
+	 * verse has been added.
+	 * 
+	 * @param position  word offset of the occurrence within its verse
+	 * @param newVerse  true if this is the first occurrence in the verse
+	 */
+	public void addPosition(int position, boolean newVerse)
+	{
+		int value = newVerse ? (position << 1) | 1 : (position - lastPosition) << 1;
+
+		if (positions == null)
+		{
+			positions = ByteBuffer.allocate(INITIAL_CAPACITY);
+		} // if
+		if (positionsLength + 5 > positions.capacity())
+		{
+			positions = copyOf(positions, Math.max(positions.capacity() * 2, positionsLength + 5));
+		} // if
+		while ((value & ~0x7F) != 0)
+		{
+			positions.put(positionsLength++, (byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		} // while
+		positions.put(positionsLength++, (byte) value);
+		lastPosition = position;
+		positionSkips = null;
+	} // addPosition(int,boolean)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns true if positions have been recorded for this entry.
+	 */
+	public boolean hasPositions()
+	{
+		return positions != null;
+	} // hasPositions()
+	//-------------------------------------------------------------------------
+	/**
+	 * Builds the skip table that lets getPositions() start decoding near the
+	 * requested reference, unless it is already up to date.  Called once the
+	 * entry is complete.
 	 */
-	public LinkedList<ID> getList()
+	public void indexPositions()
 	{
-		return list;
-	} // getList()
+		int offset = 0, reference = -1;
+		int[] skips;
+
+		if (positions == null || positionSkips != null)
+		{
+			return;
+		} // if
+		skips = new int[(postingCount + SKIP_INTERVAL - 1) / SKIP_INTERVAL];
+		while (offset < positionsLength)
+		{
+			if ((positions.get(offset) & 1) == 1)
+			{
+				reference++;
+				if (reference % SKIP_INTERVAL == 0)
+				{
+					skips[reference / SKIP_INTERVAL] = offset;
+				} // if
+			} // if
+			while ((positions.get(offset++) & 0x80) != 0)
+			{
+			} // while
+		} // while
+		positionSkips = IntBuffer.wrap(skips);
+	} // indexPositions()
+	//-------------------------------------------------------------------------
+	/**
+	 * Copies the positions of the key within the verse of reference i, in
+	 * increasing order, into buffer.
+	 * 
+	 * @return  the number of positions, which may exceed buffer.length (in
+	 *          which case only the first buffer.length were copied)
+	 */
+	public int getPositions(int i, int[] buffer)
+	{
+		int offset, reference, value, shift, count = 0, position = 0;
+
+		if (positions == null || i < 0 || i >= postingCount)
+		{
+			return 0;
+		} // if
+		if (positionSkips == null)
+		{
+			// Not indexed yet (still being built): decode from the start.
+			offset = 0;
+			reference = -1;
+		} // if
+		else
+		{
+			offset = positionSkips.get(i / SKIP_INTERVAL);
+			reference = (i / SKIP_INTERVAL) * SKIP_INTERVAL - 1;
+		} // else
+		while (offset < positionsLength)
+		{
+			value = 0;
+			shift = 0;
+			do
+			{
+				value |= (positions.get(offset) & 0x7F) << shift;
+				shift += 7;
+			} while ((positions.get(offset++) & 0x80) != 0);
+
+			if ((value & 1) == 1)
+			{
+				reference++;
+				if (reference > i)
+				{
+					break;
+				} // if
+				position = value >>> 1;
+			} // if
+			else
+			{
+				position += value >>> 1;
+			} // else
+			if (reference == i)
+			{
+				if (count < buffer.length)
+				{
+					buffer[count] = position;
+				} // if
+				count++;
+			} // if
+		} // while
+		return count;
+	} // getPositions(int,int[])
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the compressed references (see compress) for a snapshot, or
+	 * null if the entry is not compressed.  The buffer is not copied.
+	 */
+	ByteBuffer getPostingGaps()
+	{
+		return postings == null ? postingGaps : null;
+	} // getPostingGaps()
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the skip table of the compressed references, for a snapshot.
+	 */
+	IntBuffer getPostingSkips()
+	{
+		return postingSkips;
+	} // getPostingSkips()
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the per-reference occurrence counts (see getFrequency) for a
+	 * snapshot, or null if every count is 1.  The buffer is not copied.
+	 */
+	ByteBuffer getFrequencies()
+	{
+		return frequencies;
+	} // getFrequencies()
+	//-------------------------------------------------------------------------
+	/**
+	 * Sets the occurrence counts read back from a snapshot.
+	 */
+	void setFrequencies(ByteBuffer inFrequencies, int inMaxFrequency)
+	{
+		frequencies = inFrequencies;
+		maxFrequency = inMaxFrequency;
+	} // setFrequencies(ByteBuffer,int)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the raw position stream, for a snapshot; its length is
+	 * getPositionsLength().
+	 */
+	ByteBuffer getPositionStream()
+	{
+		return positions;
+	} // getPositionStream()
+	//-------------------------------------------------------------------------
+	int getPositionsLength()
+	{
+		return positionsLength;
+	} // getPositionsLength()
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the position skip table (see indexPositions), for a snapshot.
+	 */
+	IntBuffer getPositionSkips()
+	{
+		return positionSkips;
+	} // getPositionSkips()
+	//-------------------------------------------------------------------------
+	/**
+	 * Sets the position stream and its skip table read back from a snapshot.
+	 */
+	void setPositions(ByteBuffer inPositions, IntBuffer inSkips)
+	{
+		positions = inPositions;
+		positionsLength = inPositions.capacity();
+		positionSkips = inSkips;
+	} // setPositions(ByteBuffer,IntBuffer)
+	//-------------------------------------------------------------------------
+	/**
+	 * Checks an entry read back from a snapshot without copying anything:
+	 * the gaps must decode to exactly size() increasing verse numbers of
+	 * the verse store, the skip tables must point where the streams say,
+	 * the occurrence counts must agree with getMaxFrequency(), and the
+	 * position stream must hold one run per reference.  Afterwards no
+	 * reader of the entry can run off the end of a buffer.
+	 *
+	 * @return  true if the entry is consistent
+	 */
+	boolean isConsistent()
+	{
+		int offset = 0, ordinal = -1, value, shift, reference = -1, largest = 1;
+		byte b;
+
+		if (postings == null)
+		{
+			if (postingSkips.capacity() != (postingCount <= SKIP_INTERVAL ? 0 : 2 * ((postingCount - 1) / SKIP_INTERVAL)))
+			{
+				return false;
+			} // if
+			for (int i = 0; i < postingCount; i++)
+			{
+				if (i > 0 && i % SKIP_INTERVAL == 0
+						&& (postingSkips.get(2 * (i / SKIP_INTERVAL) - 2) != offset || postingSkips.get(2 * (i / SKIP_INTERVAL) - 1) != ordinal))
+				{
+					return false;
+				} // if
+				value = 0;
+				shift = 0;
+				do
+				{
+					if (offset == postingGaps.capacity() || shift > 28)
+					{
+						return false;
+					} // if
+					b = postingGaps.get(offset++);
+					value |= (b & 0x7F) << shift;
+					shift += 7;
+				} while (b < 0);
+				if (value <= 0 || value >= verses.size() - ordinal)
+				{
+					return false;
+				} // if
+				ordinal += value;
+			} // for
+			if (offset != postingGaps.capacity())
+			{
+				return false;
+			} // if
+		} // if
+
+		if (frequencies != null)
+		{
+			if (frequencies.capacity() != postingCount)
+			{
+				return false;
+			} // if
+			for (int i = 0; i < postingCount; i++)
+			{
+				largest = Math.max(largest, (frequencies.get(i) & 0xFF) + 1);
+			} // for
+		} // if
+		if (largest != maxFrequency)
+		{
+			return false;
+		} // if
+
+		if (positions == null)
+		{
+			return true;
+		} // if
+		if (positionSkips == null || positionSkips.capacity() != (postingCount + SKIP_INTERVAL - 1) / SKIP_INTERVAL)
+		{
+			return false;
+		} // if
+		offset = 0;
+		while (offset < positionsLength)
+		{
+			if ((positions.get(offset) & 1) == 1)
+			{
+				reference++;
+				if (reference == postingCount || (reference % SKIP_INTERVAL == 0 && positionSkips.get(reference / SKIP_INTERVAL) != offset))
+				{
+					return false;
+				} // if
+			} // if
+			else if (reference < 0)
+			{
+				return false;
+			} // else if
+			shift = 0;
+			do
+			{
+				if (offset == positionsLength || shift > 28)
+				{
+					return false;
+				} // if
+				b = positions.get(offset++);
+				shift += 7;
+			} while (b < 0);
+		} // while
+		return reference == postingCount - 1;
+	} // isConsistent()
 	//-------------------------------------------------------------------------
 } // class HashEntry
\ No newline at end of file
@@ -1,6 +1,10 @@
 /**
  *  Contains the identifying information for a verse.
  *  
+ *  A verse can also be packed into a single int (see pack), which is how
+ *  HashEntry stores its references.  Packed values compare in canonical
+ *  book/chapter/verse order.
+ *  
  *  @author Liam Keliher
  */
 
@@ -8,6 +12,14 @@
 
 public class ID
 {
+	// Bit layout of a packed ID: 11 bits of book, 10 of chapter, 10 of verse.
+	private static final int CHAPTER_SHIFT = 10;
+	private static final int BOOK_SHIFT = 20;
+	private static final int FIELD_MASK = 0x3FF;
+	public static final int MAX_BOOK = 0x7FF;
+	public static final int MAX_CHAPTER = FIELD_MASK;
+	public static final int MAX_VERSE = FIELD_MASK;
+
 	private short book, chapter, verse;
 	//-------------------------------------------------------------------------
 	public ID(short inBook, short inChapter, short inVerse)
@@ -44,4 +56,41 @@ public class ID
 		return verse;
 	} // getVerse()
 	//-------------------------------------------------------------------------
+	/**
+	 * Returns this ID packed into a single int.
+	 */
+	public int pack()
+	{
+		return pack(book, chapter, verse);
+	} // pack()
+	//-------------------------------------------------------------------------
+	/**
+	 * Packs a book/chapter/verse triple into a single int.  The fields must
+	 * not exceed MAX_BOOK, MAX_CHAPTER and MAX_VERSE respectively.
+	 */
+	public static int pack(int inBook, int inChapter, int inVerse)
+	{
+		return (inBook << BOOK_SHIFT) | (inChapter << CHAPTER_SHIFT) | inVerse;
+	} // pack(int,int,int)
+	//-------------------------------------------------------------------------
+	public static ID unpack(int packed)
+	{
+		return new ID((short) bookOf(packed), (short) chapterOf(packed), (short) verseOf(packed));
+	} // unpack(int)
+	//-------------------------------------------------------------------------
+	public static int bookOf(int packed)
+	{
+		return packed >>> BOOK_SHIFT;
+	} // bookOf(int)
+	//-------------------------------------------------------------------------
+	public static int chapterOf(int packed)
+	{
+		return (packed >>> CHAPTER_SHIFT) & FIELD_MASK;
+	} // chapterOf(int)
+	//-------------------------------------------------------------------------
+	public static int verseOf(int packed)
+	{
+		return packed & FIELD_MASK;
+	} // verseOf(int)
+	//-------------------------------------------------------------------------
 } // class ID
\ No newline at end of file
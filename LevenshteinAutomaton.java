@@ -0,0 +1,113 @@
+
+/**
+ *  Levenshtein automaton for one word: accepts exactly the strings within a
+ *  given edit distance (insertions, deletions and substitutions) of it.
+ *
+ *  A state is the row of the edit-distance table for the characters read so
+ *  far: row[j] is the distance between that input and the first j
+ *  characters of the word.  Reading a character produces the next row.
+ *  Once every entry of a row exceeds the maximum distance no continuation
+ *  can be accepted, which is what lets TermDictionary.fuzzyMatch() skip
+ *  every word sharing a hopeless prefix.  Only entries within the maximum
+ *  distance of the diagonal can ever be accepted, so each step only fills
+ *  that band and caps the rest.
+ *
+ *  @author Max Sotsky
+ */
+
+public class LevenshteinAutomaton
+{
+	private String word;
+	private int maxDistance;
+	//-------------------------------------------------------------------------
+	/**
+	 * @param  inWord         the word to match against (already lowercased)
+	 * @param  inMaxDistance  largest edit distance accepted
+	 */
+	public LevenshteinAutomaton(String inWord, int inMaxDistance)
+	{
+		word = inWord;
+		maxDistance = inMaxDistance;
+	} // constructor LevenshteinAutomaton(String,int)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the number of entries in a state row.
+	 */
+	public int rowLength()
+	{
+		return word.length() + 1;
+	} // rowLength()
+	//-------------------------------------------------------------------------
+	/**
+	 * Writes the start state (nothing read yet) into row.
+	 */
+	public void start(int[] row)
+	{
+		for (int j = 0; j <= word.length(); j++)
+		{
+			row[j] = Math.min(j, maxDistance + 1);
+		} // for
+	} // start(int[])
+	//-------------------------------------------------------------------------
+	/**
+	 * Writes into next the state reached from row by reading c, where depth
+	 * is the number of characters read so far, including c.
+	 */
+	public void step(int[] row, char c, int depth, int[] next)
+	{
+		int cap = maxDistance + 1;
+		int from = Math.max(1, depth - maxDistance), to = Math.min(word.length(), depth + maxDistance);
+		int value;
+
+		next[0] = Math.min(depth, cap);
+		for (int j = 1; j < Math.min(from, word.length() + 1); j++)
+		{
+			next[j] = cap;
+		} // for
+		for (int j = from; j <= to; j++)
+		{
+			value = row[j - 1] + (word.charAt(j - 1) == c ? 0 : 1);
+			value = Math.min(value, row[j] + 1);
+			value = Math.min(value, next[j - 1] + 1);
+			next[j] = Math.min(value, cap);
+		} // for
+		for (int j = Math.max(from, to + 1); j <= word.length(); j++)
+		{
+			next[j] = cap;
+		} // for
+	} // step(int[],char,int,int[])
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns true if some continuation of the input read so far could still
+	 * be accepted.
+	 */
+	public boolean canMatch(int[] row)
+	{
+		for (int value : row)
+		{
+			if (value <= maxDistance)
+			{
+				return true;
+			} // if
+		} // for
+		return false;
+	} // canMatch(int[])
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns true if the input read so far is within the maximum distance.
+	 */
+	public boolean isAccepted(int[] row)
+	{
+		return row[word.length()] <= maxDistance;
+	} // isAccepted(int[])
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the edit distance between the input read so far and the word,
+	 * or a value above the maximum if the input is not accepted.
+	 */
+	public int distance(int[] row)
+	{
+		return row[word.length()];
+	} // distance(int[])
+	//-------------------------------------------------------------------------
+} // class LevenshteinAutomaton
@@ -0,0 +1,118 @@
+import java.util.*;
+
+/**
+ *  An exact phrase search, such as "let there be light", over a concordance
+ *  built with a positional index (see BuildOptions.setPositionalIndex).
+ *
+ *  The verses containing every word of the phrase are found first by
+ *  intersecting the posting lists (see BooleanQuery.intersect).  For each of
+ *  those verses the positions of the words are decoded and the phrase
+ *  matches if some position p of the first word has the second word at
+ *  p+1, the third at p+2, and so on.  Only the positions of candidate
+ *  verses are decoded.
+ *
+ *  @author Max Sotsky
+ */
+
+public class PhraseQuery
+{
+	private String[] words;
+	//-------------------------------------------------------------------------
+	/**
+	 * @param  phrase  words separated by spaces
+	 */
+	public PhraseQuery(String phrase) throws ConcordanceException
+	{
+		words = phrase.trim().split("\\s+");
+		if (words.length == 0 || words[0].equals(""))
+		{
+			throw new ConcordanceException("Inside PhraseQuery -- empty phrase");
+		} // if
+	} // constructor PhraseQuery(String)
+	//-------------------------------------------------------------------------
+	/**
+	 * Evaluates the phrase against a concordance.
+	 *
+	 * @return  the verses containing the phrase as packed IDs, in canonical order
+	 */
+	public int[] evaluate(Concordance concord) throws ConcordanceException
+	{
+		HashEntry[] entries = new HashEntry[words.length];
+		PostingIterator[] iterators = new PostingIterator[words.length];
+		int[] candidates, cursors = new int[words.length];
+		int[][] positions = new int[words.length][16];
+		int[] counts = new int[words.length];
+		int found = 0;
+
+		for (int i = 0; i < words.length; i++)
+		{
+			entries[i] = concord.lookup(words[i]);
+			if (entries[i] == null)
+			{
+				return new int[0];
+			} // if
+			if (!entries[i].hasPositions())
+			{
+				throw new ConcordanceException("Inside PhraseQuery -- the concordance was built without a positional index");
+			} // if
+		} // for
+
+		candidates = BooleanQuery.intersect(entries);
+		for (int i = 0; i < words.length; i++)
+		{
+			iterators[i] = entries[i].iterator();
+		} // for
+		for (int c = 0; c < candidates.length; c++)
+		{
+			for (int i = 0; i < words.length; i++)
+			{
+				iterators[i].advance(candidates[c]);
+				cursors[i] = iterators[i].index();
+				counts[i] = entries[i].getPositions(cursors[i], positions[i]);
+				if (counts[i] > positions[i].length)
+				{
+					positions[i] = new int[counts[i]];
+					entries[i].getPositions(cursors[i], positions[i]);
+				} // if
+			} // for
+			if (containsPhrase(positions, counts))
+			{
+				candidates[found++] = candidates[c];
+			} // if
+		} // for
+
+		return Arrays.copyOf(candidates, found);
+	} // evaluate(Concordance)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns true if some start p in positions[0] has p+i in positions[i]
+	 * for every i.  Each row is sorted, so every row is walked only once.
+	 */
+	private static boolean containsPhrase(int[][] positions, int[] counts)
+	{
+		int[] next = new int[positions.length];
+		int start, target;
+		boolean matched;
+
+		for (int s = 0; s < counts[0]; s++)
+		{
+			start = positions[0][s];
+			matched = true;
+			for (int i = 1; i < positions.length && matched; i++)
+			{
+				target = start + i;
+				while (next[i] < counts[i] && positions[i][next[i]] < target)
+				{
+					next[i]++;
+				} // while
+				matched = next[i] < counts[i] && positions[i][next[i]] == target;
+			} // for
+			if (matched)
+			{
+				return true;
+			} // if
+		} // for
+		return false;
+	} // containsPhrase(int[][],int[])
+	//-------------------------------------------------------------------------
+} // class PhraseQuery
@@ -0,0 +1,247 @@
+
+import java.nio.*;
+
+/**
+ *  Reads the references of one HashEntry in order, returned by
+ *  HashEntry.iterator().
+ *
+ *  A compressed entry (see HashEntry.compress) is decoded as it is read,
+ *  one variable-length gap per reference, so nothing is copied.  advance()
+ *  moves to the first reference at or after a given verse; it jumps over
+ *  whole blocks of references with the entry's skip table and decodes
+ *  only the block it lands in, so intersecting a rare word with a common
+ *  one, or starting a page far into a long list, costs little more than
+ *  the references actually returned.  The gaps and skip table are read
+ *  through buffers, which wrap arrays for an entry built in memory or
+ *  slices of the file for one loaded from a snapshot (see
+ *  Concordance.load).
+ *
+ *  An iterator belongs to one thread, but any number of iterators may
+ *  read the same finished entry at once.
+ *
+ *  @author Max Sotsky
+ */
+
+public class PostingIterator
+{
+	/**
+	 * Returned by next() and advance() once the references are used up;
+	 * greater than every packed ID.
+	 */
+	public static final int NO_MORE = Integer.MAX_VALUE;
+
+	private int[] postings;      // packed references of an uncompressed entry, or null
+	private int count;
+	private ByteBuffer gaps;     // otherwise: gaps between verse numbers...
+	private IntBuffer skips;     // ...block k >= 1 starts at skips[2k-2], after verse skips[2k-1]
+	private int interval;        // references per block
+	private VerseStore verses;
+	private int index = -1;      // index of the current reference
+	private int current = -1;    // the current reference, packed
+	private int offset = 0;      // byte offset in gaps of the next reference
+	private int ordinal = -1;    // verse number of the current reference
+	//-------------------------------------------------------------------------
+	/**
+	 * Iterator over an uncompressed entry's packed references.
+	 */
+	PostingIterator(int[] inPostings, int inCount)
+	{
+		postings = inPostings;
+		count = inCount;
+	} // constructor PostingIterator(int[],int)
+	//-------------------------------------------------------------------------
+	/**
+	 * Iterator over a compressed entry (see HashEntry.compress).
+	 */
+	PostingIterator(ByteBuffer inGaps, IntBuffer inSkips, int inInterval, int inCount, VerseStore inVerses)
+	{
+		gaps = inGaps;
+		skips = inSkips;
+		interval = inInterval;
+		count = inCount;
+		verses = inVerses;
+	} // constructor PostingIterator(ByteBuffer,IntBuffer,int,int,VerseStore)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the number of references in the entry.
+	 */
+	public int size()
+	{
+		return count;
+	} // size()
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the index of the current reference: -1 before the first call
+	 * to next(), size() once the references are used up.
+	 */
+	public int index()
+	{
+		return index;
+	} // index()
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the verse number (see VerseStore) of the current reference
+	 * of a compressed entry, or -1 if the entry is not compressed.
+	 */
+	public int verseNumber()
+	{
+		return postings == null ? ordinal : -1;
+	} // verseNumber()
+	//-------------------------------------------------------------------------
+	public boolean hasNext()
+	{
+		return index + 1 < count;
+	} // hasNext()
+	//-------------------------------------------------------------------------
+	/**
+	 * Moves to the next reference and returns it (packed; see ID), or
+	 * NO_MORE if there is none.
+	 */
+	public int next()
+	{
+		if (index + 1 >= count)
+		{
+			index = count;
+			current = NO_MORE;
+			return NO_MORE;
+		} // if
+		index++;
+		if (postings != null)
+		{
+			current = postings[index];
+		} // if
+		else
+		{
+			ordinal += readGap();
+			current = verses.getID(ordinal);
+		} // else
+		return current;
+	} // next()
+	//-------------------------------------------------------------------------
+	/**
+	 * Moves to the first reference that is at least target (packed),
+	 * unless the current one already is, and returns it; NO_MORE if there
+	 * is none.  Never moves backwards.
+	 */
+	public int advance(int target)
+	{
+		int targetOrdinal, low, high, middle;
+
+		if (index >= 0 && current >= target)
+		{
+			return current;
+		} // if
+		if (postings != null)
+		{
+			index = HashEntry.gallop(postings, count, target, index + 1);
+			current = index < count ? postings[index] : NO_MORE;
+			return current;
+		} // if
+
+		// Jumps to the last block that starts after a verse before the target,
+		// if that is not the current one.
+		targetOrdinal = verses.ceilingOrdinal(target, ordinal + 1);
+		low = (index + 1) / interval;
+		high = (count - 1) / interval;
+		while (low < high && skips.get(2 * low + 1) < targetOrdinal)
+		{
+			// Block low+1 also starts before the target: look further.
+			middle = (low + 1 + high + 1) >>> 1;
+			if (skips.get(2 * middle - 1) < targetOrdinal)
+			{
+				low = middle;
+			} // if
+			else
+			{
+				low++;
+				high = middle - 1;
+			} // else
+		} // while
+		if (low > (index + 1) / interval)
+		{
+			jumpToBlock(low);
+		} // if
+
+		while (index + 1 < count)
+		{
+			ordinal += readGap();
+			index++;
+			if (ordinal >= targetOrdinal)
+			{
+				current = verses.getID(ordinal);
+				return current;
+			} // if
+		} // while
+		index = count;
+		current = NO_MORE;
+		return NO_MORE;
+	} // advance(int)
+	//-------------------------------------------------------------------------
+	/**
+	 * Positions the iterator so that next() returns reference i (0 to
+	 * size()).  Moving backwards starts again from the first reference.
+	 */
+	public void skipTo(int i)
+	{
+		int block;
+
+		if (i < 0 || i > count)
+		{
+			throw new IndexOutOfBoundsException("Inside PostingIterator -- no reference " + i);
+		} // if
+		if (postings != null)
+		{
+			index = i - 1;
+			current = i > 0 ? postings[i - 1] : -1;
+			return;
+		} // if
+
+		if (i <= index)
+		{
+			index = -1;
+			current = -1;
+			offset = 0;
+			ordinal = -1;
+		} // if
+		block = Math.min(i, count - 1) / interval;
+		if (block > (index + 1) / interval)
+		{
+			jumpToBlock(block);
+		} // if
+		while (index < i - 1)
+		{
+			ordinal += readGap();
+			index++;
+		} // while
+		current = ordinal < 0 ? -1 : verses.getID(ordinal);
+	} // skipTo(int)
+	//-------------------------------------------------------------------------
+	/**
+	 * Positions a compressed iterator just before block k (k >= 1).
+	 */
+	private void jumpToBlock(int k)
+	{
+		offset = skips.get(2 * k - 2);
+		ordinal = skips.get(2 * k - 1);
+		index = k * interval - 1;
+		current = verses.getID(ordinal);
+	} // jumpToBlock(int)
+	//-------------------------------------------------------------------------
+	/**
+	 * Decodes the variable-length int at offset and moves past it.
+	 */
+	private int readGap()
+	{
+		int value = 0, shift = 0;
+		byte b;
+
+		do
+		{
+			b = gaps.get(offset++);
+			value |= (b & 0x7F) << shift;
+			shift += 7;
+		} while (b < 0);
+		return value;
+	} // readGap()
+	//-------------------------------------------------------------------------
+} // class PostingIterator
@@ -0,0 +1,25 @@
+import jdk.jfr.*;
+
+/**
+ *  Flight Recorder event for one query against a concordance: its kind
+ *  ("references", "query", "phrase", "wildcard" or "fuzzy"), its text and
+ *  the number of results.  The event's duration is the query's latency.
+ *
+ *  @author Max Sotsky
+ */
+
+@Name("concordance.Query")
+@Label("Concordance Query")
+@Category("Concordance")
+@StackTrace(false)
+public class QueryEvent extends Event
+{
+	@Label("Kind")
+	public String kind;
+
+	@Label("Text")
+	public String text;
+
+	@Label("Results")
+	public int results;
+} // class QueryEvent
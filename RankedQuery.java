@@ -0,0 +1,317 @@
+import java.util.*;
+
+/**
+ *  A free-text search that returns the k verses most relevant to a list
+ *  of words, best first, scored with Okapi BM25:
+ *
+ *      score(v) = sum over words w in v of
+ *                 idf(w) * tf * (K1+1) / (tf + K1 * (1 - B + B * length(v) / averageLength))
+ *
+ *  where tf is the number of times w occurs in v (see
+ *  HashEntry.getFrequency), length(v) the number of words in v (see
+ *  VerseStore.getWordCount), and idf(w) = ln(1 + (N - n + 0.5) / (n + 0.5))
+ *  for N verses of which n contain w.
+ *
+ *  The best k are kept in a bounded heap, and MaxScore pruning avoids
+ *  scoring most verses.  Each word's highest possible contribution is
+ *  known in advance (from its idf and its largest tf).  Once the heap is
+ *  full, the words whose bounds together cannot reach the k-th best score
+ *  stop driving the search: only verses containing one of the other
+ *  words are considered, and the common words' posting lists are then
+ *  only probed (see PostingIterator.advance) at those verses, jumping over
+ *  everything between.  A query such as "the love of god" therefore
+ *  costs little more than its rare words.
+ *
+ *  Words that do not occur are ignored.  Ties are broken in favour of the
+ *  earlier verse, so results do not depend on how the search was pruned.
+ *
+ *  @author Max Sotsky
+ */
+
+public class RankedQuery
+{
+	public static final double K1 = 1.2;
+	public static final double B = 0.75;
+
+	private String[] words;
+	//-------------------------------------------------------------------------
+	/**
+	 * @param  text  words separated by spaces
+	 */
+	public RankedQuery(String text) throws ConcordanceException
+	{
+		words = text.trim().split("\\s+");
+		if (words.length == 0 || words[0].equals(""))
+		{
+			throw new ConcordanceException("Inside RankedQuery -- empty query");
+		} // if
+	} // constructor RankedQuery(String)
+	//-------------------------------------------------------------------------
+	/**
+	 * Finds the k highest-scoring verses of a concordance.
+	 *
+	 * @return  at most k verses, best first
+	 */
+	public ScoredVerse[] evaluate(Concordance concord, int k)
+	{
+		VerseStore verses = concord.getVerseStore();
+		double verseCount = Math.max(1, verses.size());
+		double averageLength = Math.max(1.0, (double) concord.getWordCount() / verseCount);
+		ArrayList<HashEntry> entries = new ArrayList<HashEntry>();
+		HashEntry entry;
+		HashEntry[] terms;
+		PostingIterator[] iterators;
+		double[] idfs, bounds, cumulative;
+		Integer[] order;
+		int[] current;
+		TopVerses top;
+		int n, essential = 0, verse;
+		long postingTotal;
+		double score;
+
+		for (String word : words)
+		{
+			entry = concord.lookup(word);
+			if (entry != null && !entries.contains(entry))
+			{
+				entries.add(entry);
+			} // if
+		} // for
+		if (entries.isEmpty() || k <= 0)
+		{
+			return new ScoredVerse[0];
+		} // if
+
+		// Words in increasing order of their highest possible contribution.
+		// (The bound takes the verse to be as short as possible.)
+		n = entries.size();
+		order = new Integer[n];
+		for (int i = 0; i < n; i++)
+		{
+			order[i] = i;
+		} // for
+		Arrays.sort(order, Comparator.comparingDouble(i -> bound(entries.get(i), verseCount)));
+		terms = new HashEntry[n];
+		idfs = new double[n];
+		bounds = new double[n];
+		for (int i = 0; i < n; i++)
+		{
+			terms[i] = entries.get(order[i]);
+			idfs[i] = idf(terms[i], verseCount);
+			bounds[i] = bound(terms[i], verseCount);
+		} // for
+		cumulative = new double[n];   // cumulative[i]: bounds of words 0...i together
+		for (int i = 0; i < n; i++)
+		{
+			cumulative[i] = bounds[i] + (i > 0 ? cumulative[i - 1] : 0);
+		} // for
+
+		iterators = new PostingIterator[n];
+		current = new int[n];
+		for (int i = 0; i < n; i++)
+		{
+			iterators[i] = terms[i].iterator();
+			current[i] = iterators[i].next();
+		} // for
+		postingTotal = 0;
+		for (HashEntry term : terms)
+		{
+			postingTotal += term.size();
+		} // for
+		top = new TopVerses((int) Math.min(k, postingTotal));
+
+		// Words 0...essential-1 cannot make the top k on their own: only
+		// verses with one of the others are scored.
+		while (essential < n)
+		{
+			verse = PostingIterator.NO_MORE;
+			for (int i = essential; i < n; i++)
+			{
+				verse = Math.min(verse, current[i]);
+			} // for
+			if (verse == PostingIterator.NO_MORE)
+			{
+				break;
+			} // if
+
+			score = 0;
+			for (int i = essential; i < n; i++)
+			{
+				if (current[i] == verse)
+				{
+					score += contribution(terms[i], iterators[i], verse, idfs[i], verses, averageLength);
+					current[i] = iterators[i].next();
+				} // if
+			} // for
+			for (int i = essential - 1; i >= 0 && score + cumulative[i] >= top.threshold(); i--)
+			{
+				if (current[i] < verse)
+				{
+					current[i] = iterators[i].advance(verse);
+				} // if
+				if (current[i] == verse)
+				{
+					score += contribution(terms[i], iterators[i], verse, idfs[i], verses, averageLength);
+				} // if
+			} // for
+
+			if (top.offer(verse, score))
+			{
+				while (essential < n && cumulative[essential] < top.threshold())
+				{
+					essential++;
+				} // while
+			} // if
+		} // while
+
+		return top.toArray();
+	} // evaluate(Concordance,int)
+	//-------------------------------------------------------------------------
+	private static double idf(HashEntry term, double verseCount)
+	{
+		return Math.log(1 + (verseCount - term.size() + 0.5) / (term.size() + 0.5));
+	} // idf(HashEntry,double)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the most a word can add to the score of any verse.
+	 */
+	private static double bound(HashEntry term, double verseCount)
+	{
+		int tf = term.getMaxFrequency();
+		return idf(term, verseCount) * tf * (K1 + 1) / (tf + K1 * (1 - B));
+	} // bound(HashEntry,double)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the BM25 contribution of a word to verse, the reference its
+	 * iterator is on.
+	 */
+	private static double contribution(HashEntry term, PostingIterator iterator, int verse, double idf, VerseStore verses, double averageLength)
+	{
+		int tf = term.getFrequency(iterator.index());
+		int ordinal = iterator.verseNumber() >= 0 ? iterator.verseNumber() : verses.ordinalOf(verse);
+		double length = ordinal < 0 ? averageLength : verses.getWordCount(ordinal);
+
+		return idf * tf * (K1 + 1) / (tf + K1 * (1 - B + B * length / averageLength));
+	} // contribution(HashEntry,PostingIterator,int,double,VerseStore,double)
+	//-------------------------------------------------------------------------
+	/**
+	 * The k best verses seen so far, in a min-heap with the worst on top.
+	 */
+	private static class TopVerses
+	{
+		private int[] ids;
+		private double[] scores;
+		private int size = 0;
+		//---------------------------------------------------------------------
+		TopVerses(int k)
+		{
+			ids = new int[k];
+			scores = new double[k];
+		} // constructor TopVerses(int)
+		//---------------------------------------------------------------------
+		/**
+		 * Returns the score a verse must reach to be kept: the k-th best
+		 * once there are k, 0 before.
+		 */
+		double threshold()
+		{
+			return size < ids.length ? 0 : scores[0];
+		} // threshold()
+		//---------------------------------------------------------------------
+		/**
+		 * Keeps the verse if it is among the k best so far; returns true if
+		 * threshold() may have risen.
+		 */
+		boolean offer(int id, double score)
+		{
+			if (size < ids.length)
+			{
+				ids[size] = id;
+				scores[size] = score;
+				siftUp(size++);
+				return size == ids.length;
+			} // if
+			if (!worse(ids[0], scores[0], id, score))
+			{
+				return false;
+			} // if
+			ids[0] = id;
+			scores[0] = score;
+			siftDown(0);
+			return true;
+		} // offer(int,double)
+		//---------------------------------------------------------------------
+		/**
+		 * Returns true if verse a ranks below verse b: a lower score, or the
+		 * same score and a later verse.
+		 */
+		private static boolean worse(int idA, double scoreA, int idB, double scoreB)
+		{
+			return scoreA < scoreB || (scoreA == scoreB && idA > idB);
+		} // worse(int,double,int,double)
+		//---------------------------------------------------------------------
+		private void siftUp(int i)
+		{
+			int parent;
+
+			while (i > 0)
+			{
+				parent = (i - 1) / 2;
+				if (!worse(ids[i], scores[i], ids[parent], scores[parent]))
+				{
+					return;
+				} // if
+				swap(i, parent);
+				i = parent;
+			} // while
+		} // siftUp(int)
+		//---------------------------------------------------------------------
+		private void siftDown(int i)
+		{
+			int child;
+
+			while ((child = 2 * i + 1) < size)
+			{
+				if (child + 1 < size && worse(ids[child + 1], scores[child + 1], ids[child], scores[child]))
+				{
+					child++;
+				} // if
+				if (!worse(ids[child], scores[child], ids[i], scores[i]))
+				{
+					return;
+				} // if
+				swap(i, child);
+				i = child;
+			} // while
+		} // siftDown(int)
+		//---------------------------------------------------------------------
+		private void swap(int i, int j)
+		{
+			int id = ids[i];
+			double score = scores[i];
+
+			ids[i] = ids[j];
+			scores[i] = scores[j];
+			ids[j] = id;
+			scores[j] = score;
+		} // swap(int,int)
+		//---------------------------------------------------------------------
+		/**
+		 * Returns the verses kept, best first.
+		 */
+		ScoredVerse[] toArray()
+		{
+			ScoredVerse[] result = new ScoredVerse[size];
+
+			for (int i = size - 1; i >= 0; i--)
+			{
+				result[i] = new ScoredVerse(ids[0], scores[0]);
+				swap(0, --size);
+				siftDown(0);
+			} // for
+			return result;
+		} // toArray()
+		//---------------------------------------------------------------------
+	} // class TopVerses
+	//-------------------------------------------------------------------------
+} // class RankedQuery
@@ -0,0 +1,220 @@
+import java.util.*;
+
+/**
+ *  A read-only view of a finished Concordance that any number of threads
+ *  may query at once, without locking.
+ *
+ *  A Concordance is filled in by its constructor (or by load()); the only
+ *  public method that changes it afterwards is append(), which refuses to
+ *  run once a view of the concordance has been created, so the counters
+ *  and book names copied here stay true.  Every query method works only
+ *  on local variables and caller-owned buffers.  What it lacks is a
+ *  guarantee that another thread sees the finished table rather than a
+ *  partly written one.  This class gives that guarantee: everything is
+ *  reached through final fields, so by the Java memory model any thread
+ *  that obtains a ReadOnlyConcordance, however it was handed over, sees
+ *  the concordance exactly as it was when the view was constructed.  Only
+ *  the read methods are exposed.
+ *
+ *  @author Max Sotsky
+ */
+
+public final class ReadOnlyConcordance
+{
+	private final Concordance concord;
+	private final List<String> bookNames;
+	private final int wordCount, distinctWordCount, verseCount, chapterCount;
+	private final CorpusStatistics statistics;
+	//-------------------------------------------------------------------------
+	/**
+	 * @param  inConcord  a fully built concordance; append() on it fails from now on
+	 */
+	public ReadOnlyConcordance(Concordance inConcord)
+	{
+		inConcord.freeze();
+		concord = inConcord;
+		bookNames = Collections.unmodifiableList(new ArrayList<String>(inConcord.getBookNames()));
+		wordCount = inConcord.getWordCount();
+		distinctWordCount = inConcord.getDistinctWordCount();
+		verseCount = inConcord.getVerseCount();
+		chapterCount = inConcord.getChapterCount();
+		statistics = inConcord.getStatistics();
+	} // constructor ReadOnlyConcordance(Concordance)
+	//-------------------------------------------------------------------------
+	public int getWordCount()
+	{
+		return wordCount;
+	} // getWordCount()
+	//-------------------------------------------------------------------------
+	public int getDistinctWordCount()
+	{
+		return distinctWordCount;
+	} // getDistinctWordCount()
+	//-------------------------------------------------------------------------
+	public int getVerseCount()
+	{
+		return verseCount;
+	} // getVerseCount()
+	//-------------------------------------------------------------------------
+	public int getChapterCount()
+	{
+		return chapterCount;
+	} // getChapterCount()
+	//-------------------------------------------------------------------------
+	public List<String> getBookNames()
+	{
+		return bookNames;
+	} // getBookNames()
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the "Book C:V" references of word, or an empty array if it does
+	 * not occur (see Concordance.references).  The array may be shared and
+	 * must not be modified.
+	 */
+	public String[] references(String word)
+	{
+		return concord.references(word);
+	} // references(String)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the concordance's result cache, or null if it has none.
+	 */
+	public ResultCache getResultCache()
+	{
+		return concord.getResultCache();
+	} // getResultCache()
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the concordance's table, build and query measurements.
+	 */
+	public ConcordanceMetrics getMetrics()
+	{
+		return concord.getMetrics();
+	} // getMetrics()
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the concordance's word statistics, or null if they had not
+	 * been computed when this view was constructed.
+	 */
+	public CorpusStatistics getStatistics()
+	{
+		return statistics;
+	} // getStatistics()
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the number of verses word occurs in, without formatting them.
+	 */
+	public int count(String word)
+	{
+		return concord.count(word);
+	} // count(String)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns a cursor over the verses containing word (see ResultCursor).
+	 * Each cursor belongs to one thread, but any number may be open at once.
+	 */
+	public ResultCursor cursor(String word)
+	{
+		return concord.cursor(word);
+	} // cursor(String)
+	//-------------------------------------------------------------------------
+	public ResultCursor cursor(int[] packedIDs)
+	{
+		return concord.cursor(packedIDs);
+	} // cursor(int[])
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns a cursor over the verses containing word from fromID through
+	 * toID, packed (see Concordance.cursor(String,int,int)).
+	 */
+	public ResultCursor cursor(String word, int fromID, int toID)
+	{
+		return concord.cursor(word, fromID, toID);
+	} // cursor(String,int,int)
+	//-------------------------------------------------------------------------
+	public ResultCursor cursor(String word, String fromBook, String toBook) throws ConcordanceException
+	{
+		return concord.cursor(word, fromBook, toBook);
+	} // cursor(String,String,String)
+	//-------------------------------------------------------------------------
+	public ResultCursor cursor(String word, String book, int fromChapter, int toChapter) throws ConcordanceException
+	{
+		return concord.cursor(word, book, fromChapter, toChapter);
+	} // cursor(String,String,int,int)
+	//-------------------------------------------------------------------------
+	public int getBookNumber(String name)
+	{
+		return concord.getBookNumber(name);
+	} // getBookNumber(String)
+	//-------------------------------------------------------------------------
+	/**
+	 * Like references(String), with each verse's text in context (see
+	 * Concordance.keywordInContext).
+	 */
+	public String[] contexts(String word, int width)
+	{
+		String[] results = concord.formatContexts(concord.search(word), width);
+		return results == null ? new String[0] : results;
+	} // contexts(String,int)
+	//-------------------------------------------------------------------------
+	public int search(String word)
+	{
+		return concord.search(word);
+	} // search(String)
+	//-------------------------------------------------------------------------
+	public String[] formatIDs(int index)
+	{
+		return concord.formatIDs(index);
+	} // formatIDs(int)
+	//-------------------------------------------------------------------------
+	public String[] formatReferences(int[] packedIDs)
+	{
+		return concord.formatReferences(packedIDs);
+	} // formatReferences(int[])
+	//-------------------------------------------------------------------------
+	public String[] formatContexts(int[] packedIDs, int width, String... words)
+	{
+		return concord.formatContexts(packedIDs, width, words);
+	} // formatContexts(int[],int,String...)
+	//-------------------------------------------------------------------------
+	public String getVerseText(int packedID)
+	{
+		return concord.getVerseText(packedID);
+	} // getVerseText(int)
+	//-------------------------------------------------------------------------
+	public int[] query(String query) throws ConcordanceException
+	{
+		return concord.query(query);
+	} // query(String)
+	//-------------------------------------------------------------------------
+	public int[] phraseSearch(String phrase) throws ConcordanceException
+	{
+		return concord.phraseSearch(phrase);
+	} // phraseSearch(String)
+	//-------------------------------------------------------------------------
+	public ScoredVerse[] rankedSearch(String text, int k) throws ConcordanceException
+	{
+		return concord.rankedSearch(text, k);
+	} // rankedSearch(String,int)
+	//-------------------------------------------------------------------------
+	public boolean hasPositionalIndex()
+	{
+		return concord.hasPositionalIndex();
+	} // hasPositionalIndex()
+	//-------------------------------------------------------------------------
+	public TermMatch[] matchTerms(String pattern)
+	{
+		return concord.matchTerms(pattern);
+	} // matchTerms(String)
+	//-------------------------------------------------------------------------
+	public int[] wildcardSearch(String pattern)
+	{
+		return concord.wildcardSearch(pattern);
+	} // wildcardSearch(String)
+	//-------------------------------------------------------------------------
+	public TermMatch[] fuzzySearch(String word, int maxDistance, int limit)
+	{
+		return concord.fuzzySearch(word, maxDistance, limit);
+	} // fuzzySearch(String,int,int)
+	//-------------------------------------------------------------------------
+} // class ReadOnlyConcordance
@@ -0,0 +1,233 @@
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ *  Bounded least-recently-used cache of formatted search results, keyed on
+ *  the lowercased word, so that a repeated query for a common word costs
+ *  one map lookup instead of a table search and thousands of new "Book C:V"
+ *  Strings.
+ *
+ *  The cache can be bounded by number of entries, by approximate memory
+ *  (see weigh()), or both.  To let many threads use it at once it is split
+ *  into segments chosen by the word's hash, each an access-ordered
+ *  LinkedHashMap with its own lock and its own share of the bounds, so the
+ *  least recently used entry of a segment is evicted first.  Hits, misses
+ *  and evictions are counted without locking.
+ *
+ *  Cached arrays are shared between callers and must not be modified.
+ *
+ *  @author Max Sotsky
+ */
+
+public class ResultCache
+{
+	private Segment[] segments;
+	private int segmentMask;
+	private LongAdder hits = new LongAdder();
+	private LongAdder misses = new LongAdder();
+	private LongAdder evictions = new LongAdder();
+	//-------------------------------------------------------------------------
+	/**
+	 * @param  maxEntries  most entries kept, or 0 for no limit on entries
+	 * @param  maxBytes    most bytes kept (approximately), or 0 for no limit on memory
+	 */
+	public ResultCache(int maxEntries, long maxBytes)
+	{
+		int segmentCount;
+
+		if (maxEntries < 0 || maxBytes < 0 || (maxEntries == 0 && maxBytes == 0))
+		{
+			throw new IllegalArgumentException("Inside ResultCache -- give a positive entry or byte limit");
+		} // if
+
+		// Small caches get one segment so that LRU order is exact.
+		segmentCount = (maxEntries != 0 && maxEntries < 256) ? 1 : 16;
+		segments = new Segment[segmentCount];
+		segmentMask = segmentCount - 1;
+		for (int i = 0; i < segmentCount; i++)
+		{
+			segments[i] = new Segment((maxEntries + segmentCount - 1) / segmentCount, (maxBytes + segmentCount - 1) / segmentCount);
+		} // for
+	} // constructor ResultCache(int,long)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the cached results for word (already lowercased), or null.
+	 */
+	public String[] get(String word)
+	{
+		Segment segment = segmentFor(word);
+		String[] value;
+
+		synchronized (segment)
+		{
+			value = segment.map.get(word);
+		} // synchronized
+		if (value == null)
+		{
+			misses.increment();
+		} // if
+		else
+		{
+			hits.increment();
+		} // else
+		return value;
+	} // get(String)
+	//-------------------------------------------------------------------------
+	/**
+	 * Caches results for word (already lowercased), evicting the least
+	 * recently used entries of its segment as needed.  Results too large for
+	 * a segment on their own are not cached.
+	 */
+	public void put(String word, String[] results)
+	{
+		Segment segment = segmentFor(word);
+		long weight = weigh(word, results);
+		String[] previous;
+		Iterator<Map.Entry<String, String[]>> eldest;
+		Map.Entry<String, String[]> entry;
+
+		if (segment.maxBytes != 0 && weight > segment.maxBytes)
+		{
+			return;
+		} // if
+
+		synchronized (segment)
+		{
+			previous = segment.map.put(word, results);
+			if (previous != null)
+			{
+				segment.bytes -= weigh(word, previous);
+			} // if
+			segment.bytes += weight;
+
+			eldest = segment.map.entrySet().iterator();
+			while ((segment.maxEntries != 0 && segment.map.size() > segment.maxEntries)
+					|| (segment.maxBytes != 0 && segment.bytes > segment.maxBytes))
+			{
+				entry = eldest.next();
+				segment.bytes -= weigh(entry.getKey(), entry.getValue());
+				eldest.remove();
+				evictions.increment();
+			} // while
+		} // synchronized
+	} // put(String,String[])
+	//-------------------------------------------------------------------------
+	/**
+	 * Removes every entry (the counters are kept).
+	 */
+	public void clear()
+	{
+		for (Segment segment : segments)
+		{
+			synchronized (segment)
+			{
+				segment.map.clear();
+				segment.bytes = 0;
+			} // synchronized
+		} // for
+	} // clear()
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the number of entries currently cached.
+	 */
+	public int size()
+	{
+		int size = 0;
+
+		for (Segment segment : segments)
+		{
+			synchronized (segment)
+			{
+				size += segment.map.size();
+			} // synchronized
+		} // for
+		return size;
+	} // size()
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the approximate number of bytes currently cached.
+	 */
+	public long getBytes()
+	{
+		long bytes = 0;
+
+		for (Segment segment : segments)
+		{
+			synchronized (segment)
+			{
+				bytes += segment.bytes;
+			} // synchronized
+		} // for
+		return bytes;
+	} // getBytes()
+	//-------------------------------------------------------------------------
+	public long getHitCount()
+	{
+		return hits.sum();
+	} // getHitCount()
+	//-------------------------------------------------------------------------
+	public long getMissCount()
+	{
+		return misses.sum();
+	} // getMissCount()
+	//-------------------------------------------------------------------------
+	public long getEvictionCount()
+	{
+		return evictions.sum();
+	} // getEvictionCount()
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns hits / (hits + misses), or 0 before the first lookup.
+	 */
+	public double getHitRate()
+	{
+		long h = hits.sum(), total = h + misses.sum();
+		return total == 0 ? 0.0 : (double) h / total;
+	} // getHitRate()
+	//-------------------------------------------------------------------------
+	public String toString()
+	{
+		return String.format("%d entries, ~%d bytes, %d hits, %d misses (%.1f%% hit rate), %d evictions",
+				size(), getBytes(), getHitCount(), getMissCount(), 100.0 * getHitRate(), getEvictionCount());
+	} // toString()
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the approximate heap size of a cached entry: the key, the
+	 * array and its Strings (object headers and Latin-1 byte arrays of a
+	 * 64-bit JVM with compressed references), plus the map's own entry.
+	 */
+	static long weigh(String word, String[] results)
+	{
+		long bytes = 64 + 40 + word.length() + 16 + 4L * results.length;
+
+		for (String result : results)
+		{
+			bytes += 40 + result.length();
+		} // for
+		return bytes;
+	} // weigh(String,String[])
+	//-------------------------------------------------------------------------
+	private Segment segmentFor(String word)
+	{
+		int h = word.hashCode();
+		return segments[(h ^ (h >>> 16)) & segmentMask];
+	} // segmentFor(String)
+	//-------------------------------------------------------------------------
+	/**
+	 * One lock's worth of the cache.
+	 */
+	private static class Segment
+	{
+		final LinkedHashMap<String, String[]> map = new LinkedHashMap<String, String[]>(16, 0.75f, true);
+		final int maxEntries;
+		final long maxBytes;
+		long bytes = 0;
+
+		Segment(int inMaxEntries, long inMaxBytes)
+		{
+			maxEntries = inMaxEntries;
+			maxBytes = inMaxBytes;
+		} // constructor Segment(int,long)
+	} // class Segment
+	//-------------------------------------------------------------------------
+} // class ResultCache
@@ -0,0 +1,176 @@
+import java.util.*;
+
+/**
+ *  A forward-only cursor over the verses a search found, returned by
+ *  Concordance.cursor().
+ *
+ *  Nothing is copied or formatted in advance: the cursor reads packed IDs
+ *  straight from the word's posting list (or from a query's result array)
+ *  and builds a "Book C:V" String only when nextReference() is called.
+ *  getCount() is known at once, so a count-only query costs one table
+ *  lookup, and page() restricts the cursor to one page of results so that
+ *  only that page is ever formatted.  A cursor may also cover only the
+ *  references in a range of books or chapters (see Concordance.cursor).
+ *
+ *  @author Max Sotsky
+ */
+
+public class ResultCursor
+{
+	private Concordance concord;
+	private HashEntry entry;    // the posting list read, or null...
+	private PostingIterator postings;   // (reading entry)
+	private int[] packedIDs;    // ...when reading a result array instead
+	private int count;          // results in the whole list (or range)
+	private int first;          // index in the posting list of result 0
+	private int position;       // index of the next result
+	private int end;            // index after the last result of this cursor
+	//-------------------------------------------------------------------------
+	/**
+	 * Cursor over every reference of a table entry (null for no results).
+	 */
+	ResultCursor(Concordance inConcord, HashEntry inEntry)
+	{
+		concord = inConcord;
+		entry = inEntry;
+		count = inEntry == null ? 0 : inEntry.size();
+		end = count;
+		if (inEntry != null)
+		{
+			postings = inEntry.iterator();
+		} // if
+	} // constructor ResultCursor(Concordance,HashEntry)
+	//-------------------------------------------------------------------------
+	/**
+	 * Cursor over the references of a table entry (null for no results)
+	 * from fromID through toID, packed.  The posting list is sorted, so
+	 * these are consecutive; two calls to advance() find where they start
+	 * and end, jumping over whole blocks before the range.
+	 */
+	ResultCursor(Concordance inConcord, HashEntry inEntry, int fromID, int toID)
+	{
+		concord = inConcord;
+		entry = inEntry;
+		if (inEntry == null || fromID > toID)
+		{
+			return;
+		} // if
+		postings = inEntry.iterator();
+		postings.advance(fromID);
+		first = postings.index();
+		if (toID < Integer.MAX_VALUE)
+		{
+			postings.advance(toID + 1);
+		} // if
+		end = toID < Integer.MAX_VALUE ? postings.index() : inEntry.size();
+		count = end - first;
+		position = first;
+		postings.skipTo(first);
+	} // constructor ResultCursor(Concordance,HashEntry,int,int)
+	//-------------------------------------------------------------------------
+	/**
+	 * Cursor over packed IDs such as those returned by query().
+	 */
+	ResultCursor(Concordance inConcord, int[] inPackedIDs)
+	{
+		concord = inConcord;
+		packedIDs = inPackedIDs;
+		count = inPackedIDs.length;
+		end = count;
+	} // constructor ResultCursor(Concordance,int[])
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the total number of results, regardless of paging or of how
+	 * far the cursor has advanced.
+	 */
+	public int getCount()
+	{
+		return count;
+	} // getCount()
+	//-------------------------------------------------------------------------
+	/**
+	 * Restricts this cursor to at most limit results starting offset results
+	 * after its current position, and returns it.
+	 *
+	 * @param  offset  results to skip (0 for the first page)
+	 * @param  limit   results per page
+	 */
+	public ResultCursor page(int offset, int limit)
+	{
+		if (offset < 0 || limit < 0)
+		{
+			throw new IllegalArgumentException("Inside ResultCursor -- offset and limit must not be negative");
+		} // if
+		position = (int) Math.min(end, (long) position + offset);
+		end = (int) Math.min(end, (long) position + limit);
+		if (postings != null)
+		{
+			postings.skipTo(position);
+		} // if
+		return this;
+	} // page(int,int)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the number of results still to be read by this cursor.
+	 */
+	public int remaining()
+	{
+		return end - position;
+	} // remaining()
+	//-------------------------------------------------------------------------
+	public boolean hasNext()
+	{
+		return position < end;
+	} // hasNext()
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the next result as a packed ID (see ID) and advances.
+	 */
+	public int nextID()
+	{
+		if (position >= end)
+		{
+			throw new NoSuchElementException("Inside ResultCursor -- no more results");
+		} // if
+		position++;
+		return entry != null ? postings.next() : packedIDs[position - 1];
+	} // nextID()
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the next result as "Book C:V" and advances.
+	 */
+	public String nextReference()
+	{
+		return concord.formatReference(nextID());
+	} // nextReference()
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns result i of the whole list (0 to getCount()-1) as a packed ID,
+	 * whatever the cursor's position or page; for views that fetch rows in
+	 * any order, such as a scrolling list.
+	 */
+	public int getID(int i)
+	{
+		if (i < 0 || i >= count)
+		{
+			throw new IndexOutOfBoundsException("Inside ResultCursor -- no result " + i);
+		} // if
+		return entry != null ? entry.getPosting(first + i) : packedIDs[i];
+	} // getID(int)
+	//-------------------------------------------------------------------------
+	/**
+	 * Formats the remaining results of this cursor, e.g. one page after
+	 * page(), and advances past them.
+	 */
+	public String[] toReferences()
+	{
+		String[] references = new String[remaining()];
+
+		for (int i = 0; i < references.length; i++)
+		{
+			references[i] = nextReference();
+		} // for
+		return references;
+	} // toReferences()
+	//-------------------------------------------------------------------------
+} // class ResultCursor
@@ -0,0 +1,41 @@
+
+/**
+ *  A verse returned by a ranked search (see RankedQuery), with its BM25
+ *  score.
+ *
+ *  @author Max Sotsky
+ */
+
+public class ScoredVerse
+{
+	private int packedID;
+	private double score;
+	//-------------------------------------------------------------------------
+	public ScoredVerse(int inPackedID, double inScore)
+	{
+		packedID = inPackedID;
+		score = inScore;
+	} // constructor ScoredVerse(int,double)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the verse as a packed ID (see ID).
+	 */
+	public int getID()
+	{
+		return packedID;
+	} // getID()
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the verse's score: higher is more relevant.
+	 */
+	public double getScore()
+	{
+		return score;
+	} // getScore()
+	//-------------------------------------------------------------------------
+	public String toString()
+	{
+		return ID.bookOf(packedID) + " " + ID.chapterOf(packedID) + ":" + ID.verseOf(packedID) + " (" + String.format("%.3f", score) + ")";
+	} // toString()
+	//-------------------------------------------------------------------------
+} // class ScoredVerse
@@ -0,0 +1,193 @@
+import java.util.*;
+
+/**
+ *  The merged results of one ShardedConcordance query: every matching
+ *  verse of every shard that answered, in shard order and, within a
+ *  shard, in book/chapter/verse order, together with what happened on
+ *  each shard.
+ *
+ *  A shard that did not answer in time, or failed, contributes no
+ *  results; isPartial() tells the caller so, and getStatus() and
+ *  getError() say which shards and why.
+ *
+ *  @author Max Sotsky
+ */
+
+public class ShardResults
+{
+	/**
+	 * What happened to the query on one shard.
+	 */
+	public enum Status { COMPLETE, TIMED_OUT, FAILED }
+
+	private String[] shardNames;
+	private ReadOnlyConcordance[] shards;
+	private Status[] statuses;
+	private String[] errors;
+	private long[] shardNanos;
+	private int[] starts;        // shard s's results are packedIDs[starts[s]...starts[s+1]-1]
+	private int[] packedIDs;
+	//-------------------------------------------------------------------------
+	/**
+	 * @param  inResults  each shard's sorted packed IDs, or null if it has none
+	 */
+	ShardResults(String[] inShardNames, ReadOnlyConcordance[] inShards, int[][] inResults,
+			Status[] inStatuses, String[] inErrors, long[] inShardNanos)
+	{
+		int total = 0;
+
+		shardNames = inShardNames;
+		shards = inShards;
+		statuses = inStatuses;
+		errors = inErrors;
+		shardNanos = inShardNanos;
+		starts = new int[shards.length + 1];
+		for (int s = 0; s < shards.length; s++)
+		{
+			starts[s] = total;
+			total += inResults[s] == null ? 0 : inResults[s].length;
+		} // for
+		starts[shards.length] = total;
+
+		packedIDs = new int[total];
+		for (int s = 0; s < shards.length; s++)
+		{
+			if (inResults[s] != null)
+			{
+				System.arraycopy(inResults[s], 0, packedIDs, starts[s], inResults[s].length);
+			} // if
+		} // for
+	} // constructor ShardResults(String[],ReadOnlyConcordance[],int[][],Status[],String[],long[])
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the number of results from all shards that answered.
+	 */
+	public int getCount()
+	{
+		return packedIDs.length;
+	} // getCount()
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns true if some shard timed out or failed, so that results may
+	 * be missing.
+	 */
+	public boolean isPartial()
+	{
+		for (Status status : statuses)
+		{
+			if (status != Status.COMPLETE)
+			{
+				return true;
+			} // if
+		} // for
+		return false;
+	} // isPartial()
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the shard that result i (0 to getCount()-1) comes from.
+	 */
+	public int getShard(int i)
+	{
+		int low = 0, high = shards.length - 1, middle;
+
+		if (i < 0 || i >= packedIDs.length)
+		{
+			throw new IndexOutOfBoundsException("Inside ShardResults -- no result " + i);
+		} // if
+		// Last shard whose first result is at or before i.
+		while (low < high)
+		{
+			middle = (low + high + 1) >>> 1;
+			if (starts[middle] <= i)
+			{
+				low = middle;
+			} // if
+			else
+			{
+				high = middle - 1;
+			} // else
+		} // while
+		return low;
+	} // getShard(int)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns result i as a packed ID (see ID) within its shard.
+	 */
+	public int getID(int i)
+	{
+		if (i < 0 || i >= packedIDs.length)
+		{
+			throw new IndexOutOfBoundsException("Inside ShardResults -- no result " + i);
+		} // if
+		return packedIDs[i];
+	} // getID(int)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns result i as "shard: Book C:V".
+	 */
+	public String getReference(int i)
+	{
+		int shard = getShard(i);
+		return shardNames[shard] + ": " + shards[shard].formatReferences(new int[] { packedIDs[i] })[0];
+	} // getReference(int)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns every result as "shard: Book C:V", in order.
+	 */
+	public String[] toReferences()
+	{
+		String[] references = new String[packedIDs.length];
+		String[] formatted;
+
+		for (int s = 0; s < shards.length; s++)
+		{
+			formatted = shards[s].formatReferences(getIDs(s));
+			for (int i = 0; i < formatted.length; i++)
+			{
+				references[starts[s] + i] = shardNames[s] + ": " + formatted[i];
+			} // for
+		} // for
+		return references;
+	} // toReferences()
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns a copy of shard s's results as packed IDs, in order.
+	 */
+	public int[] getIDs(int shard)
+	{
+		return Arrays.copyOfRange(packedIDs, starts[shard], starts[shard + 1]);
+	} // getIDs(int)
+	//-------------------------------------------------------------------------
+	public int getShardCount()
+	{
+		return shards.length;
+	} // getShardCount()
+	//-------------------------------------------------------------------------
+	public String getShardName(int shard)
+	{
+		return shardNames[shard];
+	} // getShardName(int)
+	//-------------------------------------------------------------------------
+	public Status getStatus(int shard)
+	{
+		return statuses[shard];
+	} // getStatus(int)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns why shard s failed, or null if it did not.
+	 */
+	public String getError(int shard)
+	{
+		return errors[shard];
+	} // getError(int)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns how long shard s took to answer, in nanoseconds (the time
+	 * waited, for a shard that timed out).
+	 */
+	public long getShardNanos(int shard)
+	{
+		return shardNanos[shard];
+	} // getShardNanos(int)
+	//-------------------------------------------------------------------------
+} // class ShardResults
@@ -0,0 +1,273 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ *  Several concordances (shards), e.g. one per translation or commentary,
+ *  searched as one.
+ *
+ *  Each query is sent to every shard at once, on its own thread, and the
+ *  answers are merged into one ShardResults in shard order and, within a
+ *  shard, in book/chapter/verse order, so the same query always gives
+ *  the same list.  A query therefore takes about as long as its slowest
+ *  shard rather than the sum of all of them.
+ *
+ *  A shard that has not answered within the timeout is left out and the
+ *  results are marked partial, as are those of a shard that fails.  Shard
+ *  work cannot be interrupted, so a shard that times out finishes in the
+ *  background and its answer is dropped.  An invalid query fails the
+ *  same way on every shard, and is thrown as a ConcordanceException.
+ *
+ *  Any number of threads may query a ShardedConcordance at once.
+ *
+ *  @author Max Sotsky
+ */
+
+public class ShardedConcordance implements AutoCloseable
+{
+	public static final long DEFAULT_TIMEOUT_MILLIS = 5000;
+
+	private final String[] shardNames;
+	private final ReadOnlyConcordance[] shards;
+	private final ExecutorService executor;
+	private volatile long timeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+	//-------------------------------------------------------------------------
+	/**
+	 * @param  inShardNames  one name per shard, used in references ("KJV: Genesis 1:1")
+	 * @param  inShards      the shards, in the order their results are listed
+	 */
+	public ShardedConcordance(List<String> inShardNames, List<ReadOnlyConcordance> inShards)
+	{
+		if (inShardNames.size() != inShards.size() || inShards.isEmpty())
+		{
+			throw new IllegalArgumentException("Inside ShardedConcordance -- need one name per shard, and at least one shard");
+		} // if
+		shardNames = inShardNames.toArray(new String[0]);
+		shards = inShards.toArray(new ReadOnlyConcordance[0]);
+		executor = ConcordServer.newRequestExecutor();
+	} // constructor ShardedConcordance(List,List)
+	//-------------------------------------------------------------------------
+	/**
+	 * Builds one shard per corpus file, all at once, and names each after
+	 * its file.
+	 */
+	public static ShardedConcordance build(List<File> corpora, BuildOptions options, PrintStream outPS) throws IOException, ConcordanceException
+	{
+		ExecutorService builders = Executors.newFixedThreadPool(Math.max(1, Math.min(corpora.size(), Runtime.getRuntime().availableProcessors())));
+		ArrayList<Future<Concordance>> futures = new ArrayList<Future<Concordance>>();
+		ArrayList<String> names = new ArrayList<String>();
+		ArrayList<ReadOnlyConcordance> shards = new ArrayList<ReadOnlyConcordance>();
+
+		try
+		{
+			for (File corpus : corpora)
+			{
+				futures.add(builders.submit(() -> new Concordance(corpus, options, outPS)));
+				names.add(corpus.getName());
+			} // for
+			for (Future<Concordance> future : futures)
+			{
+				shards.add(new ReadOnlyConcordance(future.get()));
+			} // for
+		} // try
+		catch(ExecutionException ee)
+		{
+			if (ee.getCause() instanceof ConcordanceException)
+			{
+				throw (ConcordanceException) ee.getCause();
+			} // if
+			if (ee.getCause() instanceof IOException)
+			{
+				throw (IOException) ee.getCause();
+			} // if
+			throw new RuntimeException(ee.getCause());
+		} // catch
+		catch(InterruptedException ie)
+		{
+			Thread.currentThread().interrupt();
+			throw new ConcordanceException("Inside ShardedConcordance.build -- interrupted");
+		} // catch
+		finally
+		{
+			builders.shutdownNow();
+		} // finally
+		return new ShardedConcordance(names, shards);
+	} // build(List,BuildOptions,PrintStream)
+	//-------------------------------------------------------------------------
+	/**
+	 * Sets how long a query waits for the shards, in milliseconds; 0 waits
+	 * for all of them however long they take.
+	 */
+	public void setTimeout(long inTimeoutMillis)
+	{
+		timeoutMillis = Math.max(0, inTimeoutMillis);
+	} // setTimeout(long)
+	//-------------------------------------------------------------------------
+	public long getTimeout()
+	{
+		return timeoutMillis;
+	} // getTimeout()
+	//-------------------------------------------------------------------------
+	public int getShardCount()
+	{
+		return shards.length;
+	} // getShardCount()
+	//-------------------------------------------------------------------------
+	public String getShardName(int shard)
+	{
+		return shardNames[shard];
+	} // getShardName(int)
+	//-------------------------------------------------------------------------
+	public ReadOnlyConcordance getShard(int shard)
+	{
+		return shards[shard];
+	} // getShard(int)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the total number of words in all shards.
+	 */
+	public long getWordCount()
+	{
+		long total = 0;
+
+		for (ReadOnlyConcordance shard : shards)
+		{
+			total += shard.getWordCount();
+		} // for
+		return total;
+	} // getWordCount()
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the verses of every shard containing word.
+	 */
+	public ShardResults search(String word) throws ConcordanceException
+	{
+		return scatter(shard ->
+		{
+			ResultCursor cursor = shard.cursor(word);
+			int[] packedIDs = new int[cursor.getCount()];
+			for (int i = 0; i < packedIDs.length; i++)
+			{
+				packedIDs[i] = cursor.nextID();
+			} // for
+			return packedIDs;
+		});
+	} // search(String)
+	//-------------------------------------------------------------------------
+	/**
+	 * Runs a boolean query (see Concordance.query) on every shard.
+	 */
+	public ShardResults query(String query) throws ConcordanceException
+	{
+		return scatter(shard -> shard.query(query));
+	} // query(String)
+	//-------------------------------------------------------------------------
+	/**
+	 * Runs a phrase search (see Concordance.phraseSearch) on every shard.
+	 * Every shard needs a positional index.
+	 */
+	public ShardResults phraseSearch(String phrase) throws ConcordanceException
+	{
+		return scatter(shard -> shard.phraseSearch(phrase));
+	} // phraseSearch(String)
+	//-------------------------------------------------------------------------
+	/**
+	 * Runs a wildcard search (see Concordance.wildcardSearch) on every shard.
+	 */
+	public ShardResults wildcardSearch(String pattern) throws ConcordanceException
+	{
+		return scatter(shard -> shard.wildcardSearch(pattern));
+	} // wildcardSearch(String)
+	//-------------------------------------------------------------------------
+	/**
+	 * Stops the query threads.  Queries already waiting get what has
+	 * arrived so far.
+	 */
+	public void close()
+	{
+		executor.shutdownNow();
+	} // close()
+	//-------------------------------------------------------------------------
+	/**
+	 * A query on one shard: returns its sorted packed IDs.
+	 */
+	private interface ShardQuery
+	{
+		int[] run(ReadOnlyConcordance shard) throws ConcordanceException;
+	} // interface ShardQuery
+	//-------------------------------------------------------------------------
+	/**
+	 * Starts query on every shard, then collects the answers that arrive
+	 * before the deadline.
+	 */
+	private ShardResults scatter(ShardQuery query) throws ConcordanceException
+	{
+		long startNanos = System.nanoTime(), timeout = timeoutMillis;
+		long deadline = startNanos + TimeUnit.MILLISECONDS.toNanos(timeout);
+		List<Future<int[]>> futures = new ArrayList<Future<int[]>>(shards.length);
+		int[][] results = new int[shards.length][];
+		ShardResults.Status[] statuses = new ShardResults.Status[shards.length];
+		String[] errors = new String[shards.length];
+		long[] shardNanos = new long[shards.length];
+		ConcordanceException invalid = null;
+		int invalidCount = 0;
+
+		for (int s = 0; s < shards.length; s++)
+		{
+			final int shard = s;
+			futures.add(executor.submit(() ->
+			{
+				int[] packedIDs = query.run(shards[shard]);
+				shardNanos[shard] = System.nanoTime() - startNanos;   // seen by get()
+				return packedIDs;
+			}));
+		} // for
+
+		for (int s = 0; s < shards.length; s++)
+		{
+			try
+			{
+				results[s] = timeout == 0 ? futures.get(s).get()
+						: futures.get(s).get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+				statuses[s] = ShardResults.Status.COMPLETE;
+			} // try
+			catch(TimeoutException te)
+			{
+				futures.get(s).cancel(true);
+				statuses[s] = ShardResults.Status.TIMED_OUT;
+				errors[s] = "no answer within " + timeout + " ms";
+				shardNanos[s] = System.nanoTime() - startNanos;
+			} // catch
+			catch(ExecutionException ee)
+			{
+				statuses[s] = ShardResults.Status.FAILED;
+				shardNanos[s] = System.nanoTime() - startNanos;
+				errors[s] = String.valueOf(ee.getCause().getMessage());
+				if (ee.getCause() instanceof ConcordanceException)
+				{
+					invalid = invalid == null ? (ConcordanceException) ee.getCause() : invalid;
+					invalidCount++;
+				} // if
+			} // catch
+			catch(CancellationException | InterruptedException e)
+			{
+				for (Future<int[]> future : futures)
+				{
+					future.cancel(true);
+				} // for
+				if (e instanceof InterruptedException)
+				{
+					Thread.currentThread().interrupt();
+				} // if
+				throw new ConcordanceException("Inside ShardedConcordance -- query interrupted");
+			} // catch
+		} // for
+
+		if (invalidCount == shards.length)
+		{
+			throw invalid;
+		} // if
+		return new ShardResults(shardNames, shards, results, statuses, errors, shardNanos.clone());   // late shards still write
+	} // scatter(ShardQuery)
+	//-------------------------------------------------------------------------
+} // class ShardedConcordance
@@ -0,0 +1,24 @@
+import jdk.jfr.*;
+
+/**
+ *  Flight Recorder event emitted when a concordance's hash table doubles.
+ *  The event's duration is the time taken to reinsert every entry.
+ *
+ *  @author Max Sotsky
+ */
+
+@Name("concordance.TableResize")
+@Label("Concordance Table Resize")
+@Category("Concordance")
+@StackTrace(false)
+public class TableResizeEvent extends Event
+{
+	@Label("Old Size")
+	public int oldSize;
+
+	@Label("New Size")
+	public int newSize;
+
+	@Label("Entries")
+	public int entries;
+} // class TableResizeEvent
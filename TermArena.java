@@ -0,0 +1,240 @@
+import java.io.*;
+import java.nio.*;
+
+/**
+ *  The keys (words) of a concordance, stored one after another in a single
+ *  direct (off-heap) ByteBuffer instead of one String object per word.
+ *
+ *  A key is identified by its offset in the arena.  At that offset is its
+ *  length as a variable-length int, 2*length, plus 1 if the key has a
+ *  character above 255.  Then come its characters: one byte each
+ *  (ISO-8859-1) for most keys, or two bytes each (UTF-16) for keys with a
+ *  wider character.  A lookup compares the characters it is looking for
+ *  with these bytes in place, so no String is needed to find a word.
+ *  (The sorted TermDictionary still keeps a String per word for pattern
+ *  matching, and HashEntry.getKey() decodes a new String on each call,
+ *  so the arena speeds up probes rather than removing objects.)
+ *
+ *  Keys are added while a concordance is built, by one thread.  After
+ *  that any number of threads may read the arena at once, since reads use
+ *  absolute positions and never move the buffer's position.
+ *
+ *  A concordance loaded from a snapshot wraps the keys as they lie in the
+ *  mapped file (see Concordance.load); the first key added after that
+ *  copies them into a new buffer.
+ *
+ *  @author Max Sotsky
+ */
+
+public class TermArena
+{
+	private ByteBuffer bytes;
+	private int length = 0;   // bytes in use
+	//-------------------------------------------------------------------------
+	/**
+	 * @param  capacity  initial size in bytes (the arena grows as needed)
+	 */
+	public TermArena(int capacity)
+	{
+		bytes = ByteBuffer.allocateDirect(Math.max(16, capacity));
+	} // constructor TermArena(int)
+	//-------------------------------------------------------------------------
+	/**
+	 * Wraps keys written by write(), without copying them.
+	 *
+	 * @param  inBytes  exactly the keys' bytes
+	 */
+	TermArena(ByteBuffer inBytes)
+	{
+		bytes = inBytes;
+		length = inBytes.capacity();
+	} // constructor TermArena(ByteBuffer)
+	//-------------------------------------------------------------------------
+	/**
+	 * Adds key[0...keyLength-1] and returns its offset.
+	 */
+	public int add(char[] key, int keyLength)
+	{
+		int offset = length;
+		boolean wide = false;
+
+		for (int i = 0; i < keyLength; i++)
+		{
+			wide |= key[i] > 0xFF;
+		} // for
+		reserve(5 + (wide ? 2 : 1) * keyLength);
+		putLength(keyLength, wide);
+		for (int i = 0; i < keyLength; i++)
+		{
+			if (wide)
+			{
+				bytes.putChar(length, key[i]);
+				length += 2;
+			} // if
+			else
+			{
+				bytes.put(length++, (byte) key[i]);
+			} // else
+		} // for
+		return offset;
+	} // add(char[],int)
+	//-------------------------------------------------------------------------
+	/**
+	 * Adds key and returns its offset.
+	 */
+	public int add(String key)
+	{
+		return add(key.toCharArray(), key.length());
+	} // add(String)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns true if the key at offset is key[0...keyLength-1].
+	 */
+	public boolean matches(int offset, char[] key, int keyLength)
+	{
+		int header = getHeader(offset);
+		int start = offset + headerSize(header);
+
+		if (header >>> 1 != keyLength)
+		{
+			return false;
+		} // if
+		if ((header & 1) == 0)
+		{
+			for (int i = 0; i < keyLength; i++)
+			{
+				if ((bytes.get(start + i) & 0xFF) != key[i])
+				{
+					return false;
+				} // if
+			} // for
+		} // if
+		else
+		{
+			for (int i = 0; i < keyLength; i++)
+			{
+				if (bytes.getChar(start + 2 * i) != key[i])
+				{
+					return false;
+				} // if
+			} // for
+		} // else
+		return true;
+	} // matches(int,char[],int)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns true if the key at offset is key.
+	 */
+	public boolean matches(int offset, String key)
+	{
+		int header = getHeader(offset);
+		int start = offset + headerSize(header);
+
+		if (header >>> 1 != key.length())
+		{
+			return false;
+		} // if
+		for (int i = 0; i < key.length(); i++)
+		{
+			if (((header & 1) == 0 ? bytes.get(start + i) & 0xFF : bytes.getChar(start + 2 * i)) != key.charAt(i))
+			{
+				return false;
+			} // if
+		} // for
+		return true;
+	} // matches(int,String)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the key at offset as a new String.
+	 */
+	public String get(int offset)
+	{
+		int header = getHeader(offset);
+		int start = offset + headerSize(header);
+		char[] key = new char[header >>> 1];
+
+		for (int i = 0; i < key.length; i++)
+		{
+			key[i] = (header & 1) == 0 ? (char) (bytes.get(start + i) & 0xFF) : bytes.getChar(start + 2 * i);
+		} // for
+		return new String(key);
+	} // get(int)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the number of bytes in use.
+	 */
+	public int size()
+	{
+		return length;
+	} // size()
+	//-------------------------------------------------------------------------
+	/**
+	 * Writes the size() bytes in use, as TermArena(ByteBuffer) expects them.
+	 */
+	void write(DataOutputStream output) throws IOException
+	{
+		byte[] copy = new byte[length];
+
+		bytes.get(0, copy);
+		output.write(copy);
+	} // write(DataOutputStream)
+	//-------------------------------------------------------------------------
+	/**
+	 * Makes room for n more bytes, doubling the buffer if needed.
+	 */
+	private void reserve(int n)
+	{
+		ByteBuffer bigger;
+
+		if (length + n <= bytes.capacity())
+		{
+			return;
+		} // if
+		bigger = ByteBuffer.allocateDirect(Math.max(bytes.capacity() * 2, length + n));
+		bytes.position(0).limit(length);
+		bigger.put(bytes);
+		bytes = bigger.clear();
+	} // reserve(int)
+	//-------------------------------------------------------------------------
+	private void putLength(int keyLength, boolean wide)
+	{
+		int value = (keyLength << 1) | (wide ? 1 : 0);
+
+		while ((value & ~0x7F) != 0)
+		{
+			bytes.put(length++, (byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		} // while
+		bytes.put(length++, (byte) value);
+	} // putLength(int,boolean)
+	//-------------------------------------------------------------------------
+	private int getHeader(int offset)
+	{
+		int value = 0, shift = 0;
+		byte b;
+
+		do
+		{
+			b = bytes.get(offset++);
+			value |= (b & 0x7F) << shift;
+			shift += 7;
+		} while (b < 0);
+		return value;
+	} // getHeader(int)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the number of bytes the header value takes.
+	 */
+	private static int headerSize(int header)
+	{
+		int size = 1;
+
+		while ((header & ~0x7F) != 0)
+		{
+			header >>>= 7;
+			size++;
+		} // while
+		return size;
+	} // headerSize(int)
+	//-------------------------------------------------------------------------
+} // class TermArena
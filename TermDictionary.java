@@ -0,0 +1,401 @@
+import java.nio.*;
+import java.util.*;
+
+/**
+ *  Sorted dictionary of the words in a concordance, for prefix, suffix and
+ *  wildcard lookups that the hash table cannot answer without a full scan.
+ *
+ *  The words are kept in sorted order, together with a second ordering of
+ *  them by their spelling backwards (compared from the last character, so
+ *  no reversed copy is stored).  A prefix ("sanctif*") is a contiguous range
+ *  of the first order and a suffix ("*eth") a contiguous range of the
+ *  second, each found by two binary searches.  A general pattern with '*' (any run of
+ *  characters) and '?' (any one character) is matched against whichever of
+ *  its literal-prefix range or literal-suffix range is smaller, so the work
+ *  is proportional to the candidates rather than to the whole dictionary.
+ *  Only a pattern that starts and ends with a wildcard needs a full pass.
+ *
+ *  Each word is therefore held twice: as bytes in the table's TermArena,
+ *  which exact lookups probe, and as one String here, which the pattern
+ *  matchers work on.  A dictionary loaded from a snapshot takes both
+ *  orders from the file and decodes each String from the arena the first
+ *  time a lookup reaches it.  Two threads may both decode the same word;
+ *  either copy is correct, so the cache needs no locking.
+ *
+ *  @author Max Sotsky
+ */
+
+public class TermDictionary
+{
+	private String[] terms;            // null entries are decoded on first use
+	private HashEntry[] entries;
+	private IntBuffer reversedOrdinals;   // positions in terms[], in order of the words spelled backwards
+	//-------------------------------------------------------------------------
+	/**
+	 * Builds the dictionary from the non-empty slots of a hash table.
+	 */
+	public TermDictionary(HashEntry[] table)
+	{
+		ArrayList<HashEntry> all = new ArrayList<HashEntry>();
+		String[] keys;
+		Integer[] order;
+
+		for (HashEntry entry : table)
+		{
+			if (entry != null)
+			{
+				all.add(entry);
+			} // if
+		} // for
+
+		// getKey() may decode the key from an arena, so each is fetched once.
+		keys = new String[all.size()];
+		order = new Integer[all.size()];
+		for (int i = 0; i < order.length; i++)
+		{
+			keys[i] = all.get(i).getKey();
+			order[i] = i;
+		} // for
+		Arrays.sort(order, (a, b) -> keys[a].compareTo(keys[b]));
+
+		entries = new HashEntry[order.length];
+		terms = new String[order.length];
+		for (int i = 0; i < order.length; i++)
+		{
+			entries[i] = all.get(order[i]);
+			terms[i] = keys[order[i]];
+		} // for
+
+		for (int i = 0; i < order.length; i++)
+		{
+			order[i] = i;
+		} // for
+		Arrays.sort(order, (a, b) -> compareBackwards(terms[a], terms[b]));
+		reversedOrdinals = IntBuffer.allocate(order.length);
+		for (int i = 0; i < order.length; i++)
+		{
+			reversedOrdinals.put(i, order[i]);
+		} // for
+	} // constructor TermDictionary(HashEntry[])
+	//-------------------------------------------------------------------------
+	/**
+	 * Builds the dictionary from orders saved in a snapshot (see
+	 * getReversedOrdinal), without sorting or decoding any word.
+	 *
+	 * @param  table          the hash table
+	 * @param  sortedSlots    the table slot of each word, in sorted order
+	 * @param  inReversed     positions in sorted order, in order of the
+	 *                        words spelled backwards (used as is)
+	 */
+	TermDictionary(HashEntry[] table, IntBuffer sortedSlots, IntBuffer inReversed)
+	{
+		entries = new HashEntry[sortedSlots.capacity()];
+		for (int i = 0; i < entries.length; i++)
+		{
+			entries[i] = table[sortedSlots.get(i)];
+		} // for
+		terms = new String[entries.length];
+		reversedOrdinals = inReversed;
+	} // constructor TermDictionary(HashEntry[],IntBuffer,IntBuffer)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the number of words in the dictionary.
+	 */
+	public int size()
+	{
+		return terms.length;
+	} // size()
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the i-th word in sorted order.
+	 */
+	public String getTerm(int i)
+	{
+		String term = terms[i];
+
+		if (term == null)
+		{
+			term = entries[i].getKey();
+			terms[i] = term;
+		} // if
+		return term;
+	} // getTerm(int)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the table entry of the i-th word in sorted order.
+	 */
+	HashEntry getEntry(int i)
+	{
+		return entries[i];
+	} // getEntry(int)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the sorted position of the i-th word in order of the words
+	 * spelled backwards (for a snapshot).
+	 */
+	int getReversedOrdinal(int i)
+	{
+		return reversedOrdinals.get(i);
+	} // getReversedOrdinal(int)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the dictionary positions of the words matching pattern, in
+	 * alphabetical order.  The pattern is lowercased one character at a
+	 * time, as keys are (see Concordance.customToLowerCase), so the result
+	 * does not depend on the default locale; '*' matches any run of
+	 * characters (including none) and '?' any single character.
+	 */
+	public int[] match(String pattern)
+	{
+		String lower = lowerCase(pattern);
+		int firstWild = indexOfWildcard(lower, true), lastWild = indexOfWildcard(lower, false);
+		String prefix, suffix;
+		int[] prefixRange, suffixRange, result;
+		int count = 0;
+
+		if (firstWild < 0)
+		{
+			// No wildcards: the exact word, if present.
+			int i = lowerBound(lower);
+			return i < terms.length && getTerm(i).equals(lower) ? new int[] {i} : new int[0];
+		} // if
+
+		prefix = lower.substring(0, firstWild);
+		suffix = lower.substring(lastWild + 1);
+		prefixRange = new int[] {lowerBound(prefix), lowerBound(prefix + Character.MAX_VALUE)};
+		suffixRange = new int[] {suffixBound(suffix), suffixBound(Character.MAX_VALUE + suffix)};
+
+		if (prefixRange[1] - prefixRange[0] <= suffixRange[1] - suffixRange[0])
+		{
+			result = new int[prefixRange[1] - prefixRange[0]];
+			for (int i = prefixRange[0]; i < prefixRange[1]; i++)
+			{
+				if (globMatches(lower, 0, getTerm(i), 0))
+				{
+					result[count++] = i;
+				} // if
+			} // for
+			return Arrays.copyOf(result, count);
+		} // if
+
+		result = new int[suffixRange[1] - suffixRange[0]];
+		for (int i = suffixRange[0]; i < suffixRange[1]; i++)
+		{
+			if (globMatches(lower, 0, getTerm(reversedOrdinals.get(i)), 0))
+			{
+				result[count++] = reversedOrdinals.get(i);
+			} // if
+		} // for
+		result = Arrays.copyOf(result, count);
+		Arrays.sort(result);
+		return result;
+	} // match(String)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the dictionary positions of the words the automaton accepts,
+	 * with their edit distances in distances[] (which must have size()
+	 * entries; only those at the returned positions are written).
+	 *
+	 * The sorted array is walked as if it were a trie.  One automaton state
+	 * is kept per prefix length, and a word sharing its first L characters
+	 * with the previous word reuses the first L states.  When the state after
+	 * some prefix can no longer reach an accepting state, every word with that
+	 * prefix is skipped with one binary search.
+	 */
+	public int[] fuzzyMatch(LevenshteinAutomaton automaton, int[] distances)
+	{
+		int[][] rows = new int[1][];
+		int[] result = new int[16];
+		int count = 0, valid = 0, i = 0, depth, common;
+		String term, previous = "";
+		boolean pruned;
+
+		rows[0] = new int[automaton.rowLength()];
+		automaton.start(rows[0]);
+		while (i < terms.length)
+		{
+			term = getTerm(i);
+
+			// Reuse the states of the prefix shared with the previous word.
+			common = 0;
+			while (common < term.length() && common < previous.length() && common < valid
+					&& term.charAt(common) == previous.charAt(common))
+			{
+				common++;
+			} // while
+			if (rows.length <= term.length())
+			{
+				rows = Arrays.copyOf(rows, Math.max(rows.length * 2, term.length() + 1));
+			} // if
+
+			pruned = false;
+			for (depth = common + 1; depth <= term.length(); depth++)
+			{
+				if (rows[depth] == null)
+				{
+					rows[depth] = new int[automaton.rowLength()];
+				} // if
+				automaton.step(rows[depth - 1], term.charAt(depth - 1), depth, rows[depth]);
+				if (!automaton.canMatch(rows[depth]))
+				{
+					pruned = true;
+					break;
+				} // if
+			} // for
+
+			previous = term;
+			if (pruned)
+			{
+				// No word starting with term[0...depth-1] can match.
+				valid = depth - 1;
+				i = Math.max(i + 1, lowerBound(term.substring(0, depth) + Character.MAX_VALUE));
+				continue;
+			} // if
+
+			valid = term.length();
+			if (automaton.isAccepted(rows[term.length()]))
+			{
+				if (count == result.length)
+				{
+					result = Arrays.copyOf(result, count * 2);
+				} // if
+				distances[i] = automaton.distance(rows[term.length()]);
+				result[count++] = i;
+			} // if
+			i++;
+		} // while
+
+		return Arrays.copyOf(result, count);
+	} // fuzzyMatch(LevenshteinAutomaton,int[])
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the position of the first word that is >= key.
+	 */
+	private int lowerBound(String key)
+	{
+		int low = 0, high = terms.length, middle;
+
+		while (low < high)
+		{
+			middle = (low + high) >>> 1;
+			if (getTerm(middle).compareTo(key) < 0)
+			{
+				low = middle + 1;
+			} // if
+			else
+			{
+				high = middle;
+			} // else
+		} // while
+		return low;
+	} // lowerBound(String)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the position in reversedOrdinals of the first word that,
+	 * spelled backwards, is >= key spelled backwards.
+	 */
+	private int suffixBound(String key)
+	{
+		int low = 0, high = reversedOrdinals.capacity(), middle;
+
+		while (low < high)
+		{
+			middle = (low + high) >>> 1;
+			if (compareBackwards(getTerm(reversedOrdinals.get(middle)), key) < 0)
+			{
+				low = middle + 1;
+			} // if
+			else
+			{
+				high = middle;
+			} // else
+		} // while
+		return low;
+	} // suffixBound(String)
+	//-------------------------------------------------------------------------
+	/**
+	 * Compares a and b as String.compareTo would compare them spelled
+	 * backwards.
+	 */
+	private static int compareBackwards(String a, String b)
+	{
+		int n = Math.min(a.length(), b.length());
+		char ca, cb;
+
+		for (int i = 1; i <= n; i++)
+		{
+			ca = a.charAt(a.length() - i);
+			cb = b.charAt(b.length() - i);
+			if (ca != cb)
+			{
+				return ca - cb;
+			} // if
+		} // for
+		return a.length() - b.length();
+	} // compareBackwards(String,String)
+	//-------------------------------------------------------------------------
+	/**
+	 * Lowercases each character of pattern with Character.toLowerCase,
+	 * independently of the default locale.
+	 */
+	private static String lowerCase(String pattern)
+	{
+		char[] lower = new char[pattern.length()];
+
+		for (int i = 0; i < lower.length; i++)
+		{
+			lower[i] = Character.toLowerCase(pattern.charAt(i));
+		} // for
+		return new String(lower);
+	} // lowerCase(String)
+	//-------------------------------------------------------------------------
+	private static int indexOfWildcard(String pattern, boolean first)
+	{
+		int star = first ? pattern.indexOf('*') : pattern.lastIndexOf('*');
+		int question = first ? pattern.indexOf('?') : pattern.lastIndexOf('?');
+
+		if (star < 0 || question < 0)
+		{
+			return Math.max(star, question);
+		} // if
+		return first ? Math.min(star, question) : Math.max(star, question);
+	} // indexOfWildcard(String,boolean)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns true if word[w...] matches pattern[p...].
+	 */
+	private static boolean globMatches(String pattern, int p, String word, int w)
+	{
+		int starP = -1, starW = 0;
+
+		while (w < word.length())
+		{
+			if (p < pattern.length() && (pattern.charAt(p) == '?' || pattern.charAt(p) == word.charAt(w)))
+			{
+				p++;
+				w++;
+			} // if
+			else if (p < pattern.length() && pattern.charAt(p) == '*')
+			{
+				starP = p++;
+				starW = w;
+			} // else if
+			else if (starP >= 0)
+			{
+				// Let the last '*' absorb one more character and retry.
+				p = starP + 1;
+				w = ++starW;
+			} // else if
+			else
+			{
+				return false;
+			} // else
+		} // while
+		while (p < pattern.length() && pattern.charAt(p) == '*')
+		{
+			p++;
+		} // while
+		return p == pattern.length();
+	} // globMatches(String,int,String,int)
+	//-------------------------------------------------------------------------
+} // class TermDictionary
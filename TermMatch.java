@@ -0,0 +1,55 @@
+
+/**
+ *  A word of the concordance returned by a pattern or similarity lookup,
+ *  together with its number of references and, for similarity lookups,
+ *  its edit distance from the word asked for.  CorpusStatistics returns
+ *  words the same way, with the count it was asked for (occurrences, or
+ *  verses shared with another word).
+ *
+ *  @author Max Sotsky
+ */
+
+public class TermMatch
+{
+	private String term;
+	private int count;
+	private int distance;
+	//-------------------------------------------------------------------------
+	public TermMatch(String inTerm, int inCount, int inDistance)
+	{
+		term = inTerm;
+		count = inCount;
+		distance = inDistance;
+	} // constructor TermMatch(String,int,int)
+	//-------------------------------------------------------------------------
+	/**
+	 * Standard accessor method for the matching word.
+	 */
+	public String getTerm()
+	{
+		return term;
+	} // getTerm()
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the number of verses the word occurs in (for CorpusStatistics,
+	 * see above).
+	 */
+	public int getCount()
+	{
+		return count;
+	} // getCount()
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the edit distance from the word asked for (0 for pattern matches).
+	 */
+	public int getDistance()
+	{
+		return distance;
+	} // getDistance()
+	//-------------------------------------------------------------------------
+	public String toString()
+	{
+		return term + " (" + count + ")";
+	} // toString()
+	//-------------------------------------------------------------------------
+} // class TermMatch
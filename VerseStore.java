@@ -0,0 +1,300 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.charset.*;
+import java.util.*;
+
+/**
+ *  Compact store of the text of every verse, indexed by verse number
+ *  (0 for the first verse of the file, 1 for the next, ...).
+ *
+ *  All verse texts are packed one after another into a single byte arena,
+ *  one byte per character (ISO-8859-1; anything else is stored as '?'),
+ *  with the lines of a verse joined by single spaces.  Three int arrays
+ *  give each verse's packed ID, the offset of its text and its number of
+ *  words (for ranking; see RankedQuery).  While a concordance is being
+ *  built the arena is a growable byte[]; a store read back from a snapshot
+ *  is a slice of the mapped snapshot file, so the text of a verse is only
+ *  paged in when it is actually asked for.
+ *
+ *  @author Max Sotsky
+ */
+
+public class VerseStore
+{
+	private int[] verseIds = new int[1024];
+	private int[] verseStarts = new int[1024];
+	private int[] wordCounts = new int[1024];
+	private int verseCount = 0;
+	private byte[] arena = new byte[1 << 16];
+	private ByteBuffer mappedArena;   // non-null once read from a snapshot
+	private int textLength = 0;
+	//-------------------------------------------------------------------------
+	/**
+	 * Starts the text of a new verse.
+	 *
+	 * @param  packedId  the verse's ID, as produced by ID.pack; verses must be
+	 *                   started in canonical order
+	 */
+	public void startVerse(int packedId)
+	{
+		if (verseCount == verseIds.length)
+		{
+			verseIds = Arrays.copyOf(verseIds, verseCount * 2);
+			verseStarts = Arrays.copyOf(verseStarts, verseCount * 2);
+			wordCounts = Arrays.copyOf(wordCounts, verseCount * 2);
+		} // if
+		verseIds[verseCount] = packedId;
+		verseStarts[verseCount] = textLength;
+		verseCount++;
+	} // startVerse(int)
+	//-------------------------------------------------------------------------
+	/**
+	 * Appends line[start...end-1], trimmed, to the current verse, separated
+	 * from any text already there by a space.  Ignored if no verse has been
+	 * started or the line is blank.
+	 */
+	public void append(char[] line, int start, int end)
+	{
+		char c;
+
+		while (start < end && line[start] <= ' ')
+		{
+			start++;
+		} // while
+		while (end > start && line[end - 1] <= ' ')
+		{
+			end--;
+		} // while
+		if (verseCount == 0 || start == end)
+		{
+			return;
+		} // if
+
+		if (textLength + (end - start) + 1 > arena.length)
+		{
+			arena = Arrays.copyOf(arena, Math.max(arena.length * 2, textLength + (end - start) + 1));
+		} // if
+		if (textLength > verseStarts[verseCount - 1])
+		{
+			arena[textLength++] = ' ';
+		} // if
+		for (int i = start; i < end; i++)
+		{
+			c = line[i];
+			arena[textLength++] = (byte) (c < 256 ? c : '?');
+		} // for
+	} // append(char[],int,int)
+	//-------------------------------------------------------------------------
+	/**
+	 * Sets the number of words in the current verse so far.  Ignored if no
+	 * verse has been started.
+	 */
+	public void setWordCount(int count)
+	{
+		if (verseCount > 0)
+		{
+			wordCounts[verseCount - 1] = count;
+		} // if
+	} // setWordCount(int)
+	//-------------------------------------------------------------------------
+	/**
+	 * Appends all of other's verses after this store's own.  Used when
+	 * merging concordances, so other's verses must all come later.  A store
+	 * read from a snapshot is copied onto the heap first.
+	 */
+	public void append(VerseStore other)
+	{
+		if (mappedArena != null)
+		{
+			// Read from a snapshot: bring the text onto the heap so it can grow.
+			arena = new byte[textLength + other.textLength];
+			mappedArena.duplicate().position(0).get(arena, 0, textLength);
+			mappedArena = null;
+		} // if
+		if (verseCount + other.verseCount > verseIds.length)
+		{
+			verseIds = Arrays.copyOf(verseIds, verseCount + other.verseCount);
+			verseStarts = Arrays.copyOf(verseStarts, verseCount + other.verseCount);
+			wordCounts = Arrays.copyOf(wordCounts, verseCount + other.verseCount);
+		} // if
+		for (int i = 0; i < other.verseCount; i++)
+		{
+			verseIds[verseCount + i] = other.verseIds[i];
+			verseStarts[verseCount + i] = other.verseStarts[i] + textLength;
+			wordCounts[verseCount + i] = other.wordCounts[i];
+		} // for
+		verseCount += other.verseCount;
+
+		if (textLength + other.textLength > arena.length)
+		{
+			arena = Arrays.copyOf(arena, textLength + other.textLength);
+		} // if
+		if (other.mappedArena != null)
+		{
+			other.mappedArena.duplicate().position(0).get(arena, textLength, other.textLength);
+		} // if
+		else
+		{
+			System.arraycopy(other.arena, 0, arena, textLength, other.textLength);
+		} // else
+		textLength += other.textLength;
+	} // append(VerseStore)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the number of verses stored.
+	 */
+	public int size()
+	{
+		return verseCount;
+	} // size()
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the number of the verse with the given packed ID, or -1.
+	 */
+	public int ordinalOf(int packedId)
+	{
+		int i = Arrays.binarySearch(verseIds, 0, verseCount, packedId);
+		return i >= 0 ? i : -1;
+	} // ordinalOf(int)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the number of the first verse whose packed ID is at least
+	 * packedId, or size() if there is none.
+	 */
+	public int ceilingOrdinal(int packedId)
+	{
+		int i = Arrays.binarySearch(verseIds, 0, verseCount, packedId);
+		return i >= 0 ? i : -(i + 1);
+	} // ceilingOrdinal(int)
+	//-------------------------------------------------------------------------
+	/**
+	 * Same as ceilingOrdinal(int), for an answer known to be at least from;
+	 * searches outwards from there, so it is quickest when the verse is near.
+	 */
+	public int ceilingOrdinal(int packedId, int from)
+	{
+		return HashEntry.gallop(verseIds, verseCount, packedId, Math.max(0, from));
+	} // ceilingOrdinal(int,int)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the packed ID of verse number ordinal.
+	 */
+	public int getID(int ordinal)
+	{
+		return verseIds[ordinal];
+	} // getID(int)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the number of words in verse number ordinal.
+	 */
+	public int getWordCount(int ordinal)
+	{
+		return wordCounts[ordinal];
+	} // getWordCount(int)
+	//-------------------------------------------------------------------------
+	/**
+	 * Returns the text of verse number ordinal.
+	 */
+	public String getText(int ordinal)
+	{
+		int start = verseStarts[ordinal];
+		int end = ordinal + 1 < verseCount ? verseStarts[ordinal + 1] : textLength;
+		byte[] bytes;
+
+		if (mappedArena == null)
+		{
+			return new String(arena, start, end - start, StandardCharsets.ISO_8859_1);
+		} // if
+		bytes = new byte[end - start];
+		mappedArena.duplicate().position(start).get(bytes);   // duplicate(): safe for concurrent readers
+		return new String(bytes, StandardCharsets.ISO_8859_1);
+	} // getText(int)
+	//-------------------------------------------------------------------------
+	/**
+	 * Writes the store to a snapshot: verse count, IDs, offsets, word counts,
+	 * text length and text.
+	 */
+	void write(DataOutputStream output) throws IOException
+	{
+		output.writeInt(verseCount);
+		for (int i = 0; i < verseCount; i++)
+		{
+			output.writeInt(verseIds[i]);
+		} // for
+		for (int i = 0; i < verseCount; i++)
+		{
+			output.writeInt(verseStarts[i]);
+		} // for
+		for (int i = 0; i < verseCount; i++)
+		{
+			output.writeInt(wordCounts[i]);
+		} // for
+		output.writeInt(textLength);
+		if (mappedArena == null)
+		{
+			output.write(arena, 0, textLength);
+		} // if
+		else
+		{
+			byte[] bytes = new byte[textLength];
+			mappedArena.duplicate().position(0).get(bytes);
+			output.write(bytes);
+		} // else
+	} // write(DataOutputStream)
+	//-------------------------------------------------------------------------
+	/**
+	 * Reads a store written by write() from a mapped snapshot, leaving the
+	 * buffer positioned after it.  The text itself is not copied, so the
+	 * verse ids and offsets are checked here before anything indexes into it.
+	 */
+	static VerseStore read(ByteBuffer buffer) throws ConcordanceException
+	{
+		VerseStore store = new VerseStore();
+
+		if (buffer.remaining() < 4)
+		{
+			throw new ConcordanceException("Inside VerseStore -- snapshot ends before the verse count");
+		} // if
+		store.verseCount = buffer.getInt();
+		if (store.verseCount < 0 || 12L * store.verseCount + 4 > buffer.remaining())
+		{
+			throw new ConcordanceException("Inside VerseStore -- bad verse count " + store.verseCount);
+		} // if
+		store.verseIds = new int[store.verseCount];
+		store.verseStarts = new int[store.verseCount];
+		store.wordCounts = new int[store.verseCount];
+		buffer.asIntBuffer().get(store.verseIds);
+		buffer.position(buffer.position() + 4 * store.verseCount);
+		buffer.asIntBuffer().get(store.verseStarts);
+		buffer.position(buffer.position() + 4 * store.verseCount);
+		buffer.asIntBuffer().get(store.wordCounts);
+		buffer.position(buffer.position() + 4 * store.verseCount);
+		store.textLength = buffer.getInt();
+		if (store.textLength < 0 || store.textLength > buffer.remaining())
+		{
+			throw new ConcordanceException("Inside VerseStore -- bad text length " + store.textLength);
+		} // if
+		for (int i = 0; i < store.verseCount; i++)
+		{
+			if (i > 0 && store.verseIds[i] <= store.verseIds[i - 1])
+			{
+				throw new ConcordanceException("Inside VerseStore -- verse ids out of order at verse " + i);
+			} // if
+			int previous = (i == 0) ? 0 : store.verseStarts[i - 1];
+			if (store.verseStarts[i] < previous || store.verseStarts[i] > store.textLength)
+			{
+				throw new ConcordanceException("Inside VerseStore -- bad text offset for verse " + i);
+			} // if
+			if (store.wordCounts[i] < 0)
+			{
+				throw new ConcordanceException("Inside VerseStore -- bad word count for verse " + i);
+			} // if
+		} // for
+		store.mappedArena = buffer.slice();
+		store.mappedArena.limit(store.textLength);
+		store.arena = null;
+		buffer.position(buffer.position() + store.textLength);
+		return store;
+	} // read(ByteBuffer)
+	//-------------------------------------------------------------------------
+} // class VerseStore